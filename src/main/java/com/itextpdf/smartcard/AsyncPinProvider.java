@@ -0,0 +1,133 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard;
+
+import javax.smartcardio.CardException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * PinProvider that asks another PinProvider for the PIN before the
+ * PIN is needed. While the user is entering the PIN, the card can
+ * be used to read certificates and to prepare the security environment.
+ */
+public class AsyncPinProvider implements PinProvider {
+
+	/** Logger instance. */
+	private final static Logger LOGGER = LoggerFactory.getLogger(AsyncPinProvider.class);
+	
+	/** The pin provider that asks the PIN. */
+	protected PinProvider pinProvider;
+	
+	/** The PIN that is being asked in the background (null if none). */
+	private FutureTask<char[]> pendingPin;
+	
+	/**
+	 * Creates an AsyncPinProvider.
+	 * @param pinProvider	the pin provider that asks the PIN
+	 */
+	public AsyncPinProvider(PinProvider pinProvider) {
+		this.pinProvider = pinProvider;
+	}
+	
+	/**
+	 * Returns the pin provider that asks the PIN.
+	 * @return	a PinProvider
+	 */
+	public PinProvider getPinProvider() {
+		return pinProvider;
+	}
+	
+	/**
+	 * Starts asking the PIN in the background, unless this is already going on.
+	 * @param executor	the executor that will call the pin provider
+	 */
+	public synchronized void prefetch(Executor executor) {
+		if (pendingPin != null)
+			return;
+		LOGGER.info("Asking PIN in the background");
+		pendingPin = new FutureTask<char[]>(new Callable<char[]>() {
+			public char[] call() throws CardException {
+				return pinProvider.getPin(-1);
+			}
+		});
+		executor.execute(pendingPin);
+	}
+	
+	/**
+	 * Returns the PIN that was asked in the background, waiting for the
+	 * user if necessary. If no PIN was asked in the background, or if the
+	 * PIN is asked again after a wrong PIN, the pin provider is called directly.
+	 * @see com.itextpdf.smartcard.PinProvider#getPin(int)
+	 */
+	public char[] getPin(int retries) throws CardException {
+		FutureTask<char[]> pin;
+		synchronized (this) {
+			pin = pendingPin;
+			pendingPin = null;
+		}
+		if (pin == null || retries != -1) {
+			if (pin != null)
+				pin.cancel(false);
+			return pinProvider.getPin(retries);
+		}
+		try {
+			return pin.get();
+		} catch (InterruptedException e) {
+			pin.cancel(true);
+			throw new CardException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof CardException)
+				throw (CardException) e.getCause();
+			throw new CardException(e.getCause());
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The capabilities of a card generation, found out by probing a card.
+ * Cards with the same historical bytes in their ATR share a profile,
+ * so the probe only needs to happen once (see CardProfiles).
+ */
+public class CardProfile {
+
+	/** True if the card accepts extended APDUs (null if unknown). */
+	protected Boolean extendedLength;
+	
+	/** The number of logical channels the card supports (-1 if unknown). */
+	protected int logicalChannels = -1;
+	
+	/** The delay (in ms) the card needs between an answer and the next APDU. */
+	protected long interApduDelay;
+	
+	/** The delay (in ms) the card needs after a file was selected (-1 if unknown). */
+	protected long postSelectDelay = -1;
+	
+	/** The encryption algorithms of the keys, mapped by key id. */
+	protected Map<Byte, String> keyAlgorithms = new HashMap<Byte, String>();
+	
+	/**
+	 * Checks if the card accepts extended APDUs.
+	 * @return	true or false, or null if unknown
+	 */
+	public Boolean getExtendedLength() {
+		return extendedLength;
+	}
+	
+	/**
+	 * Sets whether the card accepts extended APDUs.
+	 * @param extendedLength	true or false, or null if unknown
+	 */
+	public void setExtendedLength(Boolean extendedLength) {
+		this.extendedLength = extendedLength;
+	}
+	
+	/**
+	 * Returns the number of logical channels the card supports.
+	 * @return	a number of channels (-1 if unknown)
+	 */
+	public int getLogicalChannels() {
+		return logicalChannels;
+	}
+	
+	/**
+	 * Sets the number of logical channels the card supports.
+	 * @param logicalChannels	a number of channels (-1 if unknown)
+	 */
+	public void setLogicalChannels(int logicalChannels) {
+		this.logicalChannels = logicalChannels;
+	}
+	
+	/**
+	 * Returns the delay the card needs between an answer and the next APDU.
+	 * @return	a delay in milliseconds
+	 */
+	public long getInterApduDelay() {
+		return interApduDelay;
+	}
+	
+	/**
+	 * Sets the delay the card needs between an answer and the next APDU.
+	 * @param interApduDelay	a delay in milliseconds
+	 */
+	public void setInterApduDelay(long interApduDelay) {
+		this.interApduDelay = interApduDelay;
+	}
+	
+	/**
+	 * Returns the delay the card needs after a file was selected.
+	 * @return	a delay in milliseconds (-1 if unknown)
+	 */
+	public long getPostSelectDelay() {
+		return postSelectDelay;
+	}
+	
+	/**
+	 * Sets the delay the card needs after a file was selected.
+	 * @param postSelectDelay	a delay in milliseconds (-1 if unknown)
+	 */
+	public void setPostSelectDelay(long postSelectDelay) {
+		this.postSelectDelay = postSelectDelay;
+	}
+	
+	/**
+	 * Returns the encryption algorithms of the keys.
+	 * @return	an unmodifiable map of algorithms (e.g. "RSA") by key id
+	 */
+	public Map<Byte, String> getKeyAlgorithms() {
+		return Collections.unmodifiableMap(keyAlgorithms);
+	}
+	
+	/**
+	 * Sets the encryption algorithm of a key.
+	 * @param keyId	the id of the key
+	 * @param algorithm	the algorithm (e.g. "ECDSA")
+	 */
+	public void setKeyAlgorithm(byte keyId, String algorithm) {
+		keyAlgorithms.put(keyId, algorithm);
+	}
+	
+	/**
+	 * Writes the profile to a Properties object.
+	 * @param properties	the properties
+	 * @param prefix	the prefix of the property names
+	 */
+	public void store(Properties properties, String prefix) {
+		if (extendedLength != null)
+			properties.setProperty(prefix + "extendedLength", extendedLength.toString());
+		properties.setProperty(prefix + "logicalChannels", String.valueOf(logicalChannels));
+		properties.setProperty(prefix + "interApduDelay", String.valueOf(interApduDelay));
+		properties.setProperty(prefix + "postSelectDelay", String.valueOf(postSelectDelay));
+		for (Map.Entry<Byte, String> entry : keyAlgorithms.entrySet()) {
+			properties.setProperty(prefix + "keyAlgorithm." + Integer.toHexString(entry.getKey() & 0xFF), entry.getValue());
+		}
+	}
+	
+	/**
+	 * Reads a profile from a Properties object.
+	 * @param properties	the properties
+	 * @param prefix	the prefix of the property names
+	 * @return	a CardProfile, or null if there's no profile with that prefix
+	 */
+	public static CardProfile load(Properties properties, String prefix) {
+		String logicalChannels = properties.getProperty(prefix + "logicalChannels");
+		if (logicalChannels == null)
+			return null;
+		CardProfile profile = new CardProfile();
+		try {
+			profile.logicalChannels = Integer.parseInt(logicalChannels);
+			profile.interApduDelay = Long.parseLong(properties.getProperty(prefix + "interApduDelay", "0"));
+			profile.postSelectDelay = Long.parseLong(properties.getProperty(prefix + "postSelectDelay", "-1"));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		String extendedLength = properties.getProperty(prefix + "extendedLength");
+		if (extendedLength != null)
+			profile.extendedLength = Boolean.valueOf(extendedLength);
+		String keyPrefix = prefix + "keyAlgorithm.";
+		for (String name : properties.stringPropertyNames()) {
+			if (name.startsWith(keyPrefix)) {
+				try {
+					profile.keyAlgorithms.put((byte) Integer.parseInt(name.substring(keyPrefix.length()), 16),
+							properties.getProperty(name));
+				} catch (NumberFormatException e) {
+					// not a key id
+				}
+			}
+		}
+		return profile;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "extended length: " + extendedLength + ", logical channels: " + logicalChannels
+			+ ", inter-APDU delay: " + interApduDelay + ", post-SELECT delay: " + postSelectDelay
+			+ ", keys: " + keyAlgorithms;
+	}
+}
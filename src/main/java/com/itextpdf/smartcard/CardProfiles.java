@@ -0,0 +1,161 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard;
+
+import javax.smartcardio.ATR;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small file with the profiles of the card generations that were probed,
+ * keyed by the historical bytes of the ATR.
+ */
+public class CardProfiles {
+
+	/** Logger instance. */
+	private final static Logger LOGGER = LoggerFactory.getLogger(CardProfiles.class);
+	
+	/** The file with the profiles. */
+	protected File file;
+	
+	/** The profiles, as properties. */
+	protected Properties properties = new Properties();
+	
+	/**
+	 * Creates a store for card profiles, reading the file if it exists.
+	 * @param file	the file with the profiles
+	 */
+	public CardProfiles(File file) {
+		this.file = file;
+		if (file.exists()) {
+			try {
+				InputStream in = new FileInputStream(file);
+				try {
+					properties.load(in);
+				}
+				finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				LOGGER.warn("Couldn't read card profiles from " + file + ": " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Returns the default file for card profiles in the home directory of the user.
+	 * @return	a File
+	 */
+	public static File getDefaultFile() {
+		return new File(System.getProperty("user.home"), ".smartcard-profiles.properties");
+	}
+	
+	/**
+	 * Gets the key of the profiles of cards with a specific ATR.
+	 * @param atr	the ATR of the card
+	 * @return	the historical bytes in hexadecimal (the whole ATR if there are none)
+	 */
+	protected String getKey(ATR atr) {
+		byte[] bytes = atr.getHistoricalBytes();
+		if (bytes.length == 0)
+			bytes = atr.getBytes();
+		StringBuilder key = new StringBuilder(bytes.length * 2 + 1);
+		for (byte b : bytes) {
+			key.append(Character.forDigit((b >> 4) & 0x0F, 16));
+			key.append(Character.forDigit(b & 0x0F, 16));
+		}
+		return key.append('.').toString();
+	}
+	
+	/**
+	 * Gets the profile of cards with a specific ATR.
+	 * @param atr	the ATR of the card
+	 * @return	a CardProfile, or null if no card with this ATR was probed
+	 */
+	public synchronized CardProfile getProfile(ATR atr) {
+		return CardProfile.load(properties, getKey(atr));
+	}
+	
+	/**
+	 * Stores the profile of cards with a specific ATR, and writes the file.
+	 * @param atr	the ATR of the card
+	 * @param profile	the profile
+	 * @throws IOException	if the file can't be written
+	 */
+	public synchronized void putProfile(ATR atr, CardProfile profile) throws IOException {
+		String key = getKey(atr);
+		for (String name : properties.stringPropertyNames()) {
+			if (name.startsWith(key))
+				properties.remove(name);
+		}
+		profile.store(properties, key);
+		// write to a temporary file first, so that the file is never half written
+		File parent = file.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile("profiles", ".tmp", parent);
+		OutputStream out = new FileOutputStream(temp);
+		try {
+			properties.store(out, "Smart card profiles");
+		}
+		finally {
+			out.close();
+		}
+		if (!temp.renameTo(file)) {
+			file.delete();
+			if (!temp.renameTo(file)) {
+				temp.delete();
+				throw new IOException("Couldn't write " + file);
+			}
+		}
+	}
+}
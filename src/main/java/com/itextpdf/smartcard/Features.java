@@ -44,17 +44,16 @@
  */
 package com.itextpdf.smartcard;
 
-import javax.smartcardio.Card;
-import javax.smartcardio.CardException;
+import com.itextpdf.smartcard.transport.CardTransport;
 
-import java.util.HashMap;
-import java.util.Map;
+import javax.smartcardio.CardException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Lists the features available on the smart card reader with the smart card.
+ * Lists the features available on the smart card reader with the smart card
+ * (PC/SC part 10), and the properties of its pin pad.
  */
 public class Features {
 
@@ -79,29 +78,82 @@ public class Features {
 	/** A feature code. */
 	public static final byte FEATURE_MODIFY_PIN_DIRECT_TAG = 0x07;
 	/** A feature code. */
+	public static final byte FEATURE_MCT_READER_DIRECT_TAG = 0x08;
+	/** A feature code. */
+	public static final byte FEATURE_MCT_UNIVERSAL_TAG = 0x09;
+	/** A feature code. */
+	public static final byte FEATURE_IFD_PIN_PROPERTIES_TAG = 0x0A;
+	/** A feature code. */
+	public static final byte FEATURE_ABORT_TAG = 0x0B;
+	/** A feature code. */
+	public static final byte FEATURE_SET_SPE_MESSAGE_TAG = 0x0C;
+	/** A feature code. */
+	public static final byte FEATURE_VERIFY_PIN_DIRECT_APP_ID_TAG = 0x0D;
+	/** A feature code. */
+	public static final byte FEATURE_MODIFY_PIN_DIRECT_APP_ID_TAG = 0x0E;
+	/** A feature code. */
+	public static final byte FEATURE_WRITE_DISPLAY_TAG = 0x0F;
+	/** A feature code. */
+	public static final byte FEATURE_GET_KEY_TAG = 0x10;
+	/** A feature code. */
+	public static final byte FEATURE_IFD_DISPLAY_PROPERTIES_TAG = 0x11;
+	/** A feature code. */
+	public static final byte FEATURE_GET_TLV_PROPERTIES_TAG = 0x12;
+	/** A feature code. */
+	public static final byte FEATURE_CCID_ESC_COMMAND_TAG = 0x13;
+	/** A feature code. */
 	public static final byte FEATURE_EID_PIN_PAD_READER_TAG = (byte) 0x80;
+	
+	/** A TLV property tag. */
+	public static final int PROPERTY_LCD_LAYOUT = 0x01;
+	/** A TLV property tag. */
+	public static final int PROPERTY_ENTRY_VALIDATION_CONDITION = 0x02;
+	/** A TLV property tag. */
+	public static final int PROPERTY_TIME_OUT_2 = 0x03;
+	/** A TLV property tag. */
+	public static final int PROPERTY_LCD_MAX_CHARACTERS = 0x04;
+	/** A TLV property tag. */
+	public static final int PROPERTY_LCD_MAX_LINES = 0x05;
+	/** A TLV property tag. */
+	public static final int PROPERTY_MIN_PIN_SIZE = 0x06;
+	/** A TLV property tag. */
+	public static final int PROPERTY_MAX_PIN_SIZE = 0x07;
 
-	/** The map containing the features available on a specific smart card / reader. */
-	protected Map<Byte, Integer> features = new HashMap<Byte, Integer>();
+	/** The control codes of the features, indexed by feature tag (0 if the feature isn't available). */
+	protected int[] features = new int[256];
+	
+	/** The layout of the display of the pin pad (0 if there's no display, -1 if unknown). */
+	protected int lcdLayout = -1;
+	
+	/** The conditions that end the PIN entry, supported by the pin pad (-1 if unknown). */
+	protected int entryValidationCondition = -1;
+	
+	/** The timeout (in seconds) after the first key stroke used by the pin pad (-1 if unknown). */
+	protected int timeOut2 = -1;
+	
+	/** The minimum PIN size supported by the pin pad (-1 if unknown). */
+	protected int minPinSize = -1;
+	
+	/** The maximum PIN size supported by the pin pad (-1 if unknown). */
+	protected int maxPinSize = -1;
 	
 	/**
 	 * Creates a map of features available on a SmartCard.
 	 * @param smartCard	a SmartCard instance
 	 */
 	public Features(SmartCard smartCard) {
-		Card card = smartCard.getCard();
+		CardTransport card = smartCard.getTransport();
 		LOGGER.info("Transmitting command: " + Integer.toHexString(CONTROL_CODE_QUERY_FEATURES));
 		try {
-			byte[] b = card.transmitControlCommand(
-				CONTROL_CODE_QUERY_FEATURES, new byte[0]);
-			for (int i = 0; i < b.length; i += 6) {
-				Byte feature = new Byte(b[i]);
-				Integer command = new Integer((0xff & b[i + 2]) << 24)
-		              | ((0xff & b[i + 3]) << 16)
-		              | ((0xff & b[i + 4]) << 8)
-		              | (0xff & b[i + 5]);
-				LOGGER.info("Found feature " + Integer.toHexString(feature) + " command: " + Integer.toHexString(command));
-				features.put(feature, command);
+			parseFeatures(card.transmitControlCommand(
+				CONTROL_CODE_QUERY_FEATURES, new byte[0]));
+			if (has(FEATURE_GET_TLV_PROPERTIES_TAG)) {
+				parseTlvProperties(card.transmitControlCommand(
+					features[FEATURE_GET_TLV_PROPERTIES_TAG], new byte[0]));
+			}
+			else if (has(FEATURE_IFD_PIN_PROPERTIES_TAG)) {
+				parsePinProperties(card.transmitControlCommand(
+					features[FEATURE_IFD_PIN_PROPERTIES_TAG], new byte[0]));
 			}
 		}
 		catch (CardException e) {
@@ -109,6 +161,84 @@ public class Features {
 		}			
 	}
 	
+	/**
+	 * Parses the TLV structure with the features: a tag byte, a length byte
+	 * and the control code (4 bytes, big endian) for every feature.
+	 * @param b	the response to the features query
+	 */
+	protected void parseFeatures(byte[] b) {
+		for (int i = 0; i + 2 <= b.length; ) {
+			int tag = b[i] & 0xff;
+			int length = b[i + 1] & 0xff;
+			i += 2;
+			if (i + length > b.length)
+				break;
+			if (length == 4) {
+				int command = ((0xff & b[i]) << 24)
+		              | ((0xff & b[i + 1]) << 16)
+		              | ((0xff & b[i + 2]) << 8)
+		              | (0xff & b[i + 3]);
+				LOGGER.info("Found feature " + Integer.toHexString(tag) + " command: " + Integer.toHexString(command));
+				features[tag] = command;
+			}
+			i += length;
+		}
+	}
+	
+	/**
+	 * Parses the PIN_PROPERTIES_STRUCTURE: wLcdLayout (little endian),
+	 * bEntryValidationCondition and bTimeOut2.
+	 * @param b	the response to the IFD_PIN_PROPERTIES feature
+	 */
+	protected void parsePinProperties(byte[] b) {
+		if (b.length < 4) {
+			LOGGER.warn("Invalid pin properties");
+			return;
+		}
+		lcdLayout = (b[0] & 0xff) | (b[1] & 0xff) << 8;
+		entryValidationCondition = b[2] & 0xff;
+		timeOut2 = b[3] & 0xff;
+	}
+	
+	/**
+	 * Parses the TLV properties: a tag byte, a length byte
+	 * and a little endian value for every property.
+	 * @param b	the response to the GET_TLV_PROPERTIES feature
+	 */
+	protected void parseTlvProperties(byte[] b) {
+		for (int i = 0; i + 2 <= b.length; ) {
+			int tag = b[i] & 0xff;
+			int length = b[i + 1] & 0xff;
+			i += 2;
+			if (i + length > b.length)
+				break;
+			int value = 0;
+			for (int j = Math.min(length, 4) - 1; j >= 0; j--) {
+				value = value << 8 | (b[i + j] & 0xff);
+			}
+			switch (tag) {
+			case PROPERTY_LCD_LAYOUT:
+				lcdLayout = value;
+				break;
+			case PROPERTY_ENTRY_VALIDATION_CONDITION:
+				entryValidationCondition = value;
+				break;
+			case PROPERTY_TIME_OUT_2:
+				timeOut2 = value;
+				break;
+			case PROPERTY_MIN_PIN_SIZE:
+				minPinSize = value;
+				break;
+			case PROPERTY_MAX_PIN_SIZE:
+				maxPinSize = value;
+				break;
+			default:
+				LOGGER.info("TLV property " + Integer.toHexString(tag) + ": " + value);
+			}
+			i += length;
+		}
+	}
+	
 	/**
 	 * Gets the command code for a specific feature.
 	 * @param feature	the feature for which you want the command code
@@ -116,7 +246,68 @@ public class Features {
 	 */
 	public Integer get(byte feature) {
 		LOGGER.info("Get feature " + Integer.toHexString(feature));
-		return features.get(feature);
+		int command = features[feature & 0xff];
+		return command == 0 ? null : Integer.valueOf(command);
+	}
+	
+	/**
+	 * Checks if a feature is available.
+	 * @param feature	a feature tag
+	 * @return	true if the reader has the feature
+	 */
+	public boolean has(byte feature) {
+		return features[feature & 0xff] != 0;
+	}
+	
+	/**
+	 * Checks if the PIN can be verified with VERIFY_PIN_START and
+	 * VERIFY_PIN_FINISH: the reader also needs to tell which keys are pressed.
+	 * @return	true if the reader supports all the features that are needed
+	 */
+	public boolean isVerifyPinStartSupported() {
+		return has(FEATURE_VERIFY_PIN_START_TAG) && has(FEATURE_VERIFY_PIN_FINISH_TAG)
+			&& has(FEATURE_GET_KEY_PRESSED_TAG);
+	}
+	
+	/**
+	 * Returns the layout of the display of the pin pad.
+	 * @return	0 if there's no display, -1 if unknown
+	 */
+	public int getLcdLayout() {
+		return lcdLayout;
+	}
+	
+	/**
+	 * Returns the conditions that end the PIN entry supported by the pin pad
+	 * (0x01: maximum size reached, 0x02: validation key pressed, 0x04: timeout).
+	 * @return	a bit mask, or -1 if unknown
+	 */
+	public int getEntryValidationCondition() {
+		return entryValidationCondition;
+	}
+	
+	/**
+	 * Returns the timeout after the first key stroke used by the pin pad.
+	 * @return	a timeout in seconds, 0 for the default of the reader, -1 if unknown
+	 */
+	public int getTimeOut2() {
+		return timeOut2;
+	}
+	
+	/**
+	 * Returns the minimum PIN size supported by the pin pad.
+	 * @return	a number of digits, or -1 if unknown
+	 */
+	public int getMinPinSize() {
+		return minPinSize;
+	}
+	
+	/**
+	 * Returns the maximum PIN size supported by the pin pad.
+	 * @return	a number of digits, or -1 if unknown
+	 */
+	public int getMaxPinSize() {
+		return maxPinSize;
 	}
 	
 	/**
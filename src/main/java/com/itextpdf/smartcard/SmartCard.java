@@ -44,6 +44,13 @@
  */
 package com.itextpdf.smartcard;
 
+import com.itextpdf.smartcard.transport.CardTransport;
+import com.itextpdf.smartcard.transport.PcscTransport;
+import com.itextpdf.smartcard.transport.TransportCard;
+import com.itextpdf.smartcard.util.CardFileInputStream;
+import com.itextpdf.smartcard.util.CircuitBreaker;
+import com.itextpdf.smartcard.util.Deadline;
+import com.itextpdf.smartcard.util.ReadCondition;
 import com.itextpdf.smartcard.util.SmartCardIO;
 
 import javax.smartcardio.ATR;
@@ -54,7 +61,18 @@ import javax.smartcardio.CardNotPresentException;
 import javax.smartcardio.CardTerminal;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -73,8 +91,55 @@ public class SmartCard {
 	/** A channel connection to a smart card */
 	protected CardChannel channel;
 	
+	/** Logical channels opened next to the basic channel. */
+	protected List<CardChannel> logicalChannels = new ArrayList<CardChannel>();
+	
+	/**
+	 * The channels that are available for reading files. This is the basic
+	 * channel if the card doesn't support logical channels; otherwise it
+	 * contains the logical channels, so that the basic channel is kept
+	 * free for security operations.
+	 */
+	protected BlockingQueue<CardChannel> readChannels = new LinkedBlockingQueue<CardChannel>();
+	
 	/** Answer to Reset */
 	protected ATR atr;
+	
+	/** The terminal holding the card (null if the transport wasn't created for a terminal). */
+	protected CardTerminal cardTerminal;
+	
+	/** The transport used to talk to the card. */
+	protected CardTransport transport;
+	
+	/** The profile of the card (null if no profile was loaded). */
+	protected volatile CardProfile profile;
+	
+	/** The maximum number of logical channels a probe tries to open. */
+	public static final int MAX_LOGICAL_CHANNELS = 3;
+	
+	/** True if failed reads are retried after reconnecting the card. */
+	protected boolean autoRecover = true;
+	
+	/** The maximum number of attempts to reconnect the card. */
+	protected int reconnectAttempts = 5;
+	
+	/** The delay after the first failed attempt to reconnect (doubled after every attempt). */
+	protected long reconnectDelay = 100;
+	
+	/** The number of times the card was reconnected. */
+	private volatile int reconnects;
+	
+	/** True while the card is being reconnected. */
+	private volatile boolean reconnecting;
+	
+	/**
+	 * Counts how many times the basic channel was acquired or released for
+	 * reading. The value is odd while a file is read using the basic channel.
+	 */
+	protected AtomicInteger basicChannelReads = new AtomicInteger();
+	
+	/** The basic channel while it's acquired for reading (counted in basicChannelReads). */
+	private final Set<CardChannel> basicChannelsInUse = new HashSet<CardChannel>();
 
 	/**
 	 * Super-constructor for creating a SmartCard object, the purpose of this
@@ -87,16 +152,13 @@ public class SmartCard {
 	 * @throws CardException
 	 */
 	public SmartCard(CardTerminal cardTerminal) throws CardException {
+		this.cardTerminal = cardTerminal;
 		if (cardTerminal.isCardPresent()) {
 			try {
 				LOGGER.info("trying to connect to card terminal: "
 						+ cardTerminal.getName());
-				card = cardTerminal.connect("*");
-				atr = card.getATR();
-				if (!isValidCard()) {
-					throw new CardException("The card doesn't match with the expected pattern.");
-				}
-				channel = card.getBasicChannel();
+				transport = new PcscTransport(cardTerminal);
+				connected();
 			} catch (CardException e) {
 				LOGGER.error("couldn't connect to card terminal: "
 						+ cardTerminal.getName() + ", " + e.getMessage());
@@ -115,6 +177,35 @@ public class SmartCard {
 		}
 	}
 	
+	/**
+	 * Creates a SmartCard object for a card that is reached through
+	 * a specific transport (e.g. a simulator or a remote reader).
+	 * @param transport	a CardTransport that is connected to the card
+	 * @throws CardException	if the card doesn't match with the expected pattern
+	 */
+	public SmartCard(CardTransport transport) throws CardException {
+		LOGGER.info("using card transport: " + transport);
+		this.transport = transport;
+		if (transport instanceof PcscTransport)
+			cardTerminal = ((PcscTransport)transport).getCardTerminal();
+		connected();
+	}
+	
+	/**
+	 * Wraps the transport in a Card and gets the basic channel,
+	 * after the transport was connected.
+	 * @throws CardException	if the card doesn't match with the expected pattern
+	 */
+	private void connected() throws CardException {
+		atr = transport.getATR();
+		if (!isValidCard()) {
+			throw new CardException("The card doesn't match with the expected pattern.");
+		}
+		card = new TransportCard(transport);
+		channel = card.getBasicChannel();
+		readChannels.offer(channel);
+	}
+	
 	/**
 	 * @see java.lang.Object#finalize()
 	 */
@@ -129,39 +220,351 @@ public class SmartCard {
 	 */
 	public void disconnect() throws CardException{
 		LOGGER.info("Disconnecting card");
+		closeLogicalChannels();
+		readChannels.clear();
 		card.disconnect(true);
 		card = null;
 		atr = null;
 		channel = null;
 	}
+	
+	/**
+	 * Changes the way the card is reconnected after a failure.
+	 * @param autoRecover	true if failed reads are retried after reconnecting the card
+	 * @param attempts	the maximum number of attempts to reconnect
+	 * @param delay	the delay (in ms) after the first failed attempt;
+	 * 		the delay is doubled after every attempt
+	 */
+	public void setRecovery(boolean autoRecover, int attempts, long delay) {
+		this.autoRecover = autoRecover;
+		this.reconnectAttempts = attempts;
+		this.reconnectDelay = delay;
+	}
+	
+	/**
+	 * Reconnects the card, e.g. after it was reset by another process.
+	 * The logical channels are opened again; information that was
+	 * read from the card before is kept if the card has the same ATR.
+	 * @throws CardException	if the card couldn't be reconnected
+	 */
+	public void reconnect() throws CardException {
+		reconnect(-1);
+	}
+	
+	/**
+	 * Reconnects the card with exponential backoff, unless another thread
+	 * already reconnected it.
+	 * @param expectedReconnects	the number of reconnects the caller knows about (-1 to reconnect anyway)
+	 * @throws CardException	if the card couldn't be reconnected
+	 */
+	private synchronized void reconnect(int expectedReconnects) throws CardException {
+		if (expectedReconnects >= 0 && expectedReconnects != reconnects) {
+			LOGGER.info("The card was reconnected by another thread");
+			return;
+		}
+		LOGGER.info("Reconnecting card using " + (transport == null ? cardTerminal.getName() : transport));
+		CircuitBreaker breaker = getCircuitBreaker();
+		ATR previousAtr = atr;
+		int logicalChannelCount = logicalChannels.size();
+		reconnecting = true;
+		try {
+			// the channels of the old connection can't be used anymore
+			logicalChannels.clear();
+			readChannels.clear();
+			// a read that is still going on over the old basic channel doesn't count anymore
+			basicChannelReads.addAndGet(basicChannelsInUse.size());
+			basicChannelsInUse.clear();
+			card = null;
+			channel = null;
+			long delay = reconnectDelay;
+			for (int attempt = 1; card == null; attempt++) {
+				try {
+					// the transport disconnects the old connection first
+					if (transport == null)
+						transport = new PcscTransport(cardTerminal);
+					else
+						transport.reconnect();
+				} catch (CardException e) {
+					LOGGER.warn("Reconnect attempt " + attempt + " failed: " + e.getMessage());
+					if (attempt >= reconnectAttempts)
+						throw new CardException("Couldn't reconnect the card: " + e.getMessage(), e);
+					try {
+						Thread.sleep(delay);
+					} catch (InterruptedException ie) {
+						throw new CardException(ie);
+					}
+					delay *= 2;
+					continue;
+				}
+				atr = transport.getATR();
+				if (!isValidCard()) {
+					transport.disconnect(false);
+					throw new CardException("The card doesn't match with the expected pattern.");
+				}
+				card = new TransportCard(transport);
+			}
+			channel = card.getBasicChannel();
+			readChannels.offer(channel);
+			reconnects++;
+		}
+		finally {
+			reconnecting = false;
+		}
+		if (breaker != null)
+			CircuitBreaker.assign(card, breaker);
+		if (logicalChannelCount > 0)
+			openLogicalChannels(logicalChannelCount);
+		boolean sameAtr = previousAtr != null && previousAtr.equals(atr);
+		reconnected(sameAtr);
+		// the profile describes the type of card, not the card itself
+		CardProfile profile = this.profile;
+		if (!sameAtr)
+			this.profile = null;
+		else if (profile != null)
+			applyProfile(profile);
+	}
+	
+	/**
+	 * Called after the card was reconnected, before the profile is applied
+	 * again. Subclasses can discard the state of the card that was lost
+	 * (e.g. a verified PIN), and the information read from the card: the
+	 * card may have been replaced by another one, even with the same ATR.
+	 * @param sameAtr	true if the card has the same ATR as before
+	 */
+	protected void reconnected(boolean sameAtr) {
+	}
+	
+	/**
+	 * Checks if a read that failed can be retried after reconnecting the card.
+	 * @param e	the exception thrown by the read
+	 * @return	true if the card should be reconnected
+	 */
+	protected boolean isRecoverable(CardException e) {
+		if (!autoRecover || card == null || transport == null)
+			return false;
+		Deadline deadline = Deadline.current();
+		if (deadline != null && deadline.remaining() <= 0)
+			return false;
+		CircuitBreaker breaker = getCircuitBreaker();
+		if (breaker != null && breaker.getState() == CircuitBreaker.State.OPEN)
+			return false;
+		try {
+			return transport.isCardPresent();
+		} catch (CardException ce) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Tries to open a number of logical channels that will be used to read
+	 * files, so that reading data doesn't need to wait for a security
+	 * operation that is in progress on the basic channel.
+	 * If the card doesn't support logical channels, files will be read
+	 * using the basic channel.
+	 * @param count	the number of logical channels you want to open
+	 * @return	the number of logical channels that are open
+	 */
+	public synchronized int openLogicalChannels(int count) {
+		CardProfile profile = this.profile;
+		if (profile != null && profile.getLogicalChannels() >= 0) {
+			// don't ask the card for channels it doesn't have
+			count = Math.max(0, Math.min(count, profile.getLogicalChannels() - logicalChannels.size()));
+		}
+		LOGGER.info("Opening " + count + " logical channel(s)");
+		for (int i = 0; i < count; i++) {
+			CardChannel logicalChannel;
+			try {
+				logicalChannel = card.openLogicalChannel();
+			} catch (CardException e) {
+				LOGGER.warn("Couldn't open logical channel: " + e.getMessage());
+				break;
+			}
+			if (logicalChannels.isEmpty()) {
+				// from now on, the basic channel is reserved for security operations
+				readChannels.remove(channel);
+			}
+			logicalChannels.add(logicalChannel);
+			readChannels.offer(logicalChannel);
+		}
+		LOGGER.info("Number of logical channels: " + logicalChannels.size());
+		return logicalChannels.size();
+	}
+	
+	/**
+	 * Closes all the logical channels; files will be read using the basic channel.
+	 */
+	public synchronized void closeLogicalChannels() {
+		if (logicalChannels.isEmpty())
+			return;
+		LOGGER.info("Closing logical channels");
+		for (CardChannel logicalChannel : logicalChannels) {
+			readChannels.remove(logicalChannel);
+			try {
+				logicalChannel.close();
+			} catch (CardException e) {
+				LOGGER.warn("Couldn't close logical channel: " + e.getMessage());
+			}
+		}
+		logicalChannels.clear();
+		if (channel != null && !readChannels.contains(channel)) {
+			readChannels.offer(channel);
+		}
+	}
 
 	/**
-	 * Tries to match the ATR with a specific pattern.
+	 * Tries to match the ATR with one of the specific patterns.
 	 */
 	private boolean isValidCard() throws CardException {
 		LOGGER.info("Checking card ATR");
-		byte[] pattern = getPattern();
-		if (pattern == null)
+		byte[][] patterns = getPatterns();
+		if (patterns == null)
 			return true;
-		byte[] mask = getMask();
-		byte[] atrBytes = atr.getBytes();
-		if (atrBytes.length != pattern.length) {
-			LOGGER.error("Not a valid card!");
-			return false;
+		byte[][] masks = getMasks();
+		for (int i = 0; i < patterns.length; i++) {
+			if (matches(atr.getBytes(), patterns[i], masks == null ? null : masks[i])) {
+				LOGGER.info("smartcard is valid");
+				return true;
+			}
 		}
+		LOGGER.error("Not a valid card!");
+		return false;
+	}
+	
+	/**
+	 * Matches the bytes of an ATR with a pattern.
+	 * @param atrBytes	the bytes of the ATR (the array is changed)
+	 * @param pattern	the pattern
+	 * @param mask	the mask for the pattern (or null)
+	 * @return	true if the ATR matches
+	 */
+	private static boolean matches(byte[] atrBytes, byte[] pattern, byte[] mask) {
+		if (atrBytes.length != pattern.length)
+			return false;
 		if (mask != null) {
 			for (int idx = 0; idx < atrBytes.length; idx++) {
 				atrBytes[idx] &= mask[idx];
 			}
 		}
-		if (Arrays.equals(atrBytes, pattern)) {
-			LOGGER.info("smartcard is valid");
-			return true;
+		return Arrays.equals(atrBytes, pattern);
+	}
+	
+	/**
+	 * Checks if the card accepts APDUs with extended Lc and Le fields,
+	 * as announced in the card capabilities (compact-TLV tag 7) in the
+	 * historical bytes of the ATR. Extended APDUs aren't used with T=0.
+	 * @return	true if extended APDUs can be sent to the card
+	 */
+	public boolean isExtendedLengthSupported() {
+		Card card = this.card;
+		if (card == null || "T=0".equals(card.getProtocol()))
+			return false;
+		CardProfile profile = this.profile;
+		if (profile != null && profile.getExtendedLength() != null)
+			return profile.getExtendedLength().booleanValue();
+		return isExtendedLengthAnnounced();
+	}
+	
+	/**
+	 * Checks if the card capabilities in the ATR announce extended APDUs.
+	 * @return	true if extended Lc and Le fields are announced
+	 */
+	private boolean isExtendedLengthAnnounced() {
+		ATR atr = this.atr;
+		if (atr == null)
+			return false;
+		byte[] historical = atr.getHistoricalBytes();
+		// compact-TLV objects follow the category indicator 0x00 or 0x80
+		if (historical.length == 0 || (historical[0] != 0x00 && historical[0] != (byte)0x80))
+			return false;
+		// with category indicator 0x00, the last three bytes are a status indicator
+		int end = historical[0] == 0x00 ? historical.length - 3 : historical.length;
+		for (int i = 1; i < end; ) {
+			int tag = (historical[i] & 0xF0) >> 4;
+			int length = historical[i] & 0x0F;
+			if (tag == 0x7 && length >= 3 && i + 3 < end)
+				return (historical[i + 3] & 0x40) != 0;
+			i += 1 + length;
 		}
-		LOGGER.error("Not a valid card!");
 		return false;
 	}
 	
+	/**
+	 * Gets the capabilities of the card from the card profiles, probing the
+	 * card if no card with the same historical bytes was probed before.
+	 * The profile is used from then on, e.g. to skip opening logical channels
+	 * the card doesn't have.
+	 * @param profiles	the card profiles (e.g. stored in CardProfiles.getDefaultFile())
+	 * @return	the profile of the card
+	 * @throws CardException
+	 */
+	public CardProfile loadProfile(CardProfiles profiles) throws CardException {
+		CardProfile profile = profiles.getProfile(atr);
+		if (profile == null) {
+			LOGGER.info("Probing the card");
+			profile = probe();
+			try {
+				profiles.putProfile(atr, profile);
+			} catch (IOException e) {
+				LOGGER.warn("Couldn't store the card profile: " + e.getMessage());
+			}
+		}
+		LOGGER.info("Card profile: " + profile);
+		applyProfile(profile);
+		this.profile = profile;
+		return profile;
+	}
+	
+	/**
+	 * Gets the profile of the card.
+	 * @return	a CardProfile, or null if no profile was loaded
+	 */
+	public CardProfile getProfile() {
+		return profile;
+	}
+	
+	/**
+	 * Finds out the capabilities of the card. Subclasses can add
+	 * capabilities that take time to find out (e.g. the key algorithms).
+	 * @return	a new CardProfile
+	 * @throws CardException
+	 */
+	protected CardProfile probe() throws CardException {
+		CardProfile profile = new CardProfile();
+		profile.setExtendedLength(isExtendedLengthAnnounced());
+		profile.setInterApduDelay(SmartCardIO.getInterApduDelay(card));
+		profile.setPostSelectDelay(SmartCardIO.getPostSelectDelay(card));
+		synchronized (this) {
+			List<CardChannel> probed = new ArrayList<CardChannel>();
+			try {
+				while (logicalChannels.size() + probed.size() < MAX_LOGICAL_CHANNELS)
+					probed.add(card.openLogicalChannel());
+			} catch (CardException e) {
+				LOGGER.info("No more logical channels: " + e.getMessage());
+			}
+			profile.setLogicalChannels(logicalChannels.size() + probed.size());
+			for (CardChannel logicalChannel : probed) {
+				try {
+					logicalChannel.close();
+				} catch (CardException e) {
+					LOGGER.warn("Couldn't close logical channel: " + e.getMessage());
+				}
+			}
+		}
+		return profile;
+	}
+	
+	/**
+	 * Uses the capabilities of a profile.
+	 * @param profile	the profile of the card
+	 */
+	protected void applyProfile(CardProfile profile) {
+		Card card = this.card;
+		if (card != null && profile.getInterApduDelay() > 0)
+			SmartCardIO.setInterApduDelay(card, profile.getInterApduDelay());
+		if (card != null && profile.getPostSelectDelay() >= 0)
+			SmartCardIO.setPostSelectDelay(card, profile.getPostSelectDelay());
+	}
+	
 	/**
 	 * Returns a pattern that is specific for the smart card implementation.
 	 */
@@ -176,13 +579,197 @@ public class SmartCard {
 		return null;
 	}
 	
+	/**
+	 * Returns the patterns that are specific for the smart card implementation,
+	 * for implementations of which the ATR comes in several formats.
+	 * By default, this is the pattern returned by getPattern().
+	 * @return	an array of patterns, or null if every card is accepted
+	 */
+	public byte[][] getPatterns() {
+		byte[] pattern = getPattern();
+		return pattern == null ? null : new byte[][] { pattern };
+	}
+	
+	/**
+	 * Returns the masks for the patterns returned by getPatterns()
+	 * (a mask can be null if the pattern has to match completely).
+	 * @return	an array with a mask for every pattern, or null if there are no masks
+	 */
+	public byte[][] getMasks() {
+		return new byte[][] { getMask() };
+	}
+	
 	/**
 	 * Reads a file from the card.
 	 * @throws IOException 
 	 * @throws CardException 
 	 */
-	public byte[] readFile(byte[] fileId) throws CardException, IOException {
-		return SmartCardIO.readFile(getChannel(), fileId);
+	public byte[] readFile(final byte[] fileId) throws CardException, IOException {
+		return read(new FileRead() {
+			byte[] read(CardChannel readChannel) throws CardException, IOException {
+				return SmartCardIO.readFile(readChannel, fileId);
+			}
+		});
+	}
+	
+	/**
+	 * Reads a range of bytes from a file on the card.
+	 * @param fileId	the id of the file
+	 * @param offset	the offset of the first byte you need
+	 * @param length	the number of bytes you need
+	 * @return	the bytes in the range (fewer if the end of the file was reached)
+	 * @throws CardException
+	 * @throws IOException
+	 */
+	public byte[] readFile(final byte[] fileId, final int offset, final int length) throws CardException, IOException {
+		return read(new FileRead() {
+			byte[] read(CardChannel readChannel) throws CardException, IOException {
+				return SmartCardIO.readFile(readChannel, fileId, offset, length);
+			}
+		});
+	}
+	
+	/**
+	 * Reads the start of a file on the card, until a condition is satisfied.
+	 * @param fileId	the id of the file
+	 * @param condition	the condition that tells if enough bytes were read
+	 * @return	the bytes that were read
+	 * @throws CardException
+	 * @throws IOException
+	 */
+	public byte[] readFile(final byte[] fileId, final ReadCondition condition) throws CardException, IOException {
+		return read(new FileRead() {
+			byte[] read(CardChannel readChannel) throws CardException, IOException {
+				return SmartCardIO.readFile(readChannel, fileId, condition);
+			}
+		});
+	}
+	
+	/**
+	 * A read operation that can be repeated.
+	 */
+	private static abstract class FileRead {
+		/**
+		 * Reads from the card.
+		 * @param readChannel	the channel to use
+		 * @return	the bytes that were read
+		 */
+		abstract byte[] read(CardChannel readChannel) throws CardException, IOException;
+	}
+	
+	/**
+	 * Executes a read operation on a read channel. If the operation
+	 * fails because of the card (or the reader), the card is reconnected
+	 * and the operation is tried once more.
+	 * @param fileRead	the read operation
+	 * @return	the bytes that were read
+	 * @throws CardException
+	 * @throws IOException
+	 */
+	private byte[] read(FileRead fileRead) throws CardException, IOException {
+		for (int attempt = 0; ; attempt++) {
+			int knownReconnects = reconnects;
+			CardChannel readChannel = acquireReadChannel();
+			try {
+				return fileRead.read(readChannel);
+			} catch (CardException e) {
+				if (attempt > 0 || !isRecoverable(e))
+					throw e;
+				LOGGER.warn("Reading failed, reconnecting: " + e.getMessage());
+			}
+			finally {
+				releaseReadChannel(readChannel);
+			}
+			reconnect(knownReconnects);
+		}
+	}
+	
+	/**
+	 * Opens a file on the card as a stream. Blocks are read from the card
+	 * as they are consumed, so the caller can start processing the file
+	 * before it is read completely. The stream reserves a read channel,
+	 * so it needs to be closed when you're done reading.
+	 * @param fileId	the id of the file
+	 * @return	an InputStream reading the file
+	 * @throws CardException
+	 * @throws IOException
+	 */
+	public InputStream openFile(byte[] fileId) throws CardException, IOException {
+		final CardChannel readChannel = acquireReadChannel();
+		boolean opened = false;
+		try {
+			InputStream is = new ReleasingInputStream(SmartCardIO.openFile(readChannel, fileId), readChannel);
+			opened = true;
+			return is;
+		}
+		finally {
+			if (!opened) {
+				releaseReadChannel(readChannel);
+			}
+		}
+	}
+	
+	/**
+	 * Opens a file on the card as a ReadableByteChannel.
+	 * @param fileId	the id of the file
+	 * @return	a ReadableByteChannel reading the file
+	 * @throws CardException
+	 * @throws IOException
+	 * @see #openFile(byte[])
+	 */
+	public ReadableByteChannel openFileChannel(byte[] fileId) throws CardException, IOException {
+		return Channels.newChannel(openFile(fileId));
+	}
+	
+	/**
+	 * Waits for a channel that can be used to read a file.
+	 * The channel needs to be released after reading.
+	 * @return	a channel reserved for the current thread
+	 * @throws CardException
+	 */
+	protected CardChannel acquireReadChannel() throws CardException {
+		try {
+			CardChannel readChannel = null;
+			while (readChannel == null) {
+				if (card == null && !reconnecting) {
+					throw new CardException("The card is disconnected.");
+				}
+				readChannel = readChannels.poll(100, TimeUnit.MILLISECONDS);
+			}
+			synchronized (this) {
+				if (readChannel == channel) {
+					basicChannelsInUse.add(readChannel);
+					basicChannelReads.incrementAndGet();
+				}
+			}
+			return readChannel;
+		} catch (InterruptedException e) {
+			throw new CardException(e);
+		}
+	}
+	
+	/**
+	 * Makes a channel that was used to read a file available for other threads.
+	 * @param readChannel	a channel obtained with acquireReadChannel()
+	 */
+	protected synchronized void releaseReadChannel(CardChannel readChannel) {
+		// only the reads acquireReadChannel() counted (not those of a previous connection)
+		if (basicChannelsInUse.remove(readChannel))
+			basicChannelReads.incrementAndGet();
+		if (readChannel == channel && !logicalChannels.isEmpty())
+			return;
+		if (readChannel != channel && !logicalChannels.contains(readChannel))
+			return;
+		readChannels.offer(readChannel);
+	}
+	
+	/**
+	 * Returns the number of times the card was reconnected. Information
+	 * read from the card before a reconnect may come from another card.
+	 * @return	a number of reconnects
+	 */
+	public int getReconnectCount() {
+		return reconnects;
 	}
 	
 	/**
@@ -191,6 +778,23 @@ public class SmartCard {
 	public Card getCard() {
 		return card;
 	}
+	
+	/**
+	 * Gets the transport used to talk to the card.
+	 * @return	a CardTransport
+	 */
+	public CardTransport getTransport() {
+		return transport;
+	}
+	
+	/**
+	 * Gets the circuit breaker that guards the APDUs sent to the card.
+	 * @return	a CircuitBreaker, or null if the card is disconnected
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		Card card = this.card;
+		return card == null ? null : CircuitBreaker.forCard(card);
+	}
 
 	/**
 	 * Gets the card channel.
@@ -198,4 +802,58 @@ public class SmartCard {
 	public CardChannel getChannel() {
 		return channel;
 	}
+	
+	/**
+	 * InputStream that releases its read channel when it is closed.
+	 */
+	private class ReleasingInputStream extends InputStream {
+		
+		/** The stream reading the file. */
+		private CardFileInputStream is;
+		
+		/** The channel that was reserved to read the file. */
+		private CardChannel readChannel;
+		
+		/**
+		 * Creates a stream that releases its read channel when closed.
+		 * @param is	the stream reading the file
+		 * @param readChannel	the channel used by the stream
+		 */
+		private ReleasingInputStream(CardFileInputStream is, CardChannel readChannel) {
+			this.is = is;
+			this.readChannel = readChannel;
+		}
+		
+		/**
+		 * @see java.io.InputStream#read()
+		 */
+		public int read() throws IOException {
+			return is.read();
+		}
+		
+		/**
+		 * @see java.io.InputStream#read(byte[], int, int)
+		 */
+		public int read(byte[] b, int off, int len) throws IOException {
+			return is.read(b, off, len);
+		}
+		
+		/**
+		 * @see java.io.InputStream#available()
+		 */
+		public int available() throws IOException {
+			return is.available();
+		}
+		
+		/**
+		 * @see java.io.InputStream#close()
+		 */
+		public void close() throws IOException {
+			if (readChannel == null)
+				return;
+			is.close();
+			releaseReadChannel(readChannel);
+			readChannel = null;
+		}
+	}
 }
@@ -44,9 +44,13 @@
  */
 package com.itextpdf.smartcard;
 
+import com.itextpdf.smartcard.transport.CardTransport;
+import com.itextpdf.smartcard.util.Deadline;
 import com.itextpdf.smartcard.util.DigestAlgorithms;
 import com.itextpdf.smartcard.util.IsoIec7816;
+import com.itextpdf.smartcard.util.LazyCertificate;
 import com.itextpdf.smartcard.util.PinVerification;
+import com.itextpdf.smartcard.util.SignatureFormats;
 import com.itextpdf.smartcard.util.SmartCardIO;
 
 import javax.smartcardio.CardException;
@@ -54,13 +58,19 @@ import javax.smartcardio.CardTerminal;
 import javax.smartcardio.CommandAPDU;
 import javax.smartcardio.ResponseAPDU;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -72,6 +82,18 @@ public class SmartCardWithKey extends SmartCard {
 
 	/** Logger instance. */
 	private final static Logger LOGGER = LoggerFactory.getLogger(SmartCardWithKey.class);
+	
+	/** Algorithm reference for RSA with PKCS#1 v1.5 padding (the DigestInfo is sent to the card). */
+	public static final byte ALGORITHM_RSA_PKCS1 = 0x01;
+	
+	/** Algorithm reference for RSA-PSS with SHA-1. */
+	public static final byte ALGORITHM_RSA_PSS_SHA1 = 0x10;
+	
+	/** Algorithm reference for RSA-PSS with SHA-256. */
+	public static final byte ALGORITHM_RSA_PSS_SHA256 = 0x20;
+	
+	/** Algorithm reference for ECDSA on a hash (SHA-256, SHA-384 or SHA-512) computed off-card. */
+	public static final byte ALGORITHM_ECDSA = 0x40;
 
 	/** The id for the key that will be used to sign. */
 	protected byte keyId;
@@ -85,9 +107,57 @@ public class SmartCardWithKey extends SmartCard {
 	/** Forces secure signing. */
 	protected boolean secure = false;
 	
+	/** The time (in seconds) the user gets to enter the PIN on a pin pad. */
+	protected int pinTimeout = PinVerification.DEFAULT_PIN_TIMEOUT;
+	
+	/** No PIN is being entered on the pin pad. */
+	private static final int PIN_ENTRY_NONE = 0;
+	
+	/** The PIN is being entered with VERIFY_PIN_DIRECT (the thread is blocked in the reader). */
+	private static final int PIN_ENTRY_DIRECT = 1;
+	
+	/** The PIN is being entered with VERIFY_PIN_START (the thread polls the key presses). */
+	private static final int PIN_ENTRY_POLLING = 2;
+	
+	/** The way the PIN is being entered on the pin pad. */
+	private volatile int pinEntry = PIN_ENTRY_NONE;
+	
+	/** True if the PIN entry in progress was cancelled. */
+	private volatile boolean pinEntryCancelled;
+	
+	/** True if the card was reset to cancel the PIN entry in progress. */
+	private volatile boolean pinEntryReset;
+	
 	/** Features available on the smart card / reader. */
 	protected Features features = null;
 	
+	/** The PIN policies of the keys (keys without policy use PinPolicy.ALWAYS). */
+	protected Map<Byte, PinPolicy> pinPolicies = new HashMap<Byte, PinPolicy>();
+	
+	/** The keys for which the PIN was verified in this session. */
+	protected Set<Byte> verifiedKeys = new HashSet<Byte>();
+	
+	/** The file ids of the certificates of the keys, used to find out the key algorithm. */
+	protected Map<Byte, byte[]> keyCertificates = new ConcurrentHashMap<Byte, byte[]>();
+	
+	/** The encryption algorithms found in the certificates of the keys. */
+	protected Map<Byte, String> keyAlgorithms = new ConcurrentHashMap<Byte, String>();
+	
+	/** The certificates that were read, mapped by file id. */
+	protected Map<ByteBuffer, LazyCertificate> certificates = new ConcurrentHashMap<ByteBuffer, LazyCertificate>();
+	
+	/** The algorithm byte of the security environment that was set (if any). */
+	private byte preparedAlgorithm;
+	
+	/** The key id of the security environment that was set (if any). */
+	private byte preparedKeyId;
+	
+	/**
+	 * The value of the basic channel read counter when the security
+	 * environment was set, or -1 if there's no security environment.
+	 */
+	private int preparedReads = -1;
+	
 	/**
 	 * Creates a SmartCardWithKey instance.
 	 * @param cardTerminal	the terminal holding the card
@@ -102,14 +172,202 @@ public class SmartCardWithKey extends SmartCard {
 		this.encryptionAlgorithm = encryptionAlgorithm;
 	}
 	
+	/**
+	 * Creates a SmartCardWithKey instance for a card reached through a transport.
+	 * @param transport	the transport that is connected to the card
+	 * @param keyId		the id for the key that will be used for signing
+	 * @param encryptionAlgorithm	the encryption algorithm used for the key
+	 * @throws CardException
+	 */
+	public SmartCardWithKey(CardTransport transport, byte keyId, String encryptionAlgorithm)
+		throws CardException {
+		super(transport);
+		this.keyId = keyId;
+		this.encryptionAlgorithm = encryptionAlgorithm;
+	}
+	
+	/**
+	 * Disconnects the card and forgets the PIN verifications.
+	 * @see com.itextpdf.smartcard.SmartCard#disconnect()
+	 */
+	public void disconnect() throws CardException {
+		synchronized (verifiedKeys) {
+			verifiedKeys.clear();
+		}
+		preparedReads = -1;
+		super.disconnect();
+	}
+	
+	/**
+	 * Forgets the security state that the card lost when it was reset,
+	 * and the certificates: another card of the same type has the same ATR.
+	 * The features of the reader are kept.
+	 * @see com.itextpdf.smartcard.SmartCard#reconnected(boolean)
+	 */
+	protected void reconnected(boolean sameAtr) {
+		synchronized (verifiedKeys) {
+			verifiedKeys.clear();
+		}
+		preparedReads = -1;
+		certificates.clear();
+		keyAlgorithms.clear();
+	}
+	
+	/**
+	 * Adds the algorithms of the keys to the profile; reading
+	 * the certificates of the keys can be skipped next time.
+	 * @see com.itextpdf.smartcard.SmartCard#probe()
+	 */
+	protected CardProfile probe() throws CardException {
+		CardProfile profile = super.probe();
+		for (Byte key : keyCertificates.keySet()) {
+			try {
+				profile.setKeyAlgorithm(key, getEncryptionAlgorithm(key));
+			} catch (IOException e) {
+				LOGGER.warn("Couldn't read the key algorithm: " + e.getMessage());
+			}
+		}
+		return profile;
+	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.SmartCard#applyProfile(com.itextpdf.smartcard.CardProfile)
+	 */
+	protected void applyProfile(CardProfile profile) {
+		super.applyProfile(profile);
+		keyAlgorithms.putAll(profile.getKeyAlgorithms());
+	}
+	
+	/**
+	 * Returns the id of the key that is used to sign.
+	 * @return	a key id
+	 */
+	public byte getKeyId() {
+		return keyId;
+	}
+	
+	/**
+	 * Changes the key that is used to sign.
+	 * @param keyId	the id for the key that will be used for signing
+	 */
+	public void setKeyId(byte keyId) {
+		this.keyId = keyId;
+	}
+	
+	/**
+	 * Sets the moment the PIN is verified for a key.
+	 * @param keyId	the id of a key
+	 * @param pinPolicy	the PIN policy for the key
+	 */
+	public void setPinPolicy(byte keyId, PinPolicy pinPolicy) {
+		synchronized (pinPolicies) {
+			pinPolicies.put(keyId, pinPolicy);
+		}
+	}
+	
+	/**
+	 * Gets the PIN policy of a key.
+	 * @param keyId	the id of a key
+	 * @return	the PIN policy (PinPolicy.ALWAYS if no policy was set)
+	 */
+	public PinPolicy getPinPolicy(byte keyId) {
+		synchronized (pinPolicies) {
+			PinPolicy pinPolicy = pinPolicies.get(keyId);
+			return pinPolicy == null ? PinPolicy.ALWAYS : pinPolicy;
+		}
+	}
+	
+	/**
+	 * Checks if the PIN needs to be verified before signing with a key.
+	 * @param keyId	the id of a key
+	 * @return	false if the card is expected to sign without verifying the PIN
+	 */
+	protected boolean isPinVerificationRequired(byte keyId) {
+		switch (getPinPolicy(keyId)) {
+		case ON_DEMAND:
+			return false;
+		case ONCE_PER_SESSION:
+			synchronized (verifiedKeys) {
+				return !verifiedKeys.contains(keyId);
+			}
+		default:
+			return true;
+		}
+	}
+	
+	/**
+	 * Remembers if the PIN was verified for a key.
+	 * @param keyId	the id of a key
+	 * @param verified	true if the PIN was verified
+	 */
+	private void setPinVerified(byte keyId, boolean verified) {
+		synchronized (verifiedKeys) {
+			if (verified)
+				verifiedKeys.add(keyId);
+			else
+				verifiedKeys.remove(keyId);
+		}
+	}
+	
+	/**
+	 * Tells the card which certificate belongs to a key, so that the
+	 * algorithm of the key can be found out from the certificate.
+	 * @param keyId	the id of the key
+	 * @param fileID	the file id of the certificate of the key
+	 */
+	public void setKeyCertificate(byte keyId, byte[] fileID) {
+		keyCertificates.put(keyId, fileID.clone());
+		keyAlgorithms.remove(keyId);
+	}
+	
 	/**
 	 * Returns the encryption algorithm used for the private key.
-	 * @return	an encryption algorithm (e.g. "RSA")
+	 * If the algorithm can't be read from the certificate of the key,
+	 * the algorithm passed to the constructor is returned.
+	 * @return	an encryption algorithm (e.g. "RSA" or "ECDSA")
 	 */
 	public String getEncryptionAlgorithm() {
+		try {
+			return getEncryptionAlgorithm(keyId);
+		} catch (CardException e) {
+			LOGGER.warn("Couldn't read the key algorithm: " + e.getMessage());
+		} catch (IOException e) {
+			LOGGER.warn("Couldn't read the key algorithm: " + e.getMessage());
+		}
 		return encryptionAlgorithm;
 	}
 	
+	/**
+	 * Returns the encryption algorithm used for a private key. The algorithm
+	 * is read from the public key in the certificate of the key (the first
+	 * time only), or it's the algorithm passed to the constructor if the
+	 * certificate of the key isn't known.
+	 * @param keyId	the id of the key
+	 * @return	an encryption algorithm (e.g. "RSA" or "ECDSA")
+	 * @throws CardException
+	 * @throws IOException	if the certificate can't be read
+	 */
+	public String getEncryptionAlgorithm(byte keyId) throws CardException, IOException {
+		String algorithm = keyAlgorithms.get(keyId);
+		if (algorithm != null)
+			return algorithm;
+		byte[] fileID = keyCertificates.get(keyId);
+		if (fileID == null)
+			return encryptionAlgorithm;
+		try {
+			algorithm = readLazyCertificate(fileID).getPublicKeyAlgorithm();
+		} catch (CertificateException e) {
+			throw new IOException(e.getMessage());
+		}
+		if ("EC".equals(algorithm))
+			algorithm = "ECDSA";
+		else if (algorithm == null)
+			algorithm = encryptionAlgorithm;
+		LOGGER.info("Key " + Integer.toHexString(keyId & 0xFF) + " is an " + algorithm + " key");
+		keyAlgorithms.put(keyId, algorithm);
+		return algorithm;
+	}
+	
 	/**
 	 * Reads an X509 Certificate from the card.
 	 * @param fileID	the fileID for the certificate
@@ -119,9 +377,37 @@ public class SmartCardWithKey extends SmartCard {
 	 * @throws IOException
 	 */
 	public X509Certificate readCertificate(byte[] fileID) throws CertificateException, CardException, IOException{
-		byte[] certificateFile = readFile(fileID);
-		CertificateFactory factory = CertificateFactory.getInstance("X.509");
-		return (X509Certificate) factory.generateCertificate(new ByteArrayInputStream(certificateFile));
+		LazyCertificate cached = certificates.get(ByteBuffer.wrap(fileID));
+		if (cached != null)
+			return cached.getCertificate();
+		CertificateFactory factory = LazyCertificate.getFactory();
+		InputStream certificateFile = openFile(fileID);
+		try {
+			return (X509Certificate) factory.generateCertificate(certificateFile);
+		}
+		finally {
+			certificateFile.close();
+		}
+	}
+	
+	/**
+	 * Reads the DER bytes of an X509 Certificate from the card,
+	 * without parsing the certificate. The certificate is only read
+	 * once; after that, it's taken from a cache.
+	 * @param fileID	the fileID for the certificate
+	 * @return	a LazyCertificate object
+	 * @throws CertificateException
+	 * @throws CardException
+	 * @throws IOException
+	 */
+	public LazyCertificate readLazyCertificate(byte[] fileID) throws CertificateException, CardException, IOException {
+		ByteBuffer key = ByteBuffer.wrap(fileID.clone());
+		LazyCertificate certificate = certificates.get(key);
+		if (certificate == null) {
+			certificate = new LazyCertificate(readFile(fileID));
+			certificates.put(key, certificate);
+		}
+		return certificate;
 	}
 	
 	/**
@@ -150,10 +436,159 @@ public class SmartCardWithKey extends SmartCard {
 	 */
 	public Integer getFeature(byte feature) throws CardException {
 		LOGGER.info("get feature " + Integer.toHexString(feature));
+		return getFeatures().get(feature);
+	}
+	
+	/**
+	 * Gets the features of the reader (they are only queried once).
+	 * @return	the Features
+	 * @throws CardException
+	 */
+	public Features getFeatures() throws CardException {
 		if (features == null) {
 			features = new Features(this);
 		}
-		return features.get(feature);
+		return features;
+	}
+	
+	/**
+	 * Gets the command to start verifying the PIN on the pin pad, if
+	 * the reader also supports the features needed to finish it.
+	 * @return	the command, or null if the PIN can't be verified this way
+	 * @throws CardException
+	 */
+	private Integer getVerifyPinStartCommand() throws CardException {
+		if (!getFeatures().isVerifyPinStartSupported())
+			return null;
+		return getFeature(Features.FEATURE_VERIFY_PIN_START_TAG);
+	}
+	
+	/**
+	 * Sets the time the user gets to enter the PIN on a pin pad.
+	 * @param pinTimeout	a time in seconds (at most 255, 0 for the default of the reader)
+	 */
+	public void setPinTimeout(int pinTimeout) {
+		this.pinTimeout = pinTimeout;
+	}
+	
+	/**
+	 * Gets the time the user gets to enter the PIN on a pin pad.
+	 * @return	a time in seconds
+	 */
+	public int getPinTimeout() {
+		return pinTimeout;
+	}
+	
+	/**
+	 * Gets the time the pin pad waits for the PIN: the PIN timeout,
+	 * or less if the current thread has to be done earlier.
+	 * @return	a time in seconds (at least 1)
+	 */
+	public int getPinEntryTimeout() {
+		int timeout = pinTimeout;
+		Deadline deadline = Deadline.current();
+		if (deadline != null) {
+			long remaining = (deadline.remaining() + 999) / 1000;
+			if (timeout == 0 || remaining < timeout)
+				timeout = (int) Math.max(1, remaining);
+		}
+		return timeout;
+	}
+	
+	/**
+	 * Cancels the verification of the PIN on the pin pad from another
+	 * thread, e.g. when the user walked away. The reader is asked to abort
+	 * the PIN entry; if it doesn't support that, the card is reset.
+	 * This doesn't happen on the connection the verifying thread is blocked
+	 * on (see CardTransport#abort). The thread that was verifying the PIN
+	 * gets a CardException, and reconnects the card if it was reset.
+	 * @return	true if a PIN entry was in progress
+	 */
+	public boolean cancelPinVerification() {
+		int entry = pinEntry;
+		if (entry == PIN_ENTRY_NONE)
+			return false;
+		LOGGER.info("Cancelling PIN verification");
+		pinEntryCancelled = true;
+		if (entry == PIN_ENTRY_POLLING) {
+			// the thread that polls the key presses aborts the PIN entry
+			return true;
+		}
+		Features features = this.features;
+		if (features != null && features.has(Features.FEATURE_ABORT_TAG)) {
+			try {
+				transport.abort(features.get(Features.FEATURE_ABORT_TAG));
+				return true;
+			} catch (CardException e) {
+				LOGGER.warn("Couldn't abort the PIN entry: " + e.getMessage());
+			}
+		}
+		// resetting the card ends the PIN entry on every reader
+		pinEntryReset = true;
+		try {
+			transport.abort(null);
+		} catch (CardException e) {
+			LOGGER.warn("Couldn't reset the card: " + e.getMessage());
+		}
+		return true;
+	}
+	
+	/**
+	 * Checks if the PIN entry in progress was cancelled.
+	 * @return	true if cancelPinVerification() was called
+	 */
+	public boolean isPinVerificationCancelled() {
+		return pinEntryCancelled;
+	}
+	
+	/**
+	 * Verifies the PIN on the pin pad, so that the PIN entry can be cancelled.
+	 * @param verifyPinDirectCommand	the command to verify the PIN on the pin pad (or null)
+	 * @param verifyPinStartCommand	the command to start verifying the PIN on the pin pad
+	 * @return	a ResponseAPDU
+	 * @throws IOException
+	 * @throws CardException	also if the PIN entry was cancelled
+	 */
+	private ResponseAPDU verifyPinOnPinPad(Integer verifyPinDirectCommand, Integer verifyPinStartCommand)
+			throws IOException, CardException {
+		pinEntryCancelled = false;
+		pinEntryReset = false;
+		pinEntry = verifyPinDirectCommand != null ? PIN_ENTRY_DIRECT : PIN_ENTRY_POLLING;
+		ResponseAPDU responseAPDU;
+		try {
+			if (verifyPinDirectCommand != null)
+				responseAPDU = PinVerification.verifyPinDirect(this, verifyPinDirectCommand);
+			else
+				responseAPDU = PinVerification.verifyPinStart(this, verifyPinStartCommand);
+		} catch (CardException e) {
+			if (pinEntryCancelled) {
+				reconnectAfterReset();
+				throw new CardException("PIN verification cancelled", e);
+			}
+			throw e;
+		}
+		finally {
+			pinEntry = PIN_ENTRY_NONE;
+		}
+		// an aborted PIN entry can also end with a status word (e.g. 6400)
+		if (pinEntryCancelled && responseAPDU.getSW() != IsoIec7816.SW_NO_FURTHER_QUALIFICATION) {
+			reconnectAfterReset();
+			throw new CardException("PIN verification cancelled");
+		}
+		return responseAPDU;
+	}
+	
+	/**
+	 * Reconnects the card if it was reset to cancel the PIN entry.
+	 */
+	private void reconnectAfterReset() {
+		if (!pinEntryReset)
+			return;
+		try {
+			reconnect();
+		} catch (CardException e) {
+			LOGGER.warn("Couldn't reconnect the card: " + e.getMessage());
+		}
 	}
 	
 	/**
@@ -168,7 +603,7 @@ public class SmartCardWithKey extends SmartCard {
 	public int verifyPin(int retries) throws CardException, IOException {
 		LOGGER.info("verify PIN");
 		Integer verifyPinDirectCommand = getFeature(Features.FEATURE_VERIFY_PIN_DIRECT_TAG);
-		Integer verifyPinStartCommand = getFeature(Features.FEATURE_VERIFY_PIN_START_TAG);
+		Integer verifyPinStartCommand = getVerifyPinStartCommand();
 		return verifyPin(verifyPinDirectCommand, verifyPinStartCommand, retries);
 	}
 	
@@ -190,11 +625,11 @@ public class SmartCardWithKey extends SmartCard {
 		while (sw != IsoIec7816.SW_NO_FURTHER_QUALIFICATION) {
 			if (verifyPinDirectCommand != null) {
 				LOGGER.info("verifying PIN on the pin pad directly");
-				responseAPDU = PinVerification.verifyPinDirect(this, verifyPinDirectCommand);
+				responseAPDU = verifyPinOnPinPad(verifyPinDirectCommand, null);
 			}
 			else if (verifyPinStartCommand != null) {
 				LOGGER.info("start verifying PIN on the pin pad");
-				responseAPDU = PinVerification.verifyPinStart(this, verifyPinStartCommand);
+				responseAPDU = verifyPinOnPinPad(null, verifyPinStartCommand);
 			}
 			else if (pinProvider != null) {
 				LOGGER.info("verifying PIN using pin provider");
@@ -221,40 +656,78 @@ public class SmartCardWithKey extends SmartCard {
 	}
 	
 	/**
-	 * Signs a message digest on the smart card.
-	 * @param digest	the message digest
-	 * @param algorithm	the	algorithm used to create the message digest
-	 * @return	a signed digest
+	 * Starts a signing session. If the PIN isn't entered on a pin pad,
+	 * the pin provider is asked for the PIN in the background, and the
+	 * security environment is set right away. This way, the time the user
+	 * needs to enter the PIN can be used to read the certificate chain.
+	 * The next call of {@link #sign(byte[], String)} with the same
+	 * algorithm will skip setting the security environment.
+	 * @param algorithm	the algorithm that will be used to create the message digest
+	 * @param executor	the executor that will ask the PIN
 	 * @throws CardException
-	 * @throws IOException
 	 */
-	public byte[] sign(byte[] digest, String algorithm) throws CardException, IOException {
-		LOGGER.info("Signing a digest created with " + algorithm);
-		Integer verifyPinDirectCommand = getFeature(Features.FEATURE_VERIFY_PIN_DIRECT_TAG);
-		Integer verifyPinStartCommand = getFeature(Features.FEATURE_VERIFY_PIN_START_TAG);
-		Integer eIDPinPadReaderCommand = getFeature(Features.FEATURE_EID_PIN_PAD_READER_TAG);
-		if (eIDPinPadReaderCommand != null) {
-			LOGGER.info("Smart card reader with eID-aware pin pad!");
-		}
-		if (secure && verifyPinDirectCommand == null && verifyPinStartCommand == null) {
-			LOGGER.info("Reader doesn't allow secure PIN entry");
-			throw new CardException("No secure reader detected.");
+	public void startSession(String algorithm, Executor executor) throws CardException {
+		LOGGER.info("Starting signing session for " + algorithm);
+		if (pinProvider != null && isPinVerificationRequired(keyId)
+				&& getFeature(Features.FEATURE_VERIFY_PIN_DIRECT_TAG) == null
+				&& getVerifyPinStartCommand() == null) {
+			if (!(pinProvider instanceof AsyncPinProvider)) {
+				pinProvider = new AsyncPinProvider(pinProvider);
+			}
+			((AsyncPinProvider) pinProvider).prefetch(executor);
 		}
-		
 		byte algobyte;
-		if ("SHA-1-PSS".equals(algorithm)) {
-			algobyte = 0x10;
+		try {
+			algobyte = getAlgorithmByte(algorithm, getEncryptionAlgorithm(keyId));
+		} catch (IOException e) {
+			throw new CardException(e);
+		}
+		synchronized (channel) {
+			manageSecurityEnvironment(algobyte, keyId);
+		}
+	}
+	
+	/**
+	 * Gets the algorithm reference used in the security environment.
+	 * Subclasses can override this method for cards that use other references.
+	 * @param algorithm	the algorithm used to create the message digest
+	 * @param encryptionAlgorithm	the algorithm of the key ("RSA" or "ECDSA")
+	 * @return	the algorithm reference
+	 */
+	protected byte getAlgorithmByte(String algorithm, String encryptionAlgorithm) {
+		if ("ECDSA".equals(encryptionAlgorithm)) {
+			// the card finds out the hash algorithm from the size of the hash
+			return ALGORITHM_ECDSA;
+		} else if ("SHA-1-PSS".equals(algorithm)) {
+			return ALGORITHM_RSA_PSS_SHA1;
 		} else if ("SHA-256-PSS".equals(algorithm)) {
-			algobyte = 0x20;
+			return ALGORITHM_RSA_PSS_SHA256;
 		} else {
-			algobyte = 0x01;
+			return ALGORITHM_RSA_PKCS1;
+		}
+	}
+	
+	/**
+	 * Sets the security environment for a digital signature,
+	 * unless the same security environment is still set.
+	 * Needs to be called while holding the lock on the basic channel.
+	 * @param algobyte	the algorithm reference
+	 * @param keyId	the id of the key that will be used to sign
+	 * @throws CardException
+	 */
+	private void manageSecurityEnvironment(byte algobyte, byte keyId) throws CardException {
+		// a file read on the basic channel (or one that is still going on) may have reset the environment
+		int reads = basicChannelReads.get();
+		if (preparedReads == reads && preparedAlgorithm == algobyte && preparedKeyId == keyId) {
+			LOGGER.info("Security environment already set");
+			return;
 		}
+		preparedReads = -1;
 		byte[] data = new byte[] {
 				0x04, // Length
 				(byte)0x80, algobyte, (byte) 0x84,
 				keyId
 		};
-		
 		LOGGER.info("Manage security environment");
 		CommandAPDU commandAPDU = new CommandAPDU(
 				IsoIec7816.CLA_00, IsoIec7816.INS_MANAGE_SECURITY_ENVIRONMENT,
@@ -265,51 +738,145 @@ public class SmartCardWithKey extends SmartCard {
 		if (responseAPDU.getSW() != IsoIec7816.SW_NO_FURTHER_QUALIFICATION) {
 			throw new CardException("Incorrect response: " + Integer.valueOf(responseAPDU.getSW()));
 		}
+		if (reads % 2 == 0) {
+			preparedAlgorithm = algobyte;
+			preparedKeyId = keyId;
+			preparedReads = reads;
+		}
+	}
+	
+	/**
+	 * Signs a message digest on the smart card.
+	 * @param digest	the message digest
+	 * @param algorithm	the	algorithm used to create the message digest
+	 * @return	a signed digest
+	 * @throws CardException
+	 * @throws IOException
+	 */
+	public byte[] sign(byte[] digest, String algorithm) throws CardException, IOException {
+		return sign(digest, algorithm, keyId);
+	}
+	
+	/**
+	 * Signs a message digest on the smart card using a specific key.
+	 * Depending on the PIN policy of the key, the PIN is verified
+	 * before signing, or only if the card asks for it.
+	 * @param digest	the message digest
+	 * @param algorithm	the	algorithm used to create the message digest
+	 * @param keyId	the id of the key that will be used to sign
+	 * @return	a signed digest
+	 * @throws CardException
+	 * @throws IOException
+	 */
+	public byte[] sign(byte[] digest, String algorithm, byte keyId) throws CardException, IOException {
+		LOGGER.info("Signing a digest created with " + algorithm);
+		Integer verifyPinDirectCommand = getFeature(Features.FEATURE_VERIFY_PIN_DIRECT_TAG);
+		Integer verifyPinStartCommand = getVerifyPinStartCommand();
+		Integer eIDPinPadReaderCommand = getFeature(Features.FEATURE_EID_PIN_PAD_READER_TAG);
+		if (eIDPinPadReaderCommand != null) {
+			LOGGER.info("Smart card reader with eID-aware pin pad!");
+		}
+		if (secure && verifyPinDirectCommand == null && verifyPinStartCommand == null) {
+			LOGGER.info("Reader doesn't allow secure PIN entry");
+			throw new CardException("No secure reader detected.");
+		}
+		
+		String encryption = getEncryptionAlgorithm(keyId);
+		byte algobyte = getAlgorithmByte(algorithm, encryption);
 		
-		LOGGER.info("Verify PIN for signing");
-		int retries = verifyPin(verifyPinDirectCommand, verifyPinStartCommand, -1);
+		// the security environment, the PIN verification and the security operation
+		// are a sequence on the basic channel that can't be interrupted by other threads
+		synchronized (channel) {
+			try {
+				byte[] signature = sign(digest, algorithm, algobyte, keyId, verifyPinDirectCommand, verifyPinStartCommand);
+				// the card returns r and s, CMS expects a DER sequence
+				return "ECDSA".equals(encryption) ? SignatureFormats.ecdsaRawToDer(signature) : signature;
+			}
+			finally {
+				// the next signature needs a new security environment
+				preparedReads = -1;
+			}
+		}
+	}
+	
+	/**
+	 * Sets the security environment (if necessary), verifies the PIN
+	 * and signs the message digest. Needs to be called while holding
+	 * the lock on the basic channel.
+	 * @param digest	the message digest
+	 * @param algorithm	the algorithm used to create the message digest
+	 * @param algobyte	the algorithm reference
+	 * @param keyId	the id of the key that will be used to sign
+	 * @param verifyPinDirectCommand	the command to verify the PIN on the pin pad (or null)
+	 * @param verifyPinStartCommand	the command to start verifying the PIN on the pin pad (or null)
+	 * @return	a signed digest
+	 * @throws CardException
+	 * @throws IOException
+	 */
+	private byte[] sign(byte[] digest, String algorithm, byte algobyte, byte keyId,
+			Integer verifyPinDirectCommand, Integer verifyPinStartCommand) throws CardException, IOException {
+		manageSecurityEnvironment(algobyte, keyId);
+	
+		int retries = -1;
+		if (isPinVerificationRequired(keyId)) {
+			LOGGER.info("Verify PIN for signing");
+			setPinVerified(keyId, false);
+			retries = verifyPin(verifyPinDirectCommand, verifyPinStartCommand, -1);
+		}
+		else {
+			LOGGER.info("Signing without verifying the PIN first");
+		}
 
 		LOGGER.info("Creating bytes for signing");
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		if (algobyte == 0x01) {
+		if (algobyte == ALGORITHM_RSA_PKCS1) {
 			byte[] prefix = DigestAlgorithms.DIGESTS.get(algorithm);
 			if (prefix != null) {
 				baos.write(prefix);
 			}
 			else if (DigestAlgorithms.PLAIN_TEXT.equals(algorithm)) {
-				System.out.println(digest.length);
-				prefix = Arrays.copyOf(
-						DigestAlgorithms.PLAIN_TEXT_PREFIX,
-						DigestAlgorithms.PLAIN_TEXT_PREFIX.length);
-				prefix[1] = (byte) (digest.length + 13);
-				prefix[14] = (byte) digest.length;
-				System.out.println(prefix[14]);
-				baos.write(prefix);
+				baos.write(DigestAlgorithms.getPlainTextPrefix(digest.length));
 			}
 		}
 		baos.write(digest);
-		
+	
 		LOGGER.info("Sign the bytes");
-		commandAPDU = new CommandAPDU(
+		CommandAPDU commandAPDU = new CommandAPDU(
 				IsoIec7816.CLA_00, IsoIec7816.INS_PERFORM_SECURITY_OPERATION,
 				IsoIec7816.P1_DIGITAL_SIGNATURE, IsoIec7816.P2_INPUT_DATA,
 				baos.toByteArray());
-		responseAPDU = SmartCardIO.transmit(channel, commandAPDU);
-		
+		ResponseAPDU responseAPDU = transmitLarge(commandAPDU);
+	
 		int sw = responseAPDU.getSW();
 		// A pin is needed, and it isn't cached on the reader
 		if (sw == IsoIec7816.SW_SECURITY_STATUS_NOT_SATISFIED) {
 			LOGGER.info("Pin code couldn't be verified");
+			setPinVerified(keyId, false);
 			retries = verifyPin(verifyPinDirectCommand, verifyPinStartCommand, retries);
-			responseAPDU = SmartCardIO.transmit(channel, commandAPDU);
+			responseAPDU = transmitLarge(commandAPDU);
 			sw = responseAPDU.getSW();
 		}
 		if (sw == IsoIec7816.SW_NO_FURTHER_QUALIFICATION) {
 			LOGGER.info("Signing done");
+			// the card accepted the PIN (or still remembered it)
+			setPinVerified(keyId, true);
 			return responseAPDU.getData();
 		}
 		else {
 			throw new IOException("Digest could not be signed " + Integer.toHexString(sw));
 		}
 	}
+	
+	/**
+	 * Sends a command APDU that may have more data than fits in a short APDU:
+	 * as one extended APDU if the card supports it, using command chaining otherwise.
+	 * @param commandAPDU	the command APDU
+	 * @return	the response APDU
+	 * @throws CardException
+	 */
+	protected ResponseAPDU transmitLarge(CommandAPDU commandAPDU) throws CardException {
+		if (commandAPDU.getNc() <= IsoIec7816.MAX_SHORT_LC || isExtendedLengthSupported())
+			return SmartCardIO.transmit(channel, commandAPDU);
+		return SmartCardIO.transmitChained(channel, commandAPDU, IsoIec7816.MAX_SHORT_LC);
+	}
 }
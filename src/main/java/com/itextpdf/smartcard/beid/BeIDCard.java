@@ -47,7 +47,10 @@ package com.itextpdf.smartcard.beid;
 import javax.smartcardio.CardException;
 import javax.smartcardio.CardTerminal;
 
+import com.itextpdf.smartcard.PinPolicy;
 import com.itextpdf.smartcard.SmartCardWithKey;
+import com.itextpdf.smartcard.transport.CardTransport;
+import com.itextpdf.smartcard.util.SmartCardIO;
 
 /**
  * An instance of the Belgian eID card.
@@ -64,12 +67,86 @@ public class BeIDCard extends SmartCardWithKey {
 		(byte) 0xff, 0x00, (byte) 0xff, 0x00, 0x00, 0x00, 0x00,
 		(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xf0 };
 	
+	/** A pattern that all Belgian eID cards with applet 1.8 (and EC keys) have in common. */
+	public final static byte[] PATTERN_1_8 = new byte[] { 0x3b, 0x7f,
+		0x00, 0x00, 0x00, (byte) 0x80, 0x31, (byte) 0x80, 0x65, (byte) 0xb0,
+		(byte) 0x85, 0x00, 0x00, 0x00, 0x12, 0x0f, (byte) 0xff, (byte) 0x82,
+		(byte) 0x90, 0x00 };
+	
+	/** The part of the pattern all Belgian eID cards with applet 1.8 have in common. */
+	public final static byte[] MASK_1_8 = new byte[] { (byte) 0xff,
+		(byte) 0xff, 0x00, 0x00, 0x00, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+		(byte) 0xff, (byte) 0xff, (byte) 0xff, 0x00, 0x00, 0x00, (byte) 0xff,
+		(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff };
+	
+	/** The delay (in ms) needed between an answer and the next APDU for v1.0 and v1.1 cards. */
+	public final static long LEGACY_INTER_APDU_DELAY = 10;
+	
 	/**
 	 * Creates a BeIDCard instance.
 	 * @param	cardTerminal	the card terminal with the Belgian eID. 
 	 */
 	public BeIDCard(CardTerminal cardTerminal) throws CardException {
 		super(cardTerminal, BeIDCertificates.NON_REPUDIATION_KEY_ID, "RSA");
+		// the card remembers the PIN for authentication until it's reset
+		setPinPolicy(BeIDCertificates.AUTHENTICATION_KEY_ID, PinPolicy.ONCE_PER_SESSION);
+		configureKeys();
+		configureTransport();
+	}
+	
+	/**
+	 * Creates a BeIDCard instance for a card reached through a transport.
+	 * @param	transport	the transport that is connected to the Belgian eID
+	 */
+	public BeIDCard(CardTransport transport) throws CardException {
+		super(transport, BeIDCertificates.NON_REPUDIATION_KEY_ID, "RSA");
+		setPinPolicy(BeIDCertificates.AUTHENTICATION_KEY_ID, PinPolicy.ONCE_PER_SESSION);
+		configureKeys();
+		configureTransport();
+	}
+	
+	/**
+	 * Tells the card where the certificates of the keys are: newer cards have
+	 * EC keys instead of RSA keys, the certificate tells which one it is.
+	 */
+	private void configureKeys() {
+		setKeyCertificate(BeIDCertificates.AUTHENTICATION_KEY_ID, BeIDCertificates.AUTHN_CERT_FILE_ID);
+		setKeyCertificate(BeIDCertificates.NON_REPUDIATION_KEY_ID, BeIDCertificates.SIGN_CERT_FILE_ID);
+	}
+	
+	/**
+	 * Checks if the card has an applet of version 1.0 or 1.1
+	 * (the version is in the last historical byte of the ATR).
+	 * These cards need a delay between an answer and the next APDU.
+	 * @return	true if the card has an old applet
+	 */
+	public boolean isLegacyApplet() {
+		if (atr == null)
+			return false;
+		byte[] atrBytes = atr.getBytes();
+		return atrBytes.length == PATTERN.length && (atrBytes[atrBytes.length - 1] & 0x0F) <= 1;
+	}
+	
+	/**
+	 * Only old cards get a delay between APDUs and after selecting a file.
+	 */
+	private void configureTransport() {
+		if (card == null)
+			return;
+		if (isLegacyApplet()) {
+			SmartCardIO.setInterApduDelay(card, LEGACY_INTER_APDU_DELAY);
+		}
+		else {
+			SmartCardIO.setPostSelectDelay(card, 0);
+		}
+	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.SmartCardWithKey#reconnected(boolean)
+	 */
+	protected void reconnected(boolean sameAtr) {
+		super.reconnected(sameAtr);
+		configureTransport();
 	}
 	
 	/**
@@ -85,4 +162,18 @@ public class BeIDCard extends SmartCardWithKey {
 	public byte[] getMask() {
 		return MASK;
 	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.SmartCard#getPatterns()
+	 */
+	public byte[][] getPatterns() {
+		return new byte[][] { PATTERN, PATTERN_1_8 };
+	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.SmartCard#getMasks()
+	 */
+	public byte[][] getMasks() {
+		return new byte[][] { MASK, MASK_1_8 };
+	}
 }
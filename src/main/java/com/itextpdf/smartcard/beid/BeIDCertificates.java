@@ -45,6 +45,9 @@
 package com.itextpdf.smartcard.beid;
 
 import com.itextpdf.smartcard.SmartCardWithKey;
+import com.itextpdf.smartcard.revocation.OcspCache;
+import com.itextpdf.smartcard.util.CertificateStore;
+import com.itextpdf.smartcard.util.LazyCertificate;
 
 import javax.smartcardio.CardException;
 
@@ -93,7 +96,9 @@ public class BeIDCertificates {
 		(byte) 0xDF, 0x00, 0x50, 0x3C };
 	
 	/**
-	 * Generates a certificate chain that can be used for signing
+	 * Generates a certificate chain that can be used for signing.
+	 * The CA and root certificates are taken from the shared store when
+	 * it trusts them, and shared with the chains of other cards.
 	 * @param card	an instance of the BeIDCard
 	 * @return	a List of X509
 	 * @throws CertificateException
@@ -101,23 +106,135 @@ public class BeIDCertificates {
 	 * @throws IOException
 	 */
 	public static Certificate[] getSignCertificateChain(SmartCardWithKey card) throws CertificateException, CardException, IOException{
+		return getSignCertificateChain(card, CertificateStore.getSharedInstance());
+	}
+	
+	/**
+	 * Generates a certificate chain that can be used for signing.
+	 * Only the sign certificate is read from the card; the CA and root
+	 * certificates are looked up among the trusted certificates of the store
+	 * by authority key identifier. They are only read from the card if the
+	 * store doesn't trust an issuer. Use a preloaded store to avoid reading
+	 * them altogether, or pass null to read every certificate from the card.
+	 * @param card	an instance of the BeIDCard
+	 * @param store	the store with CA and root certificates (can be null)
+	 * @return	a List of X509
+	 * @throws CertificateException
+	 * @throws CardException
+	 * @throws IOException
+	 */
+	public static Certificate[] getSignCertificateChain(SmartCardWithKey card, CertificateStore store) throws CertificateException, CardException, IOException{
+		return getSignCertificateChain(card, store, null);
+	}
+	
+	/**
+	 * Generates a certificate chain that can be used for signing,
+	 * and starts fetching the OCSP response for the sign certificate
+	 * in the background as soon as its issuer is known. This way the
+	 * response is usually available by the time the signature is made.
+	 * @param card	an instance of the BeIDCard
+	 * @param store	the store with CA and root certificates (can be null)
+	 * @param ocspCache	the OCSP cache that will fetch the response (can be null)
+	 * @return	a List of X509
+	 * @throws CertificateException
+	 * @throws CardException
+	 * @throws IOException
+	 */
+	public static Certificate[] getSignCertificateChain(SmartCardWithKey card, CertificateStore store, OcspCache ocspCache) throws CertificateException, CardException, IOException{
 		LOGGER.info("creating sign certificate chain...");
-		List<X509Certificate> signCertificateChain = new LinkedList<X509Certificate>();
+		return getCertificateChain(card, store, SIGN_CERT_FILE_ID, ocspCache);
+	}
+	
+	/**
+	 * Generates the certificate chain of the authentication key
+	 * (e.g. for TLS client authentication).
+	 * @param card	an instance of the BeIDCard
+	 * @param store	the store with CA and root certificates (can be null)
+	 * @return	a List of X509
+	 * @throws CertificateException
+	 * @throws CardException
+	 * @throws IOException
+	 */
+	public static Certificate[] getAuthenticationCertificateChain(SmartCardWithKey card, CertificateStore store) throws CertificateException, CardException, IOException{
+		LOGGER.info("creating authentication certificate chain...");
+		return getCertificateChain(card, store, AUTHN_CERT_FILE_ID, null);
+	}
+	
+	/**
+	 * Generates a certificate chain for a certificate on the card.
+	 * @param card	an instance of the BeIDCard
+	 * @param store	the store with CA and root certificates (can be null)
+	 * @param fileId	the file with the end entity certificate
+	 * @param ocspCache	the OCSP cache that will fetch the response (can be null)
+	 * @return	a List of X509
+	 * @throws CertificateException
+	 * @throws CardException
+	 * @throws IOException
+	 */
+	private static Certificate[] getCertificateChain(SmartCardWithKey card, CertificateStore store, byte[] fileId, OcspCache ocspCache) throws CertificateException, CardException, IOException{
+		List<X509Certificate> certificateChain = new LinkedList<X509Certificate>();
 		
-		LOGGER.info("reading sign certificate...");
-		signCertificateChain.add(card.readCertificate(BeIDCertificates.SIGN_CERT_FILE_ID));
+		LOGGER.info("reading certificate...");
+		LazyCertificate certificate = card.readLazyCertificate(fileId);
+		certificateChain.add(certificate.getCertificate());
 		
-		LOGGER.info("reading CA certificate...");
-		signCertificateChain.add(card.readCertificate(BeIDCertificates.CA_CERT_FILE_ID));
+		LazyCertificate caCertificate = resolveIssuer(card, store, certificate, CA_CERT_FILE_ID);
+		certificateChain.add(intern(store, caCertificate));
+		if (ocspCache != null)
+			ocspCache.prefetch(certificateChain.get(0), certificateChain.get(1), null);
 		
-		LOGGER.info("reading Root CA certificate...");
-		signCertificateChain.add(card.readCertificate(BeIDCertificates.ROOT_CERT_FILE_ID));
+		LazyCertificate rootCertificate = resolveIssuer(card, store, caCertificate, ROOT_CERT_FILE_ID);
+		certificateChain.add(intern(store, rootCertificate));
 		
-		Certificate[] certs = new Certificate[signCertificateChain.size()];
+		Certificate[] certs = new Certificate[certificateChain.size()];
 		int i = 0;
-		for (X509Certificate c : signCertificateChain) {
+		for (X509Certificate c : certificateChain) {
 			certs[i++] = c;
 		}
 		return certs;
 	}
+	
+	/**
+	 * Gets the issuer of a certificate from the trusted certificates in the
+	 * store, or from the card if the store doesn't know the issuer. An issuer
+	 * read from the card needs to have signed the certificate, but it's
+	 * only as trustworthy as the card.
+	 * @param card	an instance of the BeIDCard
+	 * @param store	the store with CA and root certificates (can be null)
+	 * @param certificate	the certificate for which we need the issuer
+	 * @param fileId	the file on the card containing the issuer certificate
+	 * @return	the issuer certificate
+	 * @throws CertificateException
+	 * @throws CardException
+	 * @throws IOException
+	 */
+	private static LazyCertificate resolveIssuer(SmartCardWithKey card, CertificateStore store,
+			LazyCertificate certificate, byte[] fileId) throws CertificateException, CardException, IOException {
+		if (store != null) {
+			X509Certificate issuer = store.findIssuer(certificate);
+			if (issuer != null) {
+				LOGGER.info("issuer found in store: " + issuer.getSubjectX500Principal().getName());
+				return new LazyCertificate(issuer);
+			}
+		}
+		LOGGER.info("reading issuer certificate from card...");
+		LazyCertificate issuer = card.readLazyCertificate(fileId);
+		if (!CertificateStore.isIssuedBy(certificate, issuer.getCertificate()))
+			throw new CertificateException("The certificate on the card wasn't issued by "
+				+ issuer.getCertificate().getSubjectX500Principal().getName());
+		return issuer;
+	}
+	
+	/**
+	 * Interns a certificate if there's a store.
+	 * @param store	the store with CA and root certificates (can be null)
+	 * @param certificate	a certificate
+	 * @return	the certificate in the store, or the parsed certificate
+	 * @throws CertificateException
+	 */
+	private static X509Certificate intern(CertificateStore store, LazyCertificate certificate) throws CertificateException {
+		if (store == null)
+			return certificate.getCertificate();
+		return store.intern(certificate);
+	}
 }
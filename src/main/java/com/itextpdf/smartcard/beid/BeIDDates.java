@@ -0,0 +1,255 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.beid;
+
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Parses the dates that are stored on a Belgian eID.
+ * The card uses a fixed format, so we don't need a DateFormat: the
+ * digits are decoded directly from the String, and the only object
+ * that is created is the resulting Date. The methods are stateless,
+ * hence thread-safe.
+ */
+public class BeIDDates {
+
+	/** The number of milliseconds in a day. */
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+	
+	/**
+	 * The abbreviations of the months that are used in the birth date
+	 * (French, Dutch and German); the index + 1 is the month number.
+	 */
+	private static final String[][] MONTHS = {
+		{ "JAN", "JANV" },
+		{ "FEV", "FEVR", "F\u00C9V", "F\u00C9VR", "FEB" },
+		{ "MARS", "MAR", "MAAR", "MRT", "M\u00C4R", "M\u00C4RZ" },
+		{ "AVR", "AVRIL", "APR" },
+		{ "MAI", "MEI" },
+		{ "JUIN", "JUN" },
+		{ "JUIL", "JUL" },
+		{ "AOUT", "AO\u00DB", "AO\u00DBT", "AUG" },
+		{ "SEPT", "SEP" },
+		{ "OCT", "OKT" },
+		{ "NOV" },
+		{ "DEC", "D\u00C9C", "DEZ" }
+	};
+	
+	/**
+	 * Parses a date in the format dd.MM.yyyy (e.g. the validity dates of the card).
+	 * @param date	the String to be converted
+	 * @return	a Date object (midnight in the default time zone),
+	 * or null if the String isn't a valid date
+	 */
+	public static Date parseDate(String date) {
+		if (date == null || date.length() != 10
+				|| date.charAt(2) != '.' || date.charAt(5) != '.')
+			return null;
+		return toDate(parseNumber(date, 6, 10), parseNumber(date, 3, 5), parseNumber(date, 0, 2));
+	}
+	
+	/**
+	 * Parses the birth date as it is stored on the card. The month is
+	 * an abbreviation in the language of the municipality that issued
+	 * the card, for instance "18 JUIL 1988", "18 JUL 1988" or
+	 * "18.JUL.1988". Some birth dates only consist of a year.
+	 * @param date	the String to be converted
+	 * @return	a Date object (midnight in the default time zone; January 1st
+	 * if only the year is known), or null if the String can't be parsed
+	 */
+	public static Date parseBirthDate(String date) {
+		if (date == null)
+			return null;
+		int end = date.length();
+		while (end > 0 && date.charAt(end - 1) == ' ')
+			end--;
+		int start = 0;
+		while (start < end && date.charAt(start) == ' ')
+			start++;
+		if (end - start == 4)
+			return toDate(parseNumber(date, start, end), 1, 1);
+		// day
+		int pos = start;
+		while (pos < end && isDigit(date.charAt(pos)))
+			pos++;
+		int day = parseNumber(date, start, pos);
+		pos = skipSeparators(date, pos, end);
+		// month
+		int monthStart = pos;
+		while (pos < end && !isSeparator(date.charAt(pos)))
+			pos++;
+		int month = parseMonth(date, monthStart, pos);
+		pos = skipSeparators(date, pos, end);
+		// year
+		int year = parseNumber(date, pos, end);
+		return toDate(year, month, day);
+	}
+	
+	/**
+	 * Parses the month in a birth date.
+	 * @param date	the birth date
+	 * @param start	the start position of the month
+	 * @param end	the end position of the month
+	 * @return	a month number (1 to 12), or -1
+	 */
+	private static int parseMonth(String date, int start, int end) {
+		int length = end - start;
+		if (length == 0)
+			return -1;
+		if (isDigit(date.charAt(start)))
+			return parseNumber(date, start, end);
+		for (int i = 0; i < MONTHS.length; i++) {
+			for (String abbreviation : MONTHS[i]) {
+				if (abbreviation.length() == length
+						&& date.regionMatches(true, start, abbreviation, 0, length))
+					return i + 1;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Parses a positive number without creating a substring.
+	 * @param s	the String containing the number
+	 * @param start	the position of the first digit
+	 * @param end	the position after the last digit
+	 * @return	the number, or -1 if there are no digits or a character isn't a digit
+	 */
+	private static int parseNumber(String s, int start, int end) {
+		if (start >= end)
+			return -1;
+		int n = 0;
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (!isDigit(c))
+				return -1;
+			n = n * 10 + (c - '0');
+		}
+		return n;
+	}
+	
+	/**
+	 * Skips the characters that separate the day, month and year.
+	 * @param s	the String
+	 * @param pos	the current position
+	 * @param end	the end position
+	 * @return	the position of the next character that isn't a separator
+	 */
+	private static int skipSeparators(String s, int pos, int end) {
+		while (pos < end && isSeparator(s.charAt(pos)))
+			pos++;
+		return pos;
+	}
+	
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+	
+	private static boolean isSeparator(char c) {
+		return c == ' ' || c == '.' || c == '-' || c == '/';
+	}
+	
+	/**
+	 * Creates a Date at midnight in the default time zone.
+	 * @param year	the year
+	 * @param month	the month (1 to 12)
+	 * @param day	the day of the month
+	 * @return	a Date, or null if the values don't form a valid date
+	 */
+	private static Date toDate(int year, int month, int day) {
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month))
+			return null;
+		long utc = daysFromCivil(year, month, day) * MILLIS_PER_DAY;
+		// the time zone offset can change around midnight (daylight saving time),
+		// so we check the offsets before and after that day
+		TimeZone timeZone = TimeZone.getDefault();
+		int offsetBefore = timeZone.getOffset(utc - MILLIS_PER_DAY);
+		int offsetAfter = timeZone.getOffset(utc + MILLIS_PER_DAY);
+		long before = utc - offsetBefore;
+		if (offsetBefore == offsetAfter)
+			return new Date(before);
+		long after = utc - offsetAfter;
+		boolean beforeIsMidnight = timeZone.getOffset(before) == offsetBefore;
+		boolean afterIsMidnight = timeZone.getOffset(after) == offsetAfter;
+		if (beforeIsMidnight && !afterIsMidnight)
+			return new Date(before);
+		if (afterIsMidnight && !beforeIsMidnight)
+			return new Date(after);
+		// midnight occurs twice or not at all: take the latest moment, like a DateFormat does
+		return new Date(Math.max(before, after));
+	}
+	
+	/**
+	 * Returns the number of days in a month of the proleptic Gregorian calendar.
+	 */
+	private static int daysInMonth(int year, int month) {
+		switch (month) {
+		case 2:
+			boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+			return leap ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+	
+	/**
+	 * Returns the number of days between 1970-01-01 and a date
+	 * in the proleptic Gregorian calendar.
+	 */
+	private static long daysFromCivil(int year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+}
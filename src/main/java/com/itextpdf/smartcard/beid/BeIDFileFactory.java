@@ -47,16 +47,15 @@ package com.itextpdf.smartcard.beid;
 import com.itextpdf.smartcard.SmartCard;
 import com.itextpdf.smartcard.beid.pojos.AddressPojo;
 import com.itextpdf.smartcard.beid.pojos.IdentityPojo;
+import com.itextpdf.smartcard.beid.pojos.LazyIdentityPojo;
 import com.itextpdf.smartcard.beid.pojos.PhotoPojo;
 import com.itextpdf.smartcard.util.tlv.EidTLVParser;
+import com.itextpdf.smartcard.util.tlv.EidTLVReadCondition;
 import com.itextpdf.smartcard.util.tlv.SimpleTLVParser;
 
 import javax.smartcardio.CardException;
 
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Map;
 
@@ -109,6 +108,7 @@ public class BeIDFileFactory {
 	
 	/**
 	 * Reads the identity file from an eID and returns an IdentityPojo.
+	 * The fields are decoded from the raw file the first time they are needed.
 	 * @param card	the BeIDCard
 	 * @return	an object containing all the data about the identity of the card owner
 	 * @throws CardException
@@ -116,24 +116,27 @@ public class BeIDFileFactory {
 	 */
 	public static IdentityPojo getIdentity(SmartCard card) throws CardException, IOException {
 		LOGGER.info("Get identity...");
+		return new LazyIdentityPojo(card.readFile(IDENTITY_FILE_ID));
+	}
+
+	/**
+	 * Reads only the start of the identity file from an eID and returns
+	 * an IdentityPojo with the card number and the validity dates.
+	 * Use this method for quick validity checks; the other fields are null.
+	 * @param card	the BeIDCard
+	 * @return	an object containing the card number and validity dates
+	 * @throws CardException
+	 * @throws IOException
+	 */
+	public static IdentityPojo getCardValidity(SmartCard card) throws CardException, IOException {
+		LOGGER.info("Get card validity...");
 		IdentityPojo file = new IdentityPojo();
-		byte[] data = card.readFile(IDENTITY_FILE_ID);
+		EidTLVReadCondition condition = new EidTLVReadCondition(IdentityTag.CARD_VALIDITY_DATE_END.getTag());
+		byte[] data = condition.truncate(card.readFile(IDENTITY_FILE_ID, condition));
 		Map<Byte, String> map = SIMPLETLVPARSER.parse(data);
 		file.setCardNumber(map.get(IdentityTag.CARD_NUMBER.getTag()));
 		file.setCardValidityDateBegin(parseDate(map.get(IdentityTag.CARD_VALIDITY_DATE_BEGIN.getTag())));
 		file.setCardValidityDateEnd(parseDate(map.get(IdentityTag.CARD_VALIDITY_DATE_END.getTag())));
-		file.setCardDeliveryMunicipality(map.get(IdentityTag.CARD_DELIVERY_MUNICIPALITY.getTag()));
-		file.setNationalNumber(map.get(IdentityTag.NATIONAL_NUMBER.getTag()));
-		file.setName(map.get(IdentityTag.NAME.getTag()));
-		file.setGivenNames(map.get(IdentityTag.GIVEN_NAMES.getTag()));
-		file.setThirdGivenNameInitial(map.get(IdentityTag.THIRD_NAME_INITIAL.getTag()));
-		file.setNationality(map.get(IdentityTag.NATIONALITY.getTag()));
-		file.setBirthLocation(map.get(IdentityTag.BIRTH_LOCATION.getTag()));
-		file.setBirthDate(map.get(IdentityTag.BIRTH_DATE.getTag()));
-		file.setSex(map.get(IdentityTag.SEX.getTag()));
-		file.setNobleCondition(map.get(IdentityTag.NOBLE_CONDITION.getTag()));
-		file.setDocumentType(parseInt(map.get(IdentityTag.DOCUMENT_TYPE.getTag())));
-		file.setSpecialStatus(parseInt(map.get(IdentityTag.SPECIAL_STATUS.getTag())));
 		return file;
 	}
 
@@ -195,17 +198,10 @@ public class BeIDFileFactory {
 	 * @param date
 	 *            String to be converted
 	 * @return a Date object
+	 * @see BeIDDates#parseDate(String)
 	 */
 	public static Date parseDate(String date) {
-		DateFormat formatter;
-		try {
-			if (date == null)
-				return null;
-			formatter = new SimpleDateFormat("dd.MM.yyyy");
-			return formatter.parse(date);
-		} catch (ParseException e) {
-			return null;
-		}
+		return BeIDDates.parseDate(date);
 	}
 	
 	/**
@@ -73,6 +73,8 @@ public class IdentityPojo {
 	private String birthLocation;
 	/** Day of birth of the owner. */
 	private String birthDate;
+	/** Day of birth of the owner as a Date. */
+	private Date dateOfBirth;
 	/** Gender of the owner. */
 	private String sex;
 	/** Nobility title of the owner. */
@@ -214,6 +216,18 @@ public class IdentityPojo {
 	public void setBirthDate(String birthDate) {
 		this.birthDate = birthDate;
 	}
+	/**
+	 * @return the dateOfBirth
+	 */
+	public Date getDateOfBirth() {
+		return dateOfBirth;
+	}
+	/**
+	 * @param dateOfBirth the dateOfBirth to set
+	 */
+	public void setDateOfBirth(Date dateOfBirth) {
+		this.dateOfBirth = dateOfBirth;
+	}
 	/**
 	 * @return the sex
 	 */
@@ -268,20 +282,20 @@ public class IdentityPojo {
 	 */
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
-		sb.append("card number: ").append(this.cardNumber)
-				.append("\ncard valid from: ").append(this.cardValidityDateBegin)
-				.append(" until ").append(this.cardValidityDateEnd)
-				.append("\nissued: ").append(this.cardDeliveryMunicipality)
-				.append("\nnational number: ").append(this.nationalNumber)
-				.append("\nName: ").append(this.name).append(", ")
-				.append(this.givenNames).append(" ").append(thirdGivenNameInitial)
-				.append("\nNationality: ").append(this.nationality)
-				.append("\nBirth Location: ").append(this.birthLocation)
-				.append("\nBirth Date: ").append(this.birthDate)
-				.append("\nSex: ").append(this.sex)
-				.append("\nNoble condition: ").append(this.nobleCondition)
-				.append("\nDocument type: ").append(this.documentType)
-				.append("\nSpecial status: ").append(this.specialStatus);
+		sb.append("card number: ").append(getCardNumber())
+				.append("\ncard valid from: ").append(getCardValidityDateBegin())
+				.append(" until ").append(getCardValidityDateEnd())
+				.append("\nissued: ").append(getCardDeliveryMunicipality())
+				.append("\nnational number: ").append(getNationalNumber())
+				.append("\nName: ").append(getName()).append(", ")
+				.append(getGivenNames()).append(" ").append(getThirdGivenNameInitial())
+				.append("\nNationality: ").append(getNationality())
+				.append("\nBirth Location: ").append(getBirthLocation())
+				.append("\nBirth Date: ").append(getBirthDate())
+				.append("\nSex: ").append(getSex())
+				.append("\nNoble condition: ").append(getNobleCondition())
+				.append("\nDocument type: ").append(getDocumentType())
+				.append("\nSpecial status: ").append(getSpecialStatus());
 		return sb.toString();
 	}
 }
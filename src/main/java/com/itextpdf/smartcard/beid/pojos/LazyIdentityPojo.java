@@ -0,0 +1,368 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.beid.pojos;
+
+import com.itextpdf.smartcard.beid.BeIDDates;
+import com.itextpdf.smartcard.beid.BeIDFileFactory;
+import com.itextpdf.smartcard.beid.BeIDFileFactory.IdentityTag;
+import com.itextpdf.smartcard.util.tlv.EidTLVIndex;
+
+import java.util.Date;
+
+/**
+ * Identity information about the owner of a Belgian eID that is decoded
+ * on demand. The raw identity file is indexed once; a field is only
+ * decoded the first time its getter is called, and the result is cached.
+ */
+public class LazyIdentityPojo extends IdentityPojo {
+
+	/** Index of the raw identity file. */
+	private EidTLVIndex index;
+	
+	/** A bit for every tag that was already decoded (or set). */
+	private long decoded = 0;
+	
+	/**
+	 * Creates an IdentityPojo backed by the raw identity file.
+	 * @param data	the content of the identity file
+	 */
+	public LazyIdentityPojo(byte[] data) {
+		index = new EidTLVIndex(data);
+	}
+	
+	/**
+	 * Decodes the value of a tag and stores it in the corresponding field,
+	 * unless this was done before.
+	 * @param tag	the tag of the field you need
+	 */
+	private synchronized void decode(IdentityTag tag) {
+		long bit = 1L << tag.getTag();
+		if ((decoded & bit) != 0)
+			return;
+		switch (tag) {
+		case CARD_NUMBER:
+			super.setCardNumber(index.getValue(tag.getTag()));
+			break;
+		case CARD_VALIDITY_DATE_BEGIN:
+			super.setCardValidityDateBegin(BeIDFileFactory.parseDate(index.getValue(tag.getTag())));
+			break;
+		case CARD_VALIDITY_DATE_END:
+			super.setCardValidityDateEnd(BeIDFileFactory.parseDate(index.getValue(tag.getTag())));
+			break;
+		case CARD_DELIVERY_MUNICIPALITY:
+			super.setCardDeliveryMunicipality(index.getValue(tag.getTag()));
+			break;
+		case NATIONAL_NUMBER:
+			super.setNationalNumber(index.getValue(tag.getTag()));
+			break;
+		case NAME:
+			super.setName(index.getValue(tag.getTag()));
+			break;
+		case GIVEN_NAMES:
+			super.setGivenNames(index.getValue(tag.getTag()));
+			break;
+		case THIRD_NAME_INITIAL:
+			super.setThirdGivenNameInitial(index.getValue(tag.getTag()));
+			break;
+		case NATIONALITY:
+			super.setNationality(index.getValue(tag.getTag()));
+			break;
+		case BIRTH_LOCATION:
+			super.setBirthLocation(index.getValue(tag.getTag()));
+			break;
+		case BIRTH_DATE:
+			super.setBirthDate(index.getValue(tag.getTag()));
+			super.setDateOfBirth(BeIDDates.parseBirthDate(super.getBirthDate()));
+			break;
+		case SEX:
+			super.setSex(index.getValue(tag.getTag()));
+			break;
+		case NOBLE_CONDITION:
+			super.setNobleCondition(index.getValue(tag.getTag()));
+			break;
+		case DOCUMENT_TYPE:
+			super.setDocumentType(BeIDFileFactory.parseInt(index.getValue(tag.getTag())));
+			break;
+		case SPECIAL_STATUS:
+			super.setSpecialStatus(BeIDFileFactory.parseInt(index.getValue(tag.getTag())));
+			break;
+		}
+		decoded |= bit;
+	}
+	
+	/**
+	 * Makes sure that a value that was set explicitly won't be overwritten.
+	 * @param tag	the tag of the field that is set
+	 */
+	private synchronized void markDecoded(IdentityTag tag) {
+		decoded |= 1L << tag.getTag();
+	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#getCardNumber()
+	 */
+	public String getCardNumber() {
+		decode(IdentityTag.CARD_NUMBER);
+		return super.getCardNumber();
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#setCardNumber(String)
+	 */
+	public void setCardNumber(String cardNumber) {
+		markDecoded(IdentityTag.CARD_NUMBER);
+		super.setCardNumber(cardNumber);
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#getCardValidityDateBegin()
+	 */
+	public Date getCardValidityDateBegin() {
+		decode(IdentityTag.CARD_VALIDITY_DATE_BEGIN);
+		return super.getCardValidityDateBegin();
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#setCardValidityDateBegin(Date)
+	 */
+	public void setCardValidityDateBegin(Date cardValidityDateBegin) {
+		markDecoded(IdentityTag.CARD_VALIDITY_DATE_BEGIN);
+		super.setCardValidityDateBegin(cardValidityDateBegin);
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#getCardValidityDateEnd()
+	 */
+	public Date getCardValidityDateEnd() {
+		decode(IdentityTag.CARD_VALIDITY_DATE_END);
+		return super.getCardValidityDateEnd();
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#setCardValidityDateEnd(Date)
+	 */
+	public void setCardValidityDateEnd(Date cardValidityDateEnd) {
+		markDecoded(IdentityTag.CARD_VALIDITY_DATE_END);
+		super.setCardValidityDateEnd(cardValidityDateEnd);
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#getCardDeliveryMunicipality()
+	 */
+	public String getCardDeliveryMunicipality() {
+		decode(IdentityTag.CARD_DELIVERY_MUNICIPALITY);
+		return super.getCardDeliveryMunicipality();
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#setCardDeliveryMunicipality(String)
+	 */
+	public void setCardDeliveryMunicipality(String cardDeliveryMunicipality) {
+		markDecoded(IdentityTag.CARD_DELIVERY_MUNICIPALITY);
+		super.setCardDeliveryMunicipality(cardDeliveryMunicipality);
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#getNationalNumber()
+	 */
+	public String getNationalNumber() {
+		decode(IdentityTag.NATIONAL_NUMBER);
+		return super.getNationalNumber();
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#setNationalNumber(String)
+	 */
+	public void setNationalNumber(String nationalNumber) {
+		markDecoded(IdentityTag.NATIONAL_NUMBER);
+		super.setNationalNumber(nationalNumber);
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#getName()
+	 */
+	public String getName() {
+		decode(IdentityTag.NAME);
+		return super.getName();
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#setName(String)
+	 */
+	public void setName(String name) {
+		markDecoded(IdentityTag.NAME);
+		super.setName(name);
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#getGivenNames()
+	 */
+	public String getGivenNames() {
+		decode(IdentityTag.GIVEN_NAMES);
+		return super.getGivenNames();
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#setGivenNames(String)
+	 */
+	public void setGivenNames(String givenNames) {
+		markDecoded(IdentityTag.GIVEN_NAMES);
+		super.setGivenNames(givenNames);
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#getThirdGivenNameInitial()
+	 */
+	public String getThirdGivenNameInitial() {
+		decode(IdentityTag.THIRD_NAME_INITIAL);
+		return super.getThirdGivenNameInitial();
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#setThirdGivenNameInitial(String)
+	 */
+	public void setThirdGivenNameInitial(String thirdGivenNameInitial) {
+		markDecoded(IdentityTag.THIRD_NAME_INITIAL);
+		super.setThirdGivenNameInitial(thirdGivenNameInitial);
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#getNationality()
+	 */
+	public String getNationality() {
+		decode(IdentityTag.NATIONALITY);
+		return super.getNationality();
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#setNationality(String)
+	 */
+	public void setNationality(String nationality) {
+		markDecoded(IdentityTag.NATIONALITY);
+		super.setNationality(nationality);
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#getBirthLocation()
+	 */
+	public String getBirthLocation() {
+		decode(IdentityTag.BIRTH_LOCATION);
+		return super.getBirthLocation();
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#setBirthLocation(String)
+	 */
+	public void setBirthLocation(String birthLocation) {
+		markDecoded(IdentityTag.BIRTH_LOCATION);
+		super.setBirthLocation(birthLocation);
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#getBirthDate()
+	 */
+	public String getBirthDate() {
+		decode(IdentityTag.BIRTH_DATE);
+		return super.getBirthDate();
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#setBirthDate(String)
+	 */
+	public void setBirthDate(String birthDate) {
+		// the birth date is decoded to two fields; only one of them is overwritten
+		decode(IdentityTag.BIRTH_DATE);
+		super.setBirthDate(birthDate);
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#getDateOfBirth()
+	 */
+	public Date getDateOfBirth() {
+		decode(IdentityTag.BIRTH_DATE);
+		return super.getDateOfBirth();
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#setDateOfBirth(Date)
+	 */
+	public void setDateOfBirth(Date dateOfBirth) {
+		decode(IdentityTag.BIRTH_DATE);
+		super.setDateOfBirth(dateOfBirth);
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#getSex()
+	 */
+	public String getSex() {
+		decode(IdentityTag.SEX);
+		return super.getSex();
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#setSex(String)
+	 */
+	public void setSex(String sex) {
+		markDecoded(IdentityTag.SEX);
+		super.setSex(sex);
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#getNobleCondition()
+	 */
+	public String getNobleCondition() {
+		decode(IdentityTag.NOBLE_CONDITION);
+		return super.getNobleCondition();
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#setNobleCondition(String)
+	 */
+	public void setNobleCondition(String nobleCondition) {
+		markDecoded(IdentityTag.NOBLE_CONDITION);
+		super.setNobleCondition(nobleCondition);
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#getDocumentType()
+	 */
+	public int getDocumentType() {
+		decode(IdentityTag.DOCUMENT_TYPE);
+		return super.getDocumentType();
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#setDocumentType(int)
+	 */
+	public void setDocumentType(int documentType) {
+		markDecoded(IdentityTag.DOCUMENT_TYPE);
+		super.setDocumentType(documentType);
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#getSpecialStatus()
+	 */
+	public int getSpecialStatus() {
+		decode(IdentityTag.SPECIAL_STATUS);
+		return super.getSpecialStatus();
+	}
+	/**
+	 * @see com.itextpdf.smartcard.beid.pojos.IdentityPojo#setSpecialStatus(int)
+	 */
+	public void setSpecialStatus(int specialStatus) {
+		markDecoded(IdentityTag.SPECIAL_STATUS);
+		super.setSpecialStatus(specialStatus);
+	}
+}
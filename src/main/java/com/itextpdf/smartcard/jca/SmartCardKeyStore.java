@@ -0,0 +1,240 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.jca;
+
+import com.itextpdf.smartcard.SmartCardWithKey;
+import com.itextpdf.smartcard.beid.BeIDCertificates;
+import com.itextpdf.smartcard.util.CertificateStore;
+
+import javax.smartcardio.CardException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.Key;
+import java.security.KeyStoreException;
+import java.security.KeyStoreSpi;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-only key store with the keys of a Belgian eID card.
+ * The certificate chains are read from the card when the key
+ * store is loaded, and kept as long as the key store is used.
+ */
+public class SmartCardKeyStore extends KeyStoreSpi {
+
+	/** Logger instance. */
+	private final static Logger LOGGER = LoggerFactory.getLogger(SmartCardKeyStore.class);
+	
+	/** The alias of the authentication key. */
+	public static final String ALIAS_AUTHENTICATION = "Authentication";
+	
+	/** The alias of the non-repudiation key. */
+	public static final String ALIAS_SIGNATURE = "Signature";
+	
+	/** The card with the keys. */
+	protected SmartCardWithKey card;
+	
+	/** The keys, mapped by alias. */
+	protected Map<String, SmartCardPrivateKey> keys = new LinkedHashMap<String, SmartCardPrivateKey>();
+	
+	/** The certificate chains, mapped by alias. */
+	protected Map<String, Certificate[]> chains = new LinkedHashMap<String, Certificate[]>();
+	
+	/**
+	 * Creates a key store for a card.
+	 * @param card	the card with the keys
+	 */
+	public SmartCardKeyStore(SmartCardWithKey card) {
+		this.card = card;
+	}
+	
+	/**
+	 * Reads the certificate chains from the card. The stream and
+	 * the password are ignored: the PIN is asked when signing.
+	 * @see java.security.KeyStoreSpi#engineLoad(java.io.InputStream, char[])
+	 */
+	public void engineLoad(InputStream stream, char[] password) throws IOException, CertificateException {
+		LOGGER.info("Loading the key store");
+		CertificateStore store = CertificateStore.getSharedInstance();
+		try {
+			Map<String, SmartCardPrivateKey> keys = new LinkedHashMap<String, SmartCardPrivateKey>();
+			Map<String, Certificate[]> chains = new LinkedHashMap<String, Certificate[]>();
+			keys.put(ALIAS_AUTHENTICATION, new SmartCardPrivateKey(card, BeIDCertificates.AUTHENTICATION_KEY_ID));
+			chains.put(ALIAS_AUTHENTICATION, BeIDCertificates.getAuthenticationCertificateChain(card, store));
+			keys.put(ALIAS_SIGNATURE, new SmartCardPrivateKey(card, BeIDCertificates.NON_REPUDIATION_KEY_ID));
+			chains.put(ALIAS_SIGNATURE, BeIDCertificates.getSignCertificateChain(card, store));
+			this.keys = keys;
+			this.chains = chains;
+		} catch (CardException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	/**
+	 * @see java.security.KeyStoreSpi#engineGetKey(java.lang.String, char[])
+	 */
+	public Key engineGetKey(String alias, char[] password) {
+		return keys.get(alias);
+	}
+
+	/**
+	 * @see java.security.KeyStoreSpi#engineGetCertificateChain(java.lang.String)
+	 */
+	public Certificate[] engineGetCertificateChain(String alias) {
+		Certificate[] chain = chains.get(alias);
+		return chain == null ? null : chain.clone();
+	}
+
+	/**
+	 * @see java.security.KeyStoreSpi#engineGetCertificate(java.lang.String)
+	 */
+	public Certificate engineGetCertificate(String alias) {
+		Certificate[] chain = chains.get(alias);
+		return chain == null ? null : chain[0];
+	}
+
+	/**
+	 * Returns the start of the validity period of the certificate.
+	 * @see java.security.KeyStoreSpi#engineGetCreationDate(java.lang.String)
+	 */
+	public Date engineGetCreationDate(String alias) {
+		Certificate certificate = engineGetCertificate(alias);
+		if (certificate instanceof X509Certificate)
+			return ((X509Certificate) certificate).getNotBefore();
+		return null;
+	}
+
+	/**
+	 * @see java.security.KeyStoreSpi#engineSetKeyEntry(java.lang.String, java.security.Key, char[], java.security.cert.Certificate[])
+	 */
+	public void engineSetKeyEntry(String alias, Key key, char[] password, Certificate[] chain) throws KeyStoreException {
+		throw new KeyStoreException("The key store of a smart card is read-only.");
+	}
+
+	/**
+	 * @see java.security.KeyStoreSpi#engineSetKeyEntry(java.lang.String, byte[], java.security.cert.Certificate[])
+	 */
+	public void engineSetKeyEntry(String alias, byte[] key, Certificate[] chain) throws KeyStoreException {
+		throw new KeyStoreException("The key store of a smart card is read-only.");
+	}
+
+	/**
+	 * @see java.security.KeyStoreSpi#engineSetCertificateEntry(java.lang.String, java.security.cert.Certificate)
+	 */
+	public void engineSetCertificateEntry(String alias, Certificate cert) throws KeyStoreException {
+		throw new KeyStoreException("The key store of a smart card is read-only.");
+	}
+
+	/**
+	 * @see java.security.KeyStoreSpi#engineDeleteEntry(java.lang.String)
+	 */
+	public void engineDeleteEntry(String alias) throws KeyStoreException {
+		throw new KeyStoreException("The key store of a smart card is read-only.");
+	}
+
+	/**
+	 * @see java.security.KeyStoreSpi#engineAliases()
+	 */
+	public Enumeration<String> engineAliases() {
+		return Collections.enumeration(keys.keySet());
+	}
+
+	/**
+	 * @see java.security.KeyStoreSpi#engineContainsAlias(java.lang.String)
+	 */
+	public boolean engineContainsAlias(String alias) {
+		return keys.containsKey(alias);
+	}
+
+	/**
+	 * @see java.security.KeyStoreSpi#engineSize()
+	 */
+	public int engineSize() {
+		return keys.size();
+	}
+
+	/**
+	 * @see java.security.KeyStoreSpi#engineIsKeyEntry(java.lang.String)
+	 */
+	public boolean engineIsKeyEntry(String alias) {
+		return keys.containsKey(alias);
+	}
+
+	/**
+	 * @see java.security.KeyStoreSpi#engineIsCertificateEntry(java.lang.String)
+	 */
+	public boolean engineIsCertificateEntry(String alias) {
+		return false;
+	}
+
+	/**
+	 * @see java.security.KeyStoreSpi#engineGetCertificateAlias(java.security.cert.Certificate)
+	 */
+	public String engineGetCertificateAlias(Certificate cert) {
+		for (Map.Entry<String, Certificate[]> entry : chains.entrySet()) {
+			if (entry.getValue()[0].equals(cert))
+				return entry.getKey();
+		}
+		return null;
+	}
+
+	/**
+	 * @see java.security.KeyStoreSpi#engineStore(java.io.OutputStream, char[])
+	 */
+	public void engineStore(OutputStream stream, char[] password) throws IOException {
+		throw new IOException("The key store of a smart card is read-only.");
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.jca;
+
+import com.itextpdf.smartcard.SmartCardWithKey;
+
+import javax.smartcardio.CardException;
+
+import java.io.IOException;
+import java.security.PrivateKey;
+
+/**
+ * Reference to a private key on a smart card. The key itself never
+ * leaves the card: this object can only be used to initialize a
+ * Signature of the SmartCardProvider.
+ */
+public class SmartCardPrivateKey implements PrivateKey {
+
+	/** Serial version UID. */
+	private static final long serialVersionUID = 8143282564357162407L;
+
+	/** The card with the key. */
+	protected transient SmartCardWithKey card;
+	
+	/** The id of the key on the card. */
+	protected byte keyId;
+	
+	/**
+	 * Creates a reference to a key on a card.
+	 * @param card	the card with the key
+	 * @param keyId	the id of the key on the card
+	 */
+	public SmartCardPrivateKey(SmartCardWithKey card, byte keyId) {
+		this.card = card;
+		this.keyId = keyId;
+	}
+	
+	/**
+	 * Returns the card with the key.
+	 * @return	a SmartCardWithKey
+	 */
+	public SmartCardWithKey getCard() {
+		return card;
+	}
+	
+	/**
+	 * Returns the id of the key on the card.
+	 * @return	a key id
+	 */
+	public byte getKeyId() {
+		return keyId;
+	}
+	
+	/**
+	 * @see java.security.Key#getAlgorithm()
+	 */
+	public String getAlgorithm() {
+		String algorithm;
+		try {
+			algorithm = card.getEncryptionAlgorithm(keyId);
+		} catch (CardException e) {
+			algorithm = card.getEncryptionAlgorithm();
+		} catch (IOException e) {
+			algorithm = card.getEncryptionAlgorithm();
+		}
+		// the JCA name of an elliptic curve key
+		return "ECDSA".equals(algorithm) ? "EC" : algorithm;
+	}
+
+	/**
+	 * The key can't be exported.
+	 * @see java.security.Key#getFormat()
+	 */
+	public String getFormat() {
+		return null;
+	}
+
+	/**
+	 * The key can't be exported.
+	 * @see java.security.Key#getEncoded()
+	 */
+	public byte[] getEncoded() {
+		return null;
+	}
+}
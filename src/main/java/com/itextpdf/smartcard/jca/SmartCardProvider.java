@@ -0,0 +1,128 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.jca;
+
+import com.itextpdf.smartcard.SmartCardWithKey;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JCA provider for the keys on a smart card. Once the provider is
+ * registered (see java.security.Security#addProvider), the keys of
+ * the card can be used by any JCA consumer (e.g. for TLS client
+ * authentication with JSSE) without PKCS#11 middleware:
+ * load a KeyStore of type {@link #KEY_STORE_TYPE} and use its keys with
+ * Signature instances such as SHA256withRSA. The card stays connected,
+ * so consecutive signatures reuse the same card session.
+ */
+public class SmartCardProvider extends Provider {
+
+	/** Serial version UID. */
+	private static final long serialVersionUID = -3262405402349431717L;
+
+	/** The name of the provider. */
+	public static final String NAME = "SmartCard";
+	
+	/** The type of the key store with the keys of the card. */
+	public static final String KEY_STORE_TYPE = "BeID";
+	
+	/** The supported digest algorithms, mapped by the name used in signature algorithms. */
+	private static final String[][] DIGESTS = {
+		{ "SHA1", "SHA-1" },
+		{ "SHA224", "SHA-224" },
+		{ "SHA256", "SHA-256" },
+		{ "SHA384", "SHA-384" },
+		{ "SHA512", "SHA-512" },
+		{ "NONE", null }
+	};
+	
+	/**
+	 * A service that creates its implementations directly,
+	 * instead of using reflection.
+	 */
+	private static class SmartCardService extends Service {
+		
+		/** The digest algorithm for a Signature service. */
+		private final String digestAlgorithm;
+		
+		SmartCardService(Provider provider, String type, String algorithm, String className,
+				Map<String, String> attributes, String digestAlgorithm) {
+			super(provider, type, algorithm, className, null, attributes);
+			this.digestAlgorithm = digestAlgorithm;
+		}
+		
+		/**
+		 * @see java.security.Provider.Service#newInstance(java.lang.Object)
+		 */
+		public Object newInstance(Object constructorParameter) throws NoSuchAlgorithmException {
+			if ("KeyStore".equals(getType()))
+				return new SmartCardKeyStore(((SmartCardProvider) getProvider()).card);
+			return new SmartCardSignature(digestAlgorithm);
+		}
+	}
+	
+	/** The card with the keys. */
+	protected transient SmartCardWithKey card;
+	
+	/**
+	 * Creates a provider for the keys on a card.
+	 * @param card	the card with the keys
+	 */
+	public SmartCardProvider(SmartCardWithKey card) {
+		super(NAME, 1.0, "Keys on a smart card");
+		this.card = card;
+		putService(new SmartCardService(this, "KeyStore", KEY_STORE_TYPE,
+				SmartCardKeyStore.class.getName(), null, null));
+		Map<String, String> attributes = new HashMap<String, String>();
+		attributes.put("SupportedKeyClasses", SmartCardPrivateKey.class.getName());
+		for (String[] digest : DIGESTS) {
+			putService(new SmartCardService(this, "Signature", digest[0] + "with" + card.getEncryptionAlgorithm(),
+					SmartCardSignature.class.getName(), attributes, digest[1]));
+		}
+	}
+}
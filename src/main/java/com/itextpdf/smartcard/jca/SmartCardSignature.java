@@ -0,0 +1,178 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.jca;
+
+import javax.smartcardio.CardException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.security.SignatureSpi;
+
+/**
+ * Signature implementation that hashes the data in memory
+ * and signs the hash on the smart card.
+ */
+public class SmartCardSignature extends SignatureSpi {
+
+	/** The name of the digest algorithm, or null if the data is signed as is. */
+	protected String digestAlgorithm;
+	
+	/** Hashes the data (null if the data is signed as is). */
+	protected MessageDigest messageDigest;
+	
+	/** Collects the data if it is signed as is. */
+	protected ByteArrayOutputStream data;
+	
+	/** The key on the card. */
+	protected SmartCardPrivateKey key;
+	
+	/**
+	 * Creates a Signature implementation.
+	 * @param digestAlgorithm	the digest algorithm (e.g. "SHA-256"),
+	 * 		or null to sign the data as is (NONEwithRSA)
+	 * @throws NoSuchAlgorithmException
+	 */
+	public SmartCardSignature(String digestAlgorithm) throws NoSuchAlgorithmException {
+		this.digestAlgorithm = digestAlgorithm;
+		if (digestAlgorithm != null)
+			messageDigest = MessageDigest.getInstance(digestAlgorithm);
+		else
+			data = new ByteArrayOutputStream();
+	}
+	
+	/**
+	 * Verifying isn't done on the card; use the public key of the certificate instead.
+	 * @see java.security.SignatureSpi#engineInitVerify(java.security.PublicKey)
+	 */
+	protected void engineInitVerify(PublicKey publicKey) throws InvalidKeyException {
+		throw new InvalidKeyException("Signatures can only be verified using the default providers.");
+	}
+
+	/**
+	 * @see java.security.SignatureSpi#engineInitSign(java.security.PrivateKey)
+	 */
+	protected void engineInitSign(PrivateKey privateKey) throws InvalidKeyException {
+		if (!(privateKey instanceof SmartCardPrivateKey))
+			throw new InvalidKeyException("Not a key on a smart card: " + privateKey.getClass().getName());
+		key = (SmartCardPrivateKey) privateKey;
+		reset();
+	}
+
+	/**
+	 * @see java.security.SignatureSpi#engineUpdate(byte)
+	 */
+	protected void engineUpdate(byte b) throws SignatureException {
+		if (messageDigest != null)
+			messageDigest.update(b);
+		else
+			data.write(b);
+	}
+
+	/**
+	 * @see java.security.SignatureSpi#engineUpdate(byte[], int, int)
+	 */
+	protected void engineUpdate(byte[] b, int off, int len) throws SignatureException {
+		if (messageDigest != null)
+			messageDigest.update(b, off, len);
+		else
+			data.write(b, off, len);
+	}
+
+	/**
+	 * Signs the hash (or the data) on the card.
+	 * @see java.security.SignatureSpi#engineSign()
+	 */
+	protected byte[] engineSign() throws SignatureException {
+		if (key == null)
+			throw new SignatureException("Not initialized for signing.");
+		byte[] digest = messageDigest != null ? messageDigest.digest() : data.toByteArray();
+		reset();
+		try {
+			return key.getCard().sign(digest, digestAlgorithm == null ? "NONE" : digestAlgorithm, key.getKeyId());
+		} catch (CardException e) {
+			throw new SignatureException(e);
+		} catch (IOException e) {
+			throw new SignatureException(e);
+		}
+	}
+
+	/**
+	 * @see java.security.SignatureSpi#engineVerify(byte[])
+	 */
+	protected boolean engineVerify(byte[] sigBytes) throws SignatureException {
+		throw new SignatureException("Not initialized for verifying.");
+	}
+
+	/**
+	 * @see java.security.SignatureSpi#engineSetParameter(java.lang.String, java.lang.Object)
+	 */
+	protected void engineSetParameter(String param, Object value) throws InvalidParameterException {
+		throw new InvalidParameterException("No parameters supported.");
+	}
+
+	/**
+	 * @see java.security.SignatureSpi#engineGetParameter(java.lang.String)
+	 */
+	protected Object engineGetParameter(String param) throws InvalidParameterException {
+		throw new InvalidParameterException("No parameters supported.");
+	}
+	
+	/**
+	 * Discards the data that was hashed or collected.
+	 */
+	private void reset() {
+		if (messageDigest != null)
+			messageDigest.reset();
+		else
+			data.reset();
+	}
+}
@@ -0,0 +1,443 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.revocation;
+
+import com.itextpdf.smartcard.util.CertificateStore;
+import com.itextpdf.smartcard.util.LazyCertificate;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.cert.CRL;
+import java.security.cert.CRLException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local store of certificate revocation lists. For every issuer, the
+ * serial numbers of the revoked certificates are kept in a compact
+ * index, so that checking if a certificate is revoked doesn't involve
+ * the CRL objects. Delta CRLs are kept in a separate (small) index,
+ * so that ingesting a delta CRL doesn't rebuild the index of the base CRL.
+ */
+public class CrlStore {
+
+	/** Logger instance. */
+	private final static Logger LOGGER = LoggerFactory.getLogger(CrlStore.class);
+	
+	/** Object identifier of the CRL number extension. */
+	private static final String OID_CRL_NUMBER = "2.5.29.20";
+	
+	/** Object identifier of the delta CRL indicator extension. */
+	private static final String OID_DELTA_CRL_INDICATOR = "2.5.29.27";
+	
+	/** Object identifier of the authority key identifier extension. */
+	private static final String OID_AUTHORITY_KEY_IDENTIFIER = "2.5.29.35";
+	
+	/** Object identifier of the reason code extension of a CRL entry. */
+	private static final String OID_REASON_CODE = "2.5.29.21";
+	
+	/** The reason code of an entry that is removed from the CRL by a delta CRL. */
+	private static final int REASON_REMOVE_FROM_CRL = 8;
+	
+	/**
+	 * The revocation data of one issuer at one moment. The data is never
+	 * modified: a new CRL replaces the whole object, so that a lookup
+	 * never combines a base CRL with the delta CRL of another base CRL.
+	 */
+	private static class Revocations {
+		/** No CRL yet. */
+		static final Revocations NONE = new Revocations(null, null, null, SerialIndex.EMPTY, SerialIndex.EMPTY, null);
+		/** The index of the base CRL (null as long as there's no base CRL). */
+		final SerialIndex base;
+		/** The CRL number of the base CRL. */
+		final BigInteger baseNumber;
+		/** The next update of the most recent CRL. */
+		final Date nextUpdate;
+		/** The certificates revoked since the base CRL. */
+		final SerialIndex deltaRevoked;
+		/** The certificates removed from the base CRL (e.g. after a hold). */
+		final SerialIndex deltaRemoved;
+		/** The CRL number of the delta CRL. */
+		final BigInteger deltaNumber;
+		
+		Revocations(SerialIndex base, BigInteger baseNumber, Date nextUpdate,
+				SerialIndex deltaRevoked, SerialIndex deltaRemoved, BigInteger deltaNumber) {
+			this.base = base;
+			this.baseNumber = baseNumber;
+			this.nextUpdate = nextUpdate;
+			this.deltaRevoked = deltaRevoked;
+			this.deltaRemoved = deltaRemoved;
+			this.deltaNumber = deltaNumber;
+		}
+	}
+	
+	/**
+	 * The revocation data of one issuer. CRLs of the same issuer are
+	 * added one at a time (synchronized on the entry); lookups read
+	 * the current revocations without a lock.
+	 */
+	private static class IssuerEntry {
+		/** The current revocation data. */
+		volatile Revocations revocations = Revocations.NONE;
+	}
+	
+	/** The revocation data, mapped by the encoded name of the issuer. */
+	protected ConcurrentMap<ByteBuffer, IssuerEntry> issuers = new ConcurrentHashMap<ByteBuffer, IssuerEntry>();
+	
+	/** The certificates used to verify the CRLs (can be null). */
+	protected CertificateStore trustedIssuers;
+	
+	/**
+	 * Creates a CrlStore that accepts CRLs without verifying their signature.
+	 */
+	public CrlStore() {
+		this(null);
+	}
+	
+	/**
+	 * Creates a CrlStore that only accepts CRLs signed by a certificate in a store.
+	 * @param trustedIssuers	the store with the CA certificates that issue CRLs
+	 */
+	public CrlStore(CertificateStore trustedIssuers) {
+		this.trustedIssuers = trustedIssuers;
+	}
+	
+	/**
+	 * Ingests all the CRL files in a directory.
+	 * Files that can't be parsed or verified are skipped.
+	 * @param directory	a directory with (base and delta) CRL files
+	 * @return	the number of CRLs that were ingested
+	 * @throws IOException
+	 */
+	public int load(File directory) throws IOException {
+		LOGGER.info("Loading CRLs from " + directory);
+		File[] files = directory.listFiles();
+		if (files == null)
+			throw new IOException("Not a directory: " + directory);
+		// base CRLs first, so that delta CRLs find their base
+		List<X509CRL> deltas = new ArrayList<X509CRL>();
+		int count = 0;
+		for (File file : files) {
+			if (!file.isFile())
+				continue;
+			InputStream is = new FileInputStream(file);
+			try {
+				for (CRL crl : LazyCertificate.getFactory().generateCRLs(is)) {
+					X509CRL x509crl = (X509CRL) crl;
+					if (isDelta(x509crl)) {
+						deltas.add(x509crl);
+					}
+					else if (tryAdd(x509crl, file)) {
+						count++;
+					}
+				}
+			} catch (CRLException e) {
+				LOGGER.warn("Not a CRL file: " + file.getName());
+			}
+			finally {
+				is.close();
+			}
+		}
+		for (X509CRL delta : deltas) {
+			if (tryAdd(delta, directory))
+				count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Adds a base or delta CRL to the store.
+	 * A CRL that is older than the one in the store is ignored.
+	 * @param crl	a CRL
+	 * @throws CRLException	if the CRL can't be verified
+	 */
+	public void addCrl(X509CRL crl) throws CRLException {
+		verify(crl);
+		ByteBuffer key = ByteBuffer.wrap(crl.getIssuerX500Principal().getEncoded());
+		IssuerEntry entry = issuers.get(key);
+		if (entry == null) {
+			issuers.putIfAbsent(key, new IssuerEntry());
+			entry = issuers.get(key);
+		}
+		BigInteger number = getInteger(crl.getExtensionValue(OID_CRL_NUMBER));
+		synchronized (entry) {
+			if (isDelta(crl)) {
+				addDelta(entry, crl, number);
+			}
+			else {
+				addBase(entry, crl, number);
+			}
+		}
+	}
+	
+	/**
+	 * Checks if a certificate is revoked.
+	 * @param certificate	a certificate (e.g. the sign certificate of a card)
+	 * @return	true if the certificate is revoked
+	 * @throws CRLException	if the store has no CRL for the issuer of the certificate,
+	 * 		or if the CRL is past its next update (a newer CRL needs to be added)
+	 */
+	public boolean isRevoked(X509Certificate certificate) throws CRLException {
+		IssuerEntry entry = issuers.get(ByteBuffer.wrap(certificate.getIssuerX500Principal().getEncoded()));
+		Revocations revocations = entry == null ? Revocations.NONE : entry.revocations;
+		if (revocations.base == null)
+			throw new CRLException("No CRL for " + certificate.getIssuerX500Principal().getName());
+		if (revocations.nextUpdate != null && revocations.nextUpdate.before(new Date()))
+			throw new CRLException("The CRL of " + certificate.getIssuerX500Principal().getName()
+					+ " expired on " + revocations.nextUpdate);
+		BigInteger serial = certificate.getSerialNumber();
+		if (revocations.deltaRemoved.contains(serial))
+			return false;
+		return revocations.deltaRevoked.contains(serial) || revocations.base.contains(serial);
+	}
+	
+	/**
+	 * Returns the next update of the most recent CRL of the issuer of a certificate.
+	 * @param certificate	a certificate
+	 * @return	a Date, or null if there is no CRL for the issuer
+	 */
+	public Date getNextUpdate(X509Certificate certificate) {
+		IssuerEntry entry = issuers.get(ByteBuffer.wrap(certificate.getIssuerX500Principal().getEncoded()));
+		return entry == null ? null : entry.revocations.nextUpdate;
+	}
+	
+	/**
+	 * Replaces the base CRL of an issuer.
+	 * @param entry	the revocation data of the issuer
+	 * @param crl	the base CRL
+	 * @param number	the CRL number
+	 */
+	private void addBase(IssuerEntry entry, X509CRL crl, BigInteger number) {
+		Revocations current = entry.revocations;
+		if (number != null && current.baseNumber != null && number.compareTo(current.baseNumber) <= 0) {
+			LOGGER.info("Ignoring CRL " + number + ": not newer than " + current.baseNumber);
+			return;
+		}
+		List<BigInteger> serials = new ArrayList<BigInteger>();
+		Set<? extends X509CRLEntry> revoked = crl.getRevokedCertificates();
+		if (revoked != null) {
+			for (X509CRLEntry crlEntry : revoked) {
+				if (getReasonCode(crlEntry) != REASON_REMOVE_FROM_CRL)
+					serials.add(crlEntry.getSerialNumber());
+			}
+		}
+		LOGGER.info("Indexed CRL of " + crl.getIssuerX500Principal().getName() + ": " + serials.size() + " entries");
+		SerialIndex index = new SerialIndex(serials);
+		// delta CRLs issued before this base CRL are obsolete
+		if (current.deltaNumber == null || number == null || current.deltaNumber.compareTo(number) <= 0) {
+			entry.revocations = new Revocations(index, number, crl.getNextUpdate(),
+					SerialIndex.EMPTY, SerialIndex.EMPTY, null);
+		}
+		else {
+			entry.revocations = new Revocations(index, number, crl.getNextUpdate(),
+					current.deltaRevoked, current.deltaRemoved, current.deltaNumber);
+		}
+	}
+	
+	/**
+	 * Replaces the delta CRL of an issuer. Delta CRLs are cumulative,
+	 * so a newer delta CRL replaces the previous one; the index of the
+	 * base CRL isn't touched.
+	 * @param entry	the revocation data of the issuer
+	 * @param crl	the delta CRL
+	 * @param number	the CRL number
+	 */
+	private void addDelta(IssuerEntry entry, X509CRL crl, BigInteger number) {
+		Revocations current = entry.revocations;
+		BigInteger base = getInteger(crl.getExtensionValue(OID_DELTA_CRL_INDICATOR));
+		if (current.baseNumber != null && base != null && base.compareTo(current.baseNumber) > 0) {
+			LOGGER.warn("Ignoring delta CRL " + number + ": base CRL " + base + " is missing");
+			return;
+		}
+		if (number != null && current.deltaNumber != null && number.compareTo(current.deltaNumber) <= 0) {
+			LOGGER.info("Ignoring delta CRL " + number + ": not newer than " + current.deltaNumber);
+			return;
+		}
+		List<BigInteger> revokedSerials = new ArrayList<BigInteger>();
+		List<BigInteger> removedSerials = new ArrayList<BigInteger>();
+		Set<? extends X509CRLEntry> revoked = crl.getRevokedCertificates();
+		if (revoked != null) {
+			for (X509CRLEntry crlEntry : revoked) {
+				if (getReasonCode(crlEntry) == REASON_REMOVE_FROM_CRL)
+					removedSerials.add(crlEntry.getSerialNumber());
+				else
+					revokedSerials.add(crlEntry.getSerialNumber());
+			}
+		}
+		LOGGER.info("Indexed delta CRL of " + crl.getIssuerX500Principal().getName() + ": "
+				+ revokedSerials.size() + " revoked, " + removedSerials.size() + " removed");
+		entry.revocations = new Revocations(current.base, current.baseNumber, crl.getNextUpdate(),
+				new SerialIndex(revokedSerials), new SerialIndex(removedSerials), number);
+	}
+	
+	/**
+	 * Verifies the signature of a CRL, if the store has trusted issuers.
+	 * The issuer is selected by the authority key identifier of the CRL,
+	 * so that a CA with more than one key (e.g. after a key rollover)
+	 * is handled; without authority key identifier, every trusted
+	 * certificate with the issuer name is tried.
+	 * @param crl	a CRL
+	 * @throws CRLException	if the issuer is unknown or the signature is invalid
+	 */
+	protected void verify(X509CRL crl) throws CRLException {
+		if (trustedIssuers == null)
+			return;
+		List<X509Certificate> candidates;
+		byte[] keyIdentifier = getKeyIdentifier(crl.getExtensionValue(OID_AUTHORITY_KEY_IDENTIFIER));
+		if (keyIdentifier != null) {
+			candidates = new ArrayList<X509Certificate>();
+			X509Certificate issuer = trustedIssuers.findBySubjectKeyIdentifier(keyIdentifier);
+			if (issuer != null && issuer.getSubjectX500Principal().equals(crl.getIssuerX500Principal()))
+				candidates.add(issuer);
+		}
+		else {
+			candidates = trustedIssuers.findAllBySubject(crl.getIssuerX500Principal());
+		}
+		if (candidates.isEmpty())
+			throw new CRLException("Unknown CRL issuer: " + crl.getIssuerX500Principal().getName());
+		String error = null;
+		for (X509Certificate issuer : candidates) {
+			try {
+				crl.verify(issuer.getPublicKey());
+				return;
+			} catch (GeneralSecurityException e) {
+				error = e.getMessage();
+			}
+		}
+		throw new CRLException("Invalid CRL signature: " + error);
+	}
+	
+	/**
+	 * Adds a CRL found in a file, logging the CRLs that are rejected.
+	 */
+	private boolean tryAdd(X509CRL crl, File file) {
+		try {
+			addCrl(crl);
+			return true;
+		} catch (CRLException e) {
+			LOGGER.warn("Rejected CRL in " + file.getName() + ": " + e.getMessage());
+			return false;
+		}
+	}
+	
+	/**
+	 * Checks if a CRL is a delta CRL.
+	 */
+	private static boolean isDelta(X509CRL crl) {
+		Set<String> critical = crl.getCriticalExtensionOIDs();
+		return critical != null && critical.contains(OID_DELTA_CRL_INDICATOR);
+	}
+	
+	/**
+	 * Gets the reason code of a CRL entry.
+	 * @return	the reason code, or -1 if the entry has no reason code
+	 */
+	private static int getReasonCode(X509CRLEntry entry) {
+		// OCTET STRING containing an ENUMERATED
+		byte[] value = entry.getExtensionValue(OID_REASON_CODE);
+		if (value == null || value.length < 5 || value[2] != 0x0A)
+			return -1;
+		return value[value.length - 1] & 0xFF;
+	}
+	
+	/**
+	 * Decodes the key identifier of an authority key identifier extension.
+	 * @param value	the extension value: an OCTET STRING containing a SEQUENCE
+	 * 		that starts with the key identifier ([0] IMPLICIT OCTET STRING)
+	 * @return	the key identifier, or null
+	 */
+	private static byte[] getKeyIdentifier(byte[] value) {
+		if (value == null || value.length < 6 || value[0] != 0x04)
+			return null;
+		int pos = (value[1] & 0x80) == 0 ? 2 : 2 + (value[1] & 0x7F);
+		if (pos + 2 > value.length || value[pos] != 0x30)
+			return null;
+		pos += (value[pos + 1] & 0x80) == 0 ? 2 : 2 + (value[pos + 1] & 0x7F);
+		if (pos + 2 > value.length || (value[pos] & 0xFF) != 0x80)
+			return null;
+		int length = value[pos + 1] & 0xFF;
+		pos += 2;
+		if (length == 0 || length > 0x7F || pos + length > value.length)
+			return null;
+		byte[] keyIdentifier = new byte[length];
+		System.arraycopy(value, pos, keyIdentifier, 0, length);
+		return keyIdentifier;
+	}
+	
+	/**
+	 * Decodes an extension value that is an INTEGER (e.g. the CRL number).
+	 * @param value	the extension value: an OCTET STRING containing an INTEGER
+	 * @return	the integer, or null
+	 */
+	private static BigInteger getInteger(byte[] value) {
+		if (value == null || value.length < 4 || value[0] != 0x04)
+			return null;
+		int pos = (value[1] & 0x80) == 0 ? 2 : 2 + (value[1] & 0x7F);
+		if (pos + 2 > value.length || value[pos] != 0x02)
+			return null;
+		int length = value[pos + 1] & 0xFF;
+		pos += 2;
+		if (length == 0 || length > 0x7F || pos + length > value.length)
+			return null;
+		byte[] integer = new byte[length];
+		System.arraycopy(value, pos, integer, 0, length);
+		return new BigInteger(integer);
+	}
+}
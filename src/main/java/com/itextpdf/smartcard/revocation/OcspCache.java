@@ -0,0 +1,394 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.revocation;
+
+import com.itextpdf.signatures.IOcspClient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * OCSP client that caches the responses of another OCSP client.
+ * Responses are kept for a limited time (never after the next update
+ * announced in the response), and the cache holds a limited number of
+ * responses (the least recently used responses are dropped).
+ * A response can be fetched in the background before it's needed,
+ * for instance while the user is entering the PIN to sign.
+ */
+public class OcspCache implements IOcspClient {
+
+	/** Logger instance. */
+	private final static Logger LOGGER = LoggerFactory.getLogger(OcspCache.class);
+	
+	/** The default number of responses in the cache. */
+	public static final int DEFAULT_MAX_SIZE = 100;
+	
+	/** The default time a response is kept (in milliseconds). */
+	public static final long DEFAULT_TTL = 10 * 60 * 1000;
+	
+	/** Thread factory for the default executor. */
+	private static final ThreadFactory DAEMON_THREADS = new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "ocsp-prefetch");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+	
+	/** A response (or a response being fetched) and the moment it expires. */
+	private static class CachedResponse {
+		/** The (future) response. */
+		Future<byte[]> response;
+		/** The time after which the response is stale. */
+		volatile long expires;
+		
+		CachedResponse(long expires) {
+			this.expires = expires;
+		}
+		
+		/**
+		 * Makes sure the response expires at its next update.
+		 * @param nextUpdate	the next update of the response (or null)
+		 */
+		void expireAt(Date nextUpdate) {
+			if (nextUpdate != null && nextUpdate.getTime() < expires)
+				expires = nextUpdate.getTime();
+		}
+	}
+	
+	/** The OCSP client that fetches the responses. */
+	protected IOcspClient client;
+	
+	/** The executor used to fetch responses in the background. */
+	protected Executor executor;
+	
+	/** The time a response is kept (in milliseconds). */
+	protected long ttl;
+	
+	/** The responses, mapped by issuer hash and serial number (in access order). */
+	private final Map<ByteBuffer, CachedResponse> cache;
+	
+	/**
+	 * Creates a cache with the default size and time to live.
+	 * @param client	the OCSP client that fetches the responses
+	 */
+	public OcspCache(IOcspClient client) {
+		this(client, DEFAULT_MAX_SIZE, DEFAULT_TTL, Executors.newCachedThreadPool(DAEMON_THREADS));
+	}
+	
+	/**
+	 * Creates a cache.
+	 * @param client	the OCSP client that fetches the responses
+	 * @param maxSize	the maximum number of responses in the cache
+	 * @param ttl	the time a response is kept (in milliseconds)
+	 * @param executor	the executor used to fetch responses in the background
+	 */
+	public OcspCache(IOcspClient client, final int maxSize, long ttl, Executor executor) {
+		this.client = client;
+		this.ttl = ttl;
+		this.executor = executor;
+		this.cache = new LinkedHashMap<ByteBuffer, CachedResponse>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, CachedResponse> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+	
+	/**
+	 * Starts fetching the OCSP response for a certificate in the background,
+	 * unless the cache already has a fresh response.
+	 * @param checkCert	the certificate to check
+	 * @param issuerCert	the issuer of the certificate
+	 * @param url	the URL of the OCSP responder (null to use the URL in the certificate)
+	 */
+	public void prefetch(X509Certificate checkCert, X509Certificate issuerCert, String url) {
+		try {
+			lookup(checkCert, issuerCert, url, true);
+		}
+		catch (GeneralSecurityException e) {
+			LOGGER.warn("Can't prefetch OCSP response: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Gets the OCSP response from the cache, or from the OCSP client
+	 * if the cache has no fresh response. Waits for the response if
+	 * it's still being fetched. A response that is past its next update
+	 * is never returned.
+	 * @see com.itextpdf.signatures.IOcspClient#getEncoded(java.security.cert.X509Certificate, java.security.cert.X509Certificate, java.lang.String)
+	 */
+	public byte[] getEncoded(X509Certificate checkCert, X509Certificate issuerCert, String url) {
+		try {
+			ByteBuffer key = getKey(checkCert, issuerCert);
+			Future<byte[]> future = lookup(checkCert, issuerCert, url, false);
+			byte[] response = null;
+			try {
+				response = future.get();
+			} catch (ExecutionException e) {
+				LOGGER.warn("OCSP request failed: " + e.getCause());
+			}
+			if (response != null) {
+				Date nextUpdate = getNextUpdate(response);
+				if (nextUpdate != null && nextUpdate.getTime() <= System.currentTimeMillis()) {
+					LOGGER.warn("OCSP response for " + checkCert.getSerialNumber() + " expired on " + nextUpdate);
+					response = null;
+				}
+			}
+			if (response == null) {
+				// don't keep failures (or stale responses) in the cache
+				synchronized (cache) {
+					CachedResponse entry = cache.get(key);
+					if (entry != null && entry.response == future)
+						cache.remove(key);
+				}
+			}
+			return response;
+		} catch (GeneralSecurityException e) {
+			LOGGER.warn("Can't get OCSP response: " + e.getMessage());
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+	
+	/**
+	 * Removes all the responses from the cache.
+	 */
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+	
+	/**
+	 * Returns the number of responses in the cache.
+	 * @return	a number of responses (including the ones being fetched)
+	 */
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+	
+	/**
+	 * Gets a fresh (future) response from the cache, or adds a new request.
+	 * @param checkCert	the certificate to check
+	 * @param issuerCert	the issuer of the certificate
+	 * @param url	the URL of the OCSP responder
+	 * @param background	true to fetch the response using the executor,
+	 * 		false to fetch it in the current thread
+	 * @return	the (future) response
+	 * @throws GeneralSecurityException
+	 */
+	private Future<byte[]> lookup(final X509Certificate checkCert, final X509Certificate issuerCert, final String url,
+			boolean background) throws GeneralSecurityException {
+		ByteBuffer key = getKey(checkCert, issuerCert);
+		FutureTask<byte[]> task;
+		synchronized (cache) {
+			CachedResponse entry = cache.get(key);
+			if (entry != null && entry.expires > System.currentTimeMillis())
+				return entry.response;
+			final CachedResponse cached = new CachedResponse(System.currentTimeMillis() + ttl);
+			task = new FutureTask<byte[]>(new Callable<byte[]>() {
+				public byte[] call() {
+					LOGGER.info("Fetching OCSP response for " + checkCert.getSerialNumber());
+					byte[] response = client.getEncoded(checkCert, issuerCert, url);
+					if (response != null)
+						cached.expireAt(getNextUpdate(response));
+					return response;
+				}
+			});
+			cached.response = task;
+			cache.put(key, cached);
+		}
+		if (background)
+			executor.execute(task);
+		else
+			task.run();
+		return task;
+	}
+	
+	/**
+	 * Gets the next update of the first single response in a basic OCSP response.
+	 * @param response	a DER encoded BasicOCSPResponse
+	 * @return	the next update, or null if the response has none (or can't be parsed)
+	 */
+	protected static Date getNextUpdate(byte[] response) {
+		try {
+			// BasicOCSPResponse, tbsResponseData
+			int pos = valueOffset(response, 0);
+			pos = valueOffset(response, pos);
+			// optional version [0], responderID [1] or [2], producedAt
+			if (tag(response, pos) == 0xA0)
+				pos = end(response, pos);
+			pos = end(response, pos);
+			pos = end(response, pos);
+			// responses, first SingleResponse
+			pos = valueOffset(response, pos);
+			int single = end(response, pos);
+			pos = valueOffset(response, pos);
+			// certID, certStatus, thisUpdate
+			pos = end(response, pos);
+			pos = end(response, pos);
+			pos = end(response, pos);
+			if (pos >= single || tag(response, pos) != 0xA0)
+				return null;
+			pos = valueOffset(response, pos);
+			if (tag(response, pos) != 0x18)
+				return null;
+			int start = valueOffset(response, pos);
+			if (end(response, pos) - start < 15)
+				return null;
+			SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss");
+			format.setTimeZone(TimeZone.getTimeZone("UTC"));
+			return format.parse(new String(response, start, 14, "US-ASCII"));
+		} catch (IOException e) {
+			LOGGER.warn("Can't parse OCSP response: " + e.getMessage());
+			return null;
+		} catch (ParseException e) {
+			LOGGER.warn("Can't parse next update of OCSP response: " + e.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the tag of a DER object.
+	 * @param der	a byte array with DER objects
+	 * @param pos	the offset of the tag of an object
+	 * @return	the tag
+	 * @throws IOException
+	 */
+	private static int tag(byte[] der, int pos) throws IOException {
+		if (pos >= der.length)
+			throw new IOException("Unexpected end of DER data");
+		return der[pos] & 0xFF;
+	}
+	
+	/**
+	 * Returns the offset of the value of a DER object.
+	 * @param der	a byte array with DER objects
+	 * @param pos	the offset of the tag of an object
+	 * @return	the offset of the value of the object
+	 * @throws IOException
+	 */
+	private static int valueOffset(byte[] der, int pos) throws IOException {
+		if (pos + 1 >= der.length)
+			throw new IOException("Unexpected end of DER data");
+		int l = der[pos + 1] & 0xFF;
+		if (l < 0x80)
+			return pos + 2;
+		return pos + 2 + (l & 0x7F);
+	}
+	
+	/**
+	 * Returns the offset of the first byte after a DER object.
+	 * @param der	a byte array with DER objects
+	 * @param pos	the offset of the tag of an object
+	 * @return	the offset after the value of the object
+	 * @throws IOException
+	 */
+	private static int end(byte[] der, int pos) throws IOException {
+		if (pos + 1 >= der.length)
+			throw new IOException("Unexpected end of DER data");
+		int l = der[pos + 1] & 0xFF;
+		int length;
+		int offset;
+		if (l < 0x80) {
+			length = l;
+			offset = pos + 2;
+		}
+		else {
+			int n = l & 0x7F;
+			if (n == 0 || n > 3 || pos + 2 + n > der.length)
+				throw new IOException("Unsupported DER length");
+			length = 0;
+			for (int i = 0; i < n; i++) {
+				length = (length << 8) | (der[pos + 2 + i] & 0xFF);
+			}
+			offset = pos + 2 + n;
+		}
+		if (offset + length > der.length)
+			throw new IOException("Unexpected end of DER data");
+		return offset + length;
+	}
+	
+	/**
+	 * Creates the cache key: the hash of the issuer's public key
+	 * followed by the serial number of the certificate.
+	 * @param checkCert	the certificate to check
+	 * @param issuerCert	the issuer of the certificate
+	 * @return	a key for the cache
+	 * @throws GeneralSecurityException
+	 */
+	private static ByteBuffer getKey(X509Certificate checkCert, X509Certificate issuerCert) throws GeneralSecurityException {
+		byte[] issuerHash = MessageDigest.getInstance("SHA-1").digest(issuerCert.getPublicKey().getEncoded());
+		byte[] serial = checkCert.getSerialNumber().toByteArray();
+		byte[] key = new byte[issuerHash.length + serial.length];
+		System.arraycopy(issuerHash, 0, key, 0, issuerHash.length);
+		System.arraycopy(serial, 0, key, issuerHash.length, serial.length);
+		return ByteBuffer.wrap(key);
+	}
+}
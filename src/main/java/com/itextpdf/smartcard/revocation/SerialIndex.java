@@ -0,0 +1,152 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.revocation;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable set of certificate serial numbers. Serial numbers of up to
+ * 128 bits (which includes all the serial numbers of the Belgian eID)
+ * are stored in two sorted arrays of primitive longs, so that a lookup
+ * is a binary search without object allocation. Other serial numbers
+ * are kept in a sorted array of BigIntegers.
+ */
+class SerialIndex {
+
+	/** An index without serial numbers. */
+	static final SerialIndex EMPTY = new SerialIndex(Arrays.<BigInteger>asList());
+	
+	/** The highest 64 bits of every serial number. */
+	private final long[] high;
+	
+	/** The lowest 64 bits of every serial number. */
+	private final long[] low;
+	
+	/** Serial numbers that don't fit in 128 bits (or that are negative). */
+	private final BigInteger[] large;
+	
+	/**
+	 * Creates an index for a collection of serial numbers.
+	 * @param serials	the serial numbers
+	 */
+	SerialIndex(Collection<BigInteger> serials) {
+		BigInteger[] sorted = serials.toArray(new BigInteger[serials.size()]);
+		Arrays.sort(sorted);
+		int count = 0;
+		for (BigInteger serial : sorted) {
+			if (fits(serial))
+				count++;
+		}
+		high = new long[count];
+		low = new long[count];
+		large = new BigInteger[sorted.length - count];
+		int i = 0;
+		int j = 0;
+		for (BigInteger serial : sorted) {
+			if (fits(serial)) {
+				// for positive numbers, the natural order is the unsigned order of (high, low)
+				high[i] = serial.shiftRight(64).longValue();
+				low[i] = serial.longValue();
+				i++;
+			}
+			else {
+				large[j++] = serial;
+			}
+		}
+	}
+	
+	/**
+	 * Checks if a serial number is in the index.
+	 * @param serial	a serial number
+	 * @return	true if the serial number is in the index
+	 */
+	boolean contains(BigInteger serial) {
+		if (!fits(serial))
+			return Arrays.binarySearch(large, serial) >= 0;
+		long h = serial.shiftRight(64).longValue();
+		long l = serial.longValue();
+		int from = 0;
+		int to = high.length - 1;
+		while (from <= to) {
+			int mid = (from + to) >>> 1;
+			int cmp = compareUnsigned(high[mid], h);
+			if (cmp == 0)
+				cmp = compareUnsigned(low[mid], l);
+			if (cmp < 0)
+				from = mid + 1;
+			else if (cmp > 0)
+				to = mid - 1;
+			else
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the number of serial numbers in the index.
+	 * @return	a number of serial numbers
+	 */
+	int size() {
+		return high.length + large.length;
+	}
+	
+	/**
+	 * Checks if a serial number can be stored as two longs.
+	 */
+	private static boolean fits(BigInteger serial) {
+		return serial.signum() >= 0 && serial.bitLength() <= 128;
+	}
+	
+	/**
+	 * Compares two longs as unsigned values.
+	 */
+	private static int compareUnsigned(long a, long b) {
+		a += Long.MIN_VALUE;
+		b += Long.MIN_VALUE;
+		return a < b ? -1 : (a == b ? 0 : 1);
+	}
+}
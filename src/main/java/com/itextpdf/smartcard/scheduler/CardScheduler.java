@@ -0,0 +1,329 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.scheduler;
+
+import com.itextpdf.smartcard.util.Deadline;
+
+import javax.smartcardio.CardException;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes the operations on one card, one at a time, in an order
+ * that keeps interactive operations fast when the card is busy with
+ * a batch. The order is decided in two steps:
+ * <ol>
+ * <li>operations of a higher priority class go first;</li>
+ * <li>within a class, the operations are shared between the tenants
+ * using weighted fair queuing: a tenant with weight 2 gets twice
+ * as many operations as a tenant with weight 1.</li>
+ * </ol>
+ * The deadline of an operation doesn't change its place in the queue
+ * (otherwise a tenant could get more than its share by setting deadlines):
+ * an operation whose deadline expired before it was started is dropped,
+ * and an operation whose deadline already expired is rejected.
+ */
+public class CardScheduler {
+
+	/** Logger instance. */
+	private final static Logger LOGGER = LoggerFactory.getLogger(CardScheduler.class);
+	
+	/** The virtual cost of one operation for a tenant with weight 1. */
+	private static final long COST = 1 << 16;
+	
+	/** An operation waiting in the queue. */
+	private class ScheduledTask<T> extends FutureTask<T> implements Comparable<ScheduledTask<?>> {
+		/** The priority class. */
+		final Priority priority;
+		/** The deadline (Long.MAX_VALUE if none). */
+		final long deadline;
+		/** The virtual finish time (for fair queuing). */
+		final long finish;
+		/** The virtual start time (for fair queuing). */
+		final long start;
+		/** Breaks ties: first come, first served. */
+		final long sequence;
+		/** The moment the operation was submitted. */
+		final long submitted = System.currentTimeMillis();
+		/** The deadline of the thread that submitted the operation (can be null). */
+		final Deadline callerDeadline = Deadline.current();
+		
+		ScheduledTask(Callable<T> callable, Priority priority, long deadline, long start, long finish) {
+			super(callable);
+			this.priority = priority;
+			this.deadline = deadline;
+			this.start = start;
+			this.finish = finish;
+			this.sequence = sequences.incrementAndGet();
+		}
+		
+		/**
+		 * Executes the operation with the deadline of the thread that submitted it.
+		 * @see java.util.concurrent.FutureTask#run()
+		 */
+		public void run() {
+			if (callerDeadline == null) {
+				super.run();
+				return;
+			}
+			Deadline previous = callerDeadline.attach();
+			try {
+				super.run();
+			}
+			finally {
+				Deadline.restore(previous);
+			}
+		}
+		
+		/**
+		 * Fails the operation because it couldn't be started before its deadline.
+		 */
+		void expire() {
+			setException(new CardException("Deadline expired before the operation could start."));
+		}
+		
+		/**
+		 * Cancels the operation and removes it from the queue, if it wasn't started.
+		 * @see java.util.concurrent.FutureTask#cancel(boolean)
+		 */
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if (cancelled && queue.remove(this))
+				statistics.get(priority).cancelled();
+			return cancelled;
+		}
+
+		/**
+		 * Orders the operations by priority class, then by virtual finish time.
+		 * @see java.lang.Comparable#compareTo(java.lang.Object)
+		 */
+		public int compareTo(ScheduledTask<?> o) {
+			if (priority != o.priority)
+				return priority.compareTo(o.priority);
+			if (finish != o.finish)
+				return finish < o.finish ? -1 : 1;
+			return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+		}
+	}
+	
+	/** The operations waiting to be executed. */
+	private final PriorityBlockingQueue<ScheduledTask<?>> queue = new PriorityBlockingQueue<ScheduledTask<?>>();
+	
+	/** Sequence numbers of the operations. */
+	private final AtomicLong sequences = new AtomicLong();
+	
+	/** The weights of the tenants (tenants without weight have weight 1). */
+	private final Map<String, Integer> weights = new HashMap<String, Integer>();
+	
+	/** The virtual time of every class: the start time of the last operation that was started. */
+	private final Map<Priority, Long> virtualTimes = new EnumMap<Priority, Long>(Priority.class);
+	
+	/** The virtual finish time of the last operation of every tenant, per class. */
+	private final Map<Priority, Map<String, Long>> lastFinish = new EnumMap<Priority, Map<String, Long>>(Priority.class);
+	
+	/** The statistics of every class. */
+	private final Map<Priority, SchedulerStatistics> statistics = new EnumMap<Priority, SchedulerStatistics>(Priority.class);
+	
+	/** The thread that executes the operations. */
+	private final Thread worker;
+	
+	/** True after the scheduler was shut down. */
+	private volatile boolean shutdown;
+	
+	/**
+	 * Creates a scheduler and starts its worker thread.
+	 * @param name	the name of the worker thread (e.g. the name of the reader)
+	 */
+	public CardScheduler(String name) {
+		for (Priority priority : Priority.values()) {
+			virtualTimes.put(priority, 0L);
+			lastFinish.put(priority, new HashMap<String, Long>());
+			statistics.put(priority, new SchedulerStatistics());
+		}
+		worker = new Thread(new Runnable() {
+			public void run() {
+				work();
+			}
+		}, name);
+		worker.setDaemon(true);
+		worker.start();
+	}
+	
+	/**
+	 * Sets the share of a tenant within each priority class.
+	 * @param tenant	the name of a tenant
+	 * @param weight	the weight of the tenant (1 by default)
+	 */
+	public synchronized void setWeight(String tenant, int weight) {
+		if (weight < 1)
+			throw new IllegalArgumentException("The weight must be at least 1.");
+		weights.put(tenant, weight);
+	}
+	
+	/**
+	 * Queues an operation.
+	 * @param tenant	the tenant submitting the operation
+	 * @param priority	the priority class of the operation
+	 * @param deadline	the time (System.currentTimeMillis()) before which
+	 * 		the operation must be started, or 0 if there's no deadline
+	 * @param task	the operation
+	 * @return	the result of the operation (a CardException if the deadline
+	 * 		already expired, a cancelled Future if the scheduler was shut down)
+	 */
+	public <T> Future<T> submit(String tenant, Priority priority, long deadline, Callable<T> task) {
+		ScheduledTask<T> scheduledTask;
+		if (deadline > 0 && deadline <= System.currentTimeMillis()) {
+			// the operation doesn't get a virtual time: it's not counted against the tenant
+			scheduledTask = new ScheduledTask<T>(task, priority, deadline, 0, 0);
+			statistics.get(priority).rejected();
+			scheduledTask.expire();
+			return scheduledTask;
+		}
+		synchronized (this) {
+			Integer weight = weights.get(tenant);
+			Map<String, Long> finishTimes = lastFinish.get(priority);
+			Long previous = finishTimes.get(tenant);
+			long start = Math.max(virtualTimes.get(priority), previous == null ? 0 : previous);
+			long finish = start + COST / (weight == null ? 1 : weight);
+			finishTimes.put(tenant, finish);
+			scheduledTask = new ScheduledTask<T>(task, priority, deadline <= 0 ? Long.MAX_VALUE : deadline, start, finish);
+		}
+		statistics.get(priority).queued();
+		queue.add(scheduledTask);
+		if (shutdown)
+			scheduledTask.cancel(false);
+		return scheduledTask;
+	}
+	
+	/**
+	 * Executes an operation and waits for the result.
+	 * @param tenant	the tenant submitting the operation
+	 * @param priority	the priority class of the operation
+	 * @param deadline	the time before which the operation must be started (0 if none)
+	 * @param task	the operation
+	 * @return	the result of the operation
+	 * @throws CardException	if the operation failed or wasn't started in time
+	 */
+	public <T> T execute(String tenant, Priority priority, long deadline, Callable<T> task) throws CardException {
+		Future<T> future = submit(tenant, priority, deadline, task);
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(false);
+			throw new CardException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof CardException)
+				throw (CardException) cause;
+			throw new CardException(cause.getMessage(), cause);
+		}
+	}
+	
+	/**
+	 * Returns the statistics of a priority class.
+	 * @param priority	a priority class
+	 * @return	the statistics of the class
+	 */
+	public SchedulerStatistics getStatistics(Priority priority) {
+		return statistics.get(priority);
+	}
+	
+	/**
+	 * Stops the worker thread. Operations that are still queued are cancelled.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		worker.interrupt();
+		ScheduledTask<?> task;
+		while ((task = queue.poll()) != null) {
+			if (task.cancel(false))
+				statistics.get(task.priority).cancelled();
+		}
+	}
+	
+	/**
+	 * Executes the operations in the queue until the scheduler is shut down.
+	 */
+	private void work() {
+		try {
+			while (!shutdown) {
+				ScheduledTask<?> task = queue.take();
+				if (task.isCancelled() || shutdown) {
+					// cancelled after it was taken (so it wasn't removed from the queue),
+					// or the running operation ignored the interrupt of shutdown()
+					task.cancel(false);
+					statistics.get(task.priority).cancelled();
+					continue;
+				}
+				long now = System.currentTimeMillis();
+				boolean expired = task.deadline < now;
+				statistics.get(task.priority).dequeued(now - task.submitted, expired);
+				if (expired) {
+					LOGGER.warn("Deadline expired for " + task.priority + " operation");
+					task.expire();
+					continue;
+				}
+				synchronized (this) {
+					if (task.start > virtualTimes.get(task.priority))
+						virtualTimes.put(task.priority, task.start);
+				}
+				task.run();
+			}
+		} catch (InterruptedException e) {
+			LOGGER.info("Scheduler " + worker.getName() + " stopped");
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.scheduler;
+
+/**
+ * Queue depth and wait time statistics of one priority class
+ * of a CardScheduler. The wait time is the time between submitting
+ * an operation and starting it.
+ */
+public class SchedulerStatistics {
+
+	/** The number of histogram buckets; bucket i counts waits shorter than 2^i ms. */
+	private static final int BUCKETS = 32;
+	
+	/** The number of operations that are waiting. */
+	private int queueDepth;
+	
+	/** The number of operations that were started. */
+	private long started;
+	
+	/** The number of operations that were dropped because their deadline expired. */
+	private long expired;
+	
+	/** The number of operations that were cancelled before they were started. */
+	private long cancelled;
+	
+	/** The sum of the wait times (in milliseconds). */
+	private long totalWait;
+	
+	/** The longest wait time (in milliseconds). */
+	private long maxWait;
+	
+	/** Histogram of the wait times. */
+	private final long[] histogram = new long[BUCKETS];
+	
+	/**
+	 * Registers an operation that is queued.
+	 */
+	synchronized void queued() {
+		queueDepth++;
+	}
+	
+	/**
+	 * Registers an operation that was rejected because its deadline
+	 * had already expired when it was submitted.
+	 */
+	synchronized void rejected() {
+		expired++;
+	}
+	
+	/**
+	 * Registers an operation that leaves the queue because it was cancelled.
+	 */
+	synchronized void cancelled() {
+		queueDepth--;
+		cancelled++;
+	}
+	
+	/**
+	 * Registers an operation that leaves the queue.
+	 * @param wait	the time the operation waited (in milliseconds)
+	 * @param expired	true if the operation won't be executed because its deadline expired
+	 */
+	synchronized void dequeued(long wait, boolean expired) {
+		queueDepth--;
+		if (expired) {
+			this.expired++;
+			return;
+		}
+		started++;
+		totalWait += wait;
+		if (wait > maxWait)
+			maxWait = wait;
+		int bucket = 0;
+		while (bucket < BUCKETS - 1 && wait >= (1L << bucket))
+			bucket++;
+		histogram[bucket]++;
+	}
+	
+	/**
+	 * Returns the number of operations that are waiting.
+	 * @return	a queue depth
+	 */
+	public synchronized int getQueueDepth() {
+		return queueDepth;
+	}
+	
+	/**
+	 * Returns the number of operations that were started.
+	 * @return	a number of operations
+	 */
+	public synchronized long getStarted() {
+		return started;
+	}
+	
+	/**
+	 * Returns the number of operations that were dropped because their deadline expired.
+	 * @return	a number of operations
+	 */
+	public synchronized long getExpired() {
+		return expired;
+	}
+	
+	/**
+	 * Returns the number of operations that were cancelled before they were started.
+	 * @return	a number of operations
+	 */
+	public synchronized long getCancelled() {
+		return cancelled;
+	}
+	
+	/**
+	 * Returns the average wait time of the operations that were started.
+	 * @return	a time in milliseconds
+	 */
+	public synchronized double getAverageWait() {
+		return started == 0 ? 0 : (double) totalWait / started;
+	}
+	
+	/**
+	 * Returns the longest wait time.
+	 * @return	a time in milliseconds
+	 */
+	public synchronized long getMaxWait() {
+		return maxWait;
+	}
+	
+	/**
+	 * Estimates a percentile of the wait time (e.g. 0.99 for the p99).
+	 * The estimate is an upper bound: a power of two, or the longest wait time.
+	 * @param percentile	a number between 0 and 1
+	 * @return	a time in milliseconds
+	 */
+	public synchronized long getWaitPercentile(double percentile) {
+		long rank = (long) Math.ceil(percentile * started);
+		long count = 0;
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			count += histogram[bucket];
+			if (count >= rank && count > 0)
+				return Math.min(1L << bucket, maxWait);
+		}
+		return maxWait;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public synchronized String toString() {
+		return "queued: " + queueDepth + ", started: " + started + ", expired: " + expired
+				+ ", cancelled: " + cancelled
+				+ ", average wait: " + getAverageWait() + " ms, p99: " + getWaitPercentile(0.99)
+				+ " ms, max: " + maxWait + " ms";
+	}
+}
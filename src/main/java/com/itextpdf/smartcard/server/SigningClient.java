@@ -0,0 +1,311 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.server;
+
+import com.itextpdf.signatures.IExternalSignature;
+import com.itextpdf.smartcard.beid.BeIDCertificates;
+import com.itextpdf.smartcard.scheduler.Priority;
+import com.itextpdf.smartcard.util.LazyCertificate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+
+/**
+ * Client of the SigningServer. It can be passed to MakeSignature
+ * like an EidSignature, but the signature is made by the card in
+ * the server process. The message is hashed in the client process.
+ * Every request carries the token the server wrote to its token file.
+ */
+public class SigningClient implements IExternalSignature {
+
+	/** The connection with the server. */
+	protected Socket socket;
+	
+	/** The stream used to read responses. */
+	protected DataInputStream in;
+	
+	/** The stream used to write requests. */
+	protected DataOutputStream out;
+	
+	/** The token of the server. */
+	protected byte[] token;
+	
+	/** The index of the card on the server. */
+	protected int cardIndex;
+	
+	/** The id of the key used to sign. */
+	protected byte keyId = BeIDCertificates.NON_REPUDIATION_KEY_ID;
+	
+	/** The digest algorithm (e.g. "SHA256"). */
+	protected String hashAlgorithm;
+	
+	/** The provider used to create the digest (can be null). */
+	protected String provider;
+	
+	/** The tenant on whose behalf the requests are sent. */
+	protected String tenant = "default";
+	
+	/** The priority class of the requests. */
+	protected Priority priority = Priority.INTERACTIVE;
+	
+	/** The time the server may wait before starting a request (in milliseconds, 0 if no limit). */
+	protected int timeout = 0;
+	
+	/** The encryption algorithm of the card (asked to the server). */
+	protected String encryptionAlgorithm;
+	
+	/**
+	 * Connects to a signing server on this machine that writes
+	 * its token to the default token file.
+	 * @param port	the port of the server
+	 * @param cardIndex	the index of the card on the server
+	 * @param hashAlgorithm	a digest algorithm (e.g. "SHA256")
+	 * @param provider	a provider (e.g. "BC"), or null for the default provider
+	 * @throws IOException	also if the token file can't be read
+	 */
+	public SigningClient(int port, int cardIndex, String hashAlgorithm, String provider) throws IOException {
+		this(port, SigningServer.getDefaultTokenFile(port), cardIndex, hashAlgorithm, provider);
+	}
+	
+	/**
+	 * Connects to a signing server on this machine.
+	 * @param port	the port of the server
+	 * @param tokenFile	the file the server wrote its token to
+	 * @param cardIndex	the index of the card on the server
+	 * @param hashAlgorithm	a digest algorithm (e.g. "SHA256")
+	 * @param provider	a provider (e.g. "BC"), or null for the default provider
+	 * @throws IOException	also if the token file can't be read
+	 */
+	public SigningClient(int port, File tokenFile, int cardIndex, String hashAlgorithm, String provider) throws IOException {
+		this.token = SigningProtocol.readToken(tokenFile);
+		this.socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+		socket.setTcpNoDelay(true);
+		this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		this.cardIndex = cardIndex;
+		this.hashAlgorithm = hashAlgorithm;
+		this.provider = provider;
+	}
+	
+	/**
+	 * Changes the key used to sign.
+	 * @param keyId	the id of the key
+	 */
+	public void setKeyId(byte keyId) {
+		this.keyId = keyId;
+	}
+	
+	/**
+	 * Sets the tenant on whose behalf the requests are sent.
+	 * The server shares the card fairly between tenants.
+	 * @param tenant	the name of a tenant
+	 */
+	public void setTenant(String tenant) {
+		this.tenant = tenant;
+	}
+	
+	/**
+	 * Sets the priority class of the requests (e.g. BATCH for bulk signing).
+	 * @param priority	a priority class
+	 */
+	public void setPriority(Priority priority) {
+		this.priority = priority;
+	}
+	
+	/**
+	 * Sets the time the server may wait before starting a request.
+	 * Requests that can't be started in time fail.
+	 * @param timeout	a time in milliseconds (0 if no limit)
+	 */
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+	
+	/**
+	 * Asks the server how many cards it serves.
+	 * @return	a number of cards
+	 * @throws IOException
+	 */
+	public synchronized int getCardCount() throws IOException {
+		writeOperation(SigningProtocol.LIST_CARDS);
+		readStatus();
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			String algorithm = in.readUTF();
+			if (i == cardIndex)
+				encryptionAlgorithm = algorithm;
+		}
+		return count;
+	}
+	
+	/**
+	 * Gets the certificate chain of the key used to sign.
+	 * @return	the certificate chain
+	 * @throws IOException
+	 * @throws GeneralSecurityException
+	 */
+	public synchronized Certificate[] getCertificateChain() throws IOException, GeneralSecurityException {
+		writeOperation(SigningProtocol.GET_CERTIFICATE_CHAIN);
+		writeCardArguments();
+		out.writeByte(keyId);
+		readStatus();
+		Certificate[] chain = new Certificate[in.readInt()];
+		for (int i = 0; i < chain.length; i++) {
+			chain[i] = LazyCertificate.getFactory().generateCertificate(
+					new ByteArrayInputStream(SigningProtocol.readBytes(in)));
+		}
+		return chain;
+	}
+	
+	/**
+	 * Reads a file from the card.
+	 * @param fileId	the id of the file
+	 * @return	the content of the file
+	 * @throws IOException
+	 */
+	public synchronized byte[] readFile(byte[] fileId) throws IOException {
+		writeOperation(SigningProtocol.READ_FILE);
+		writeCardArguments();
+		SigningProtocol.writeBytes(out, fileId);
+		readStatus();
+		return SigningProtocol.readBytes(in);
+	}
+	
+	/**
+	 * Hashes the message and lets the server sign the hash.
+	 * @see com.itextpdf.signatures.IExternalSignature#sign(byte[])
+	 */
+	public byte[] sign(byte[] message) throws GeneralSecurityException {
+		MessageDigest messageDigest = provider == null
+				? MessageDigest.getInstance(hashAlgorithm)
+				: MessageDigest.getInstance(hashAlgorithm, provider);
+		byte[] digest = messageDigest.digest(message);
+		try {
+			synchronized (this) {
+				writeOperation(SigningProtocol.SIGN);
+				writeCardArguments();
+				out.writeByte(keyId);
+				out.writeUTF(hashAlgorithm);
+				SigningProtocol.writeBytes(out, digest);
+				readStatus();
+				return SigningProtocol.readBytes(in);
+			}
+		} catch (IOException e) {
+			throw new GeneralSecurityException(e);
+		}
+	}
+
+	/**
+	 * Getter for the encryption algorithm (asked to the server).
+	 * @see com.itextpdf.signatures.IExternalSignature#getEncryptionAlgorithm()
+	 */
+	public String getEncryptionAlgorithm() {
+		if (encryptionAlgorithm == null) {
+			try {
+				getCardCount();
+			} catch (IOException e) {
+				return null;
+			}
+		}
+		return encryptionAlgorithm;
+	}
+
+	/**
+	 * Getter for the hashing algorithm.
+	 * @see com.itextpdf.signatures.IExternalSignature#getHashAlgorithm()
+	 */
+	public String getHashAlgorithm() {
+		return hashAlgorithm;
+	}
+	
+	/**
+	 * Closes the connection with the server.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		socket.close();
+	}
+	
+	/**
+	 * Writes the operation a request starts with, and the token.
+	 * @param operation	the operation
+	 * @throws IOException
+	 */
+	private void writeOperation(byte operation) throws IOException {
+		out.writeByte(operation);
+		out.write(token);
+	}
+	
+	/**
+	 * Writes the arguments every operation on a card starts with.
+	 * @throws IOException
+	 */
+	private void writeCardArguments() throws IOException {
+		out.writeInt(cardIndex);
+		out.writeUTF(tenant);
+		out.writeByte(priority.ordinal());
+		out.writeInt(timeout);
+	}
+	
+	/**
+	 * Sends the request and reads the status of the response.
+	 * @throws IOException	if the request failed
+	 */
+	private void readStatus() throws IOException {
+		out.flush();
+		if (in.readByte() != SigningProtocol.STATUS_OK)
+			throw new IOException(in.readUTF());
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Constants and helper methods for the binary protocol spoken between
+ * the SigningServer and the SigningClient. A request starts with an
+ * operation byte and the token of the server (only processes that can
+ * read the token file of the server know it), followed by its arguments;
+ * a response starts with a status byte, followed by the result or by
+ * an error message.
+ * The arguments of an operation on a card start with the card index,
+ * the tenant, the priority class and the timeout (in milliseconds, 0 if none).
+ */
+class SigningProtocol {
+
+	/** Lists the cards: returns the number of cards and their encryption algorithm. */
+	static final byte LIST_CARDS = 1;
+	
+	/** Gets a certificate chain: card arguments, key id. Returns the encoded certificates. */
+	static final byte GET_CERTIFICATE_CHAIN = 2;
+	
+	/** Signs a digest: card arguments, key id, digest algorithm, digest. Returns the signature. */
+	static final byte SIGN = 3;
+	
+	/** Reads a file: card arguments, file id. Returns the content of the file. */
+	static final byte READ_FILE = 4;
+	
+	/** Status of a successful response. */
+	static final byte STATUS_OK = 0;
+	
+	/** Status of a failed response, followed by an error message. */
+	static final byte STATUS_ERROR = 1;
+	
+	/** The maximum length of a byte array in a message. */
+	static final int MAX_LENGTH = 0x10000;
+	
+	/** The length of the token that authenticates the clients. */
+	static final int TOKEN_LENGTH = 32;
+	
+	/**
+	 * Reads the token of a server from its token file.
+	 * @param tokenFile	the file the server wrote its token to
+	 * @return	the token
+	 * @throws IOException	if the file can't be read or doesn't contain a token
+	 */
+	static byte[] readToken(File tokenFile) throws IOException {
+		if (tokenFile.length() != TOKEN_LENGTH)
+			throw new IOException("No valid token in " + tokenFile);
+		byte[] token = new byte[TOKEN_LENGTH];
+		DataInputStream in = new DataInputStream(new FileInputStream(tokenFile));
+		try {
+			in.readFully(token);
+		}
+		finally {
+			in.close();
+		}
+		return token;
+	}
+	
+	/**
+	 * Writes a byte array preceded by its length.
+	 * @param out	the stream to write to
+	 * @param bytes	the bytes
+	 * @throws IOException
+	 */
+	static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	/**
+	 * Reads a byte array preceded by its length.
+	 * @param in	the stream to read from
+	 * @return	the bytes
+	 * @throws IOException
+	 */
+	static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > MAX_LENGTH)
+			throw new IOException("Invalid length: " + length);
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+}
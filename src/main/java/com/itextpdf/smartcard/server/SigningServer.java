@@ -0,0 +1,533 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.server;
+
+import com.itextpdf.smartcard.CardReaders;
+import com.itextpdf.smartcard.PinDialog;
+import com.itextpdf.smartcard.SmartCardWithKey;
+import com.itextpdf.smartcard.beid.BeIDCard;
+import com.itextpdf.smartcard.beid.BeIDCertificates;
+import com.itextpdf.smartcard.scheduler.CardScheduler;
+import com.itextpdf.smartcard.scheduler.Priority;
+import com.itextpdf.smartcard.util.CertificateStore;
+import com.itextpdf.smartcard.util.CircuitBreaker;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Signing service that owns the cards in the readers of a machine,
+ * so that several processes can sign without connecting to the cards
+ * themselves. The server listens on a loopback port; every card has
+ * its own CardScheduler, and the requests of all the clients for that
+ * card are executed one after the other, in the order decided by the
+ * priority class, the deadline and the tenant of the requests.
+ * Certificate chains are read once and served from memory afterwards.
+ * When it starts, the server writes a random token to a file only the
+ * owner can read; every request needs to carry that token, so that other
+ * users of the machine can't use the cards. Only the certificate files
+ * can be read through the server. Use the SigningClient to talk to the server.
+ */
+public class SigningServer {
+
+	/** Logger instance. */
+	private final static Logger LOGGER = LoggerFactory.getLogger(SigningServer.class);
+	
+	/** The default port of the server. */
+	public static final int DEFAULT_PORT = 7447;
+	
+	/** The cards served by this server. */
+	protected List<SmartCardWithKey> cards;
+	
+	/** The scheduler of every card. */
+	protected List<CardScheduler> schedulers;
+	
+	/** The encoded certificate chains, mapped by card index and key id. */
+	protected ConcurrentMap<Integer, CachedChain> chains = new ConcurrentHashMap<Integer, CachedChain>();
+	
+	/** The threads that handle the client connections. */
+	protected ExecutorService connections = Executors.newCachedThreadPool();
+	
+	/** The server socket (null if the server isn't started). */
+	protected ServerSocket serverSocket;
+	
+	/** The file the token is written to (null to use the default file for the port). */
+	protected File tokenFile;
+	
+	/** The token the clients need to send (null if the server isn't started). */
+	private volatile byte[] token;
+	
+	/** The files that can be read through the server (the public certificates). */
+	protected List<byte[]> readableFiles = new ArrayList<byte[]>(Arrays.asList(
+			BeIDCertificates.SIGN_CERT_FILE_ID, BeIDCertificates.AUTHN_CERT_FILE_ID,
+			BeIDCertificates.CA_CERT_FILE_ID, BeIDCertificates.ROOT_CERT_FILE_ID,
+			BeIDCertificates.RRN_CERT_FILE_ID));
+	
+	/**
+	 * Creates a server for a list of cards.
+	 * @param cards	the cards (the index in the list identifies the card)
+	 */
+	public SigningServer(List<? extends SmartCardWithKey> cards) {
+		this.cards = new ArrayList<SmartCardWithKey>(cards);
+		this.schedulers = new ArrayList<CardScheduler>();
+		for (int i = 0; i < cards.size(); i++) {
+			schedulers.add(new CardScheduler("card-" + i));
+		}
+	}
+	
+	/**
+	 * Returns the scheduler of a card, e.g. to set the weight of the
+	 * tenants or to get the statistics.
+	 * @param index	the index of the card
+	 * @return	a CardScheduler
+	 */
+	public CardScheduler getScheduler(int index) {
+		return schedulers.get(index);
+	}
+	
+	/**
+	 * Gets the file a server writes its token to, if no other file was set.
+	 * @param port	the port of the server
+	 * @return	a file in the home directory of the user
+	 */
+	public static File getDefaultTokenFile(int port) {
+		return new File(System.getProperty("user.home"), ".smartcard-signing-server-" + port + ".token");
+	}
+	
+	/**
+	 * Changes the file the token is written to when the server starts.
+	 * @param tokenFile	a file (null to use the default file for the port)
+	 */
+	public void setTokenFile(File tokenFile) {
+		this.tokenFile = tokenFile;
+	}
+	
+	/**
+	 * Gets the file the token was written to.
+	 * @param port	the port the server listens on
+	 * @return	the token file
+	 */
+	public File getTokenFile(int port) {
+		return tokenFile != null ? tokenFile : getDefaultTokenFile(port);
+	}
+	
+	/**
+	 * Starts listening on a loopback port, after writing a new token to the token file.
+	 * @param port	the port (0 to use a free port)
+	 * @return	the port the server listens on
+	 * @throws IOException
+	 */
+	public synchronized int start(int port) throws IOException {
+		serverSocket = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+		byte[] newToken = new byte[SigningProtocol.TOKEN_LENGTH];
+		new SecureRandom().nextBytes(newToken);
+		try {
+			writeToken(getTokenFile(serverSocket.getLocalPort()), newToken);
+		} catch (IOException e) {
+			serverSocket.close();
+			serverSocket = null;
+			throw e;
+		}
+		token = newToken;
+		final ServerSocket socket = serverSocket;
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				accept(socket);
+			}
+		}, "signing-server");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		LOGGER.info("Signing server listening on port " + serverSocket.getLocalPort());
+		return serverSocket.getLocalPort();
+	}
+	
+	/**
+	 * Stops the server. The cards aren't disconnected.
+	 * @throws IOException
+	 */
+	public synchronized void stop() throws IOException {
+		LOGGER.info("Stopping signing server");
+		if (serverSocket != null) {
+			File file = getTokenFile(serverSocket.getLocalPort());
+			serverSocket.close();
+			serverSocket = null;
+			if (!file.delete())
+				LOGGER.warn("Couldn't delete " + file);
+		}
+		token = null;
+		connections.shutdownNow();
+		for (CardScheduler scheduler : schedulers) {
+			scheduler.shutdown();
+		}
+	}
+	
+	/**
+	 * Writes the token to a file that only the owner can read.
+	 * The permissions are set before the token is written.
+	 * @param file	the token file
+	 * @param token	the token
+	 * @throws IOException
+	 */
+	private static void writeToken(File file, byte[] token) throws IOException {
+		if (file.exists() && !file.delete())
+			throw new IOException("Can't replace " + file);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			boolean restricted = file.setReadable(false, false) & file.setReadable(true, true)
+					& file.setWritable(false, false) & file.setWritable(true, true);
+			// on Windows, the permissions can't be changed this way, but
+			// the user's profile directory isn't readable by other users
+			if (!restricted && File.separatorChar != '\\')
+				throw new IOException("Can't restrict access to " + file);
+			out.write(token);
+		}
+		finally {
+			out.close();
+		}
+		LOGGER.info("Token written to " + file);
+	}
+	
+	/**
+	 * Accepts connections until the server socket is closed.
+	 * @param socket	the server socket
+	 */
+	private void accept(ServerSocket socket) {
+		while (!socket.isClosed()) {
+			try {
+				final Socket client = socket.accept();
+				connections.execute(new Runnable() {
+					public void run() {
+						serve(client);
+					}
+				});
+			} catch (SocketException e) {
+				// the server socket was closed
+			} catch (IOException e) {
+				LOGGER.error("Can't accept connection: " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Handles the requests of a client until it closes the connection.
+	 * @param client	the connection with the client
+	 */
+	private void serve(Socket client) {
+		try {
+			client.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+			while (true) {
+				byte operation;
+				try {
+					operation = in.readByte();
+				} catch (EOFException e) {
+					break;
+				}
+				byte[] clientToken = new byte[SigningProtocol.TOKEN_LENGTH];
+				in.readFully(clientToken);
+				byte[] token = this.token;
+				if (token == null || !MessageDigest.isEqual(token, clientToken)) {
+					LOGGER.warn("Request with an invalid token from " + client.getRemoteSocketAddress());
+					out.writeByte(SigningProtocol.STATUS_ERROR);
+					out.writeUTF("Not authorized");
+					out.flush();
+					break;
+				}
+				handle(operation, in, out);
+				out.flush();
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Connection closed: " + e.getMessage());
+		}
+		finally {
+			try {
+				client.close();
+			} catch (IOException e) {
+				LOGGER.warn(e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Reads the arguments of a request, executes the request and writes the response.
+	 * @param operation	the operation of the request
+	 * @param in	the stream with the arguments
+	 * @param out	the stream for the response
+	 * @throws IOException	if the connection fails
+	 */
+	protected void handle(byte operation, DataInputStream in, DataOutputStream out) throws IOException {
+		try {
+			switch (operation) {
+			case SigningProtocol.LIST_CARDS:
+				out.writeByte(SigningProtocol.STATUS_OK);
+				out.writeInt(cards.size());
+				for (SmartCardWithKey card : cards) {
+					out.writeUTF(card.getEncryptionAlgorithm());
+				}
+				return;
+			case SigningProtocol.GET_CERTIFICATE_CHAIN: {
+				Request request = new Request(in);
+				byte keyId = in.readByte();
+				byte[][] chain = getCertificateChain(request, keyId);
+				out.writeByte(SigningProtocol.STATUS_OK);
+				out.writeInt(chain.length);
+				for (byte[] certificate : chain) {
+					SigningProtocol.writeBytes(out, certificate);
+				}
+				return;
+			}
+			case SigningProtocol.SIGN: {
+				Request request = new Request(in);
+				final byte keyId = in.readByte();
+				final String algorithm = in.readUTF();
+				final byte[] digest = SigningProtocol.readBytes(in);
+				final SmartCardWithKey card = getCard(request.index);
+				byte[] signature = execute(request, new Callable<byte[]>() {
+					public byte[] call() throws Exception {
+						return card.sign(digest, algorithm, keyId);
+					}
+				});
+				out.writeByte(SigningProtocol.STATUS_OK);
+				SigningProtocol.writeBytes(out, signature);
+				return;
+			}
+			case SigningProtocol.READ_FILE: {
+				Request request = new Request(in);
+				final byte[] fileId = SigningProtocol.readBytes(in);
+				if (!isReadable(fileId))
+					throw new CardException("File can't be read through the server.");
+				final SmartCardWithKey card = getCard(request.index);
+				byte[] content = execute(request, new Callable<byte[]>() {
+					public byte[] call() throws Exception {
+						return card.readFile(fileId);
+					}
+				});
+				out.writeByte(SigningProtocol.STATUS_OK);
+				SigningProtocol.writeBytes(out, content);
+				return;
+			}
+			default:
+				throw new IOException("Unknown operation: " + operation);
+			}
+		} catch (CardException e) {
+			LOGGER.error("Request failed: " + e.getMessage());
+			out.writeByte(SigningProtocol.STATUS_ERROR);
+			out.writeUTF(String.valueOf(e.getMessage()));
+		}
+	}
+	
+	/**
+	 * Gets the encoded certificate chain of a key, reading it from the card
+	 * the first time, and again after the card was reconnected (the card in
+	 * the reader may have been replaced).
+	 * @param request	the arguments of the request
+	 * @param keyId	the id of the key
+	 * @return	the encoded certificates
+	 * @throws CardException
+	 */
+	protected byte[][] getCertificateChain(Request request, final byte keyId) throws CardException {
+		Integer key = Integer.valueOf(request.index << 8 | (keyId & 0xFF));
+		final SmartCardWithKey card = getCard(request.index);
+		int reconnects = card.getReconnectCount();
+		CachedChain cached = chains.get(key);
+		if (cached != null && cached.reconnects == reconnects)
+			return cached.chain;
+		byte[][] chain = execute(request, new Callable<byte[][]>() {
+			public byte[][] call() throws Exception {
+				Certificate[] certificates = keyId == BeIDCertificates.AUTHENTICATION_KEY_ID
+						? BeIDCertificates.getAuthenticationCertificateChain(card, CertificateStore.getSharedInstance())
+						: BeIDCertificates.getSignCertificateChain(card);
+				byte[][] encoded = new byte[certificates.length][];
+				for (int i = 0; i < certificates.length; i++) {
+					encoded[i] = certificates[i].getEncoded();
+				}
+				return encoded;
+			}
+		});
+		chains.put(key, new CachedChain(chain, reconnects));
+		return chain;
+	}
+	
+	/**
+	 * Checks if a file can be read by the clients.
+	 * @param fileId	the id of the file
+	 * @return	true if the file is one of the readable files
+	 */
+	protected boolean isReadable(byte[] fileId) {
+		for (byte[] readable : readableFiles) {
+			if (Arrays.equals(readable, fileId))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Gets a card by its index.
+	 * @param index	the index of the card
+	 * @return	the card
+	 * @throws CardException	if there's no card with this index
+	 */
+	private SmartCardWithKey getCard(int index) throws CardException {
+		if (index < 0 || index >= cards.size())
+			throw new CardException("No card with index " + index);
+		return cards.get(index);
+	}
+	
+	/**
+	 * Executes a task using the scheduler of a card, and waits for the result.
+	 * @param request	the arguments of the request
+	 * @param task	the task
+	 * @return	the result of the task
+	 * @throws CardException	if the task failed
+	 */
+	protected <T> T execute(Request request, Callable<T> task) throws CardException {
+		// don't queue work for a card (reader) that keeps failing
+		CircuitBreaker breaker = getCard(request.index).getCircuitBreaker();
+		if (breaker != null && breaker.getState() == CircuitBreaker.State.OPEN)
+			throw new CardException("Card " + request.index + " is unavailable.");
+		return schedulers.get(request.index).execute(request.tenant, request.priority, request.deadline, task);
+	}
+	
+	/**
+	 * A certificate chain and the connection with the card it was read from.
+	 */
+	protected static class CachedChain {
+		/** The encoded certificates. */
+		final byte[][] chain;
+		/** The reconnect count of the card when the chain was read. */
+		final int reconnects;
+		
+		CachedChain(byte[][] chain, int reconnects) {
+			this.chain = chain;
+			this.reconnects = reconnects;
+		}
+	}
+	
+	/**
+	 * The arguments that every operation on a card starts with.
+	 */
+	protected static class Request {
+		/** The index of the card. */
+		final int index;
+		/** The tenant sending the request. */
+		final String tenant;
+		/** The priority class of the request. */
+		final Priority priority;
+		/** The time before which the request must be started (0 if none). */
+		final long deadline;
+		
+		/**
+		 * Reads the arguments of a request.
+		 * @param in	the stream with the request
+		 * @throws IOException
+		 */
+		Request(DataInputStream in) throws IOException {
+			index = in.readInt();
+			tenant = in.readUTF();
+			int ordinal = in.readByte();
+			if (ordinal < 0 || ordinal >= Priority.values().length)
+				throw new IOException("Invalid priority: " + ordinal);
+			priority = Priority.values()[ordinal];
+			int timeout = in.readInt();
+			deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+		}
+	}
+	
+	/**
+	 * Starts a signing server for the Belgian eID cards in the readers
+	 * of this machine. The PIN is asked using a dialog.
+	 * @param args	optionally the port number
+	 * @throws CardException
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws CardException, IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		CardReaders readers = new CardReaders();
+		List<BeIDCard> cards = new ArrayList<BeIDCard>();
+		for (CardTerminal terminal : readers.getReadersWithCard()) {
+			BeIDCard card = new BeIDCard(terminal);
+			card.setPinProvider(new PinDialog(4));
+			cards.add(card);
+		}
+		LOGGER.info("Serving " + cards.size() + " card(s)");
+		new SigningServer(cards).start(port);
+		// the acceptor thread is a daemon
+		synchronized (SigningServer.class) {
+			try {
+				SigningServer.class.wait();
+			} catch (InterruptedException e) {
+				LOGGER.info("Signing server interrupted");
+			}
+		}
+	}
+}
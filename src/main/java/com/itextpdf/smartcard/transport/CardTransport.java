@@ -0,0 +1,160 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.transport;
+
+import javax.smartcardio.ATR;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+/**
+ * The connection with a smart card, as used by the SmartCard classes.
+ * The default implementation is the PcscTransport (javax.smartcardio);
+ * other implementations can talk to a simulator, record the APDUs,
+ * or forward them to another process or machine.
+ */
+public interface CardTransport {
+
+	/**
+	 * Returns the Answer To Reset of the card.
+	 * @return	an ATR
+	 */
+	public ATR getATR();
+	
+	/**
+	 * Returns the protocol used to talk to the card (e.g. "T=0").
+	 * @return	a protocol name
+	 */
+	public String getProtocol();
+	
+	/**
+	 * Checks if the transport is connected to the card.
+	 * @return	true if APDUs can be sent
+	 */
+	public boolean isConnected();
+	
+	/**
+	 * Returns the generation of the connection with the card.
+	 * The generation changes every time the transport connects or disconnects,
+	 * so that channels of a previous connection can be recognized.
+	 * @return	a number that identifies the current connection
+	 */
+	public int getGeneration();
+	
+	/**
+	 * Checks if there's a card in the reader.
+	 * @return	true if a card is present
+	 * @throws CardException
+	 */
+	public boolean isCardPresent() throws CardException;
+	
+	/**
+	 * Sends an APDU to the card.
+	 * @param channelNumber	the number of the channel (0 for the basic channel)
+	 * @param command	the command APDU
+	 * @return	the response APDU
+	 * @throws CardException
+	 */
+	public ResponseAPDU transmit(int channelNumber, CommandAPDU command) throws CardException;
+	
+	/**
+	 * Sends a control command to the reader (e.g. to verify the PIN on a pin pad).
+	 * @param controlCode	the control code
+	 * @param command	the command data
+	 * @return	the response data
+	 * @throws CardException
+	 */
+	public byte[] transmitControlCommand(int controlCode, byte[] command) throws CardException;
+	
+	/**
+	 * Aborts a command another thread is waiting for (e.g. the verification
+	 * of the PIN on a pin pad), without using the connection that thread is
+	 * blocked on: the reader gets the abort control command, or the card
+	 * is reset if there's no control code.
+	 * @param abortControlCode	the control code of the abort feature (or null to reset the card)
+	 * @throws CardException	if the command couldn't be aborted
+	 */
+	public void abort(Integer abortControlCode) throws CardException;
+	
+	/**
+	 * Requests exclusive access to the card.
+	 * @throws CardException
+	 */
+	public void beginExclusive() throws CardException;
+	
+	/**
+	 * Releases the exclusive access to the card.
+	 * @throws CardException
+	 */
+	public void endExclusive() throws CardException;
+	
+	/**
+	 * Opens a logical channel.
+	 * @return	the number of the new channel
+	 * @throws CardException	if the card has no logical channel left
+	 */
+	public int openLogicalChannel() throws CardException;
+	
+	/**
+	 * Closes a logical channel.
+	 * @param channelNumber	the number of the channel
+	 * @throws CardException
+	 */
+	public void closeLogicalChannel(int channelNumber) throws CardException;
+	
+	/**
+	 * Connects to the card again (e.g. after it was reset).
+	 * The logical channels are closed.
+	 * @throws CardException
+	 */
+	public void reconnect() throws CardException;
+	
+	/**
+	 * Disconnects from the card.
+	 * @param reset	true if the card needs to be reset
+	 * @throws CardException
+	 */
+	public void disconnect(boolean reset) throws CardException;
+}
@@ -0,0 +1,268 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.transport;
+
+import javax.smartcardio.ATR;
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CardTransport that uses PC/SC through javax.smartcardio.
+ */
+public class PcscTransport implements CardTransport {
+
+	/** The logger instance. */
+	private final static Logger LOGGER = LoggerFactory.getLogger(PcscTransport.class);
+
+	/** The terminal holding the card. */
+	protected CardTerminal cardTerminal;
+	
+	/** The connection with the card (null if disconnected). */
+	protected volatile Card card;
+	
+	/** The open channels, mapped by channel number. */
+	protected Map<Integer, CardChannel> channels = new ConcurrentHashMap<Integer, CardChannel>();
+	
+	/** The generation of the connection (changes on every connect and disconnect). */
+	protected volatile int generation;
+	
+	/**
+	 * Connects to the card in a terminal.
+	 * @param cardTerminal	the terminal holding the card
+	 * @throws CardException
+	 */
+	public PcscTransport(CardTerminal cardTerminal) throws CardException {
+		this.cardTerminal = cardTerminal;
+		connect();
+	}
+	
+	/**
+	 * Returns the terminal holding the card.
+	 * @return	a CardTerminal
+	 */
+	public CardTerminal getCardTerminal() {
+		return cardTerminal;
+	}
+	
+	/**
+	 * Connects to the card using any protocol.
+	 * @throws CardException
+	 */
+	private void connect() throws CardException {
+		Card card = cardTerminal.connect("*");
+		generation++;
+		channels.clear();
+		channels.put(0, card.getBasicChannel());
+		this.card = card;
+	}
+	
+	/**
+	 * Gets the connection with the card.
+	 * @return	the Card
+	 * @throws IllegalStateException	if the card is disconnected
+	 */
+	private Card getCard() {
+		Card card = this.card;
+		if (card == null)
+			throw new IllegalStateException("The card is disconnected.");
+		return card;
+	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#getATR()
+	 */
+	public ATR getATR() {
+		return getCard().getATR();
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#getProtocol()
+	 */
+	public String getProtocol() {
+		return getCard().getProtocol();
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#isConnected()
+	 */
+	public boolean isConnected() {
+		return card != null;
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#getGeneration()
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#isCardPresent()
+	 */
+	public boolean isCardPresent() throws CardException {
+		return cardTerminal.isCardPresent();
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#transmit(int, javax.smartcardio.CommandAPDU)
+	 */
+	public ResponseAPDU transmit(int channelNumber, CommandAPDU command) throws CardException {
+		CardChannel channel = channels.get(channelNumber);
+		if (channel == null)
+			throw new CardException("Channel " + channelNumber + " is closed.");
+		return channel.transmit(command);
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#transmitControlCommand(int, byte[])
+	 */
+	public byte[] transmitControlCommand(int controlCode, byte[] command) throws CardException {
+		return getCard().transmitControlCommand(controlCode, command);
+	}
+
+	/**
+	 * Asks the terminal for a second connection with the card to abort the command.
+	 * Note that javax.smartcardio providers that share one connection per
+	 * terminal within a process (like the default SunPCSC provider)
+	 * return the connection that is in use; the command is sent on that
+	 * connection then, and a reset reconnects this transport.
+	 * @see com.itextpdf.smartcard.transport.CardTransport#abort(java.lang.Integer)
+	 */
+	public void abort(Integer abortControlCode) throws CardException {
+		Card other = cardTerminal.connect("*");
+		boolean shared = other == card;
+		if (shared)
+			LOGGER.debug("No separate connection with the card, aborting on the shared connection");
+		if (abortControlCode == null) {
+			// resetting the card ends the PIN entry on every reader
+			if (shared)
+				reconnect();
+			else
+				other.disconnect(true);
+			return;
+		}
+		try {
+			other.transmitControlCommand(abortControlCode, new byte[0]);
+		}
+		finally {
+			if (!shared)
+				other.disconnect(false);
+		}
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#beginExclusive()
+	 */
+	public void beginExclusive() throws CardException {
+		getCard().beginExclusive();
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#endExclusive()
+	 */
+	public void endExclusive() throws CardException {
+		getCard().endExclusive();
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#openLogicalChannel()
+	 */
+	public int openLogicalChannel() throws CardException {
+		CardChannel channel = getCard().openLogicalChannel();
+		channels.put(channel.getChannelNumber(), channel);
+		return channel.getChannelNumber();
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#closeLogicalChannel(int)
+	 */
+	public void closeLogicalChannel(int channelNumber) throws CardException {
+		if (channelNumber == 0)
+			throw new IllegalStateException("The basic channel can't be closed.");
+		CardChannel channel = channels.remove(channelNumber);
+		if (channel != null)
+			channel.close();
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#reconnect()
+	 */
+	public void reconnect() throws CardException {
+		Card card = this.card;
+		this.card = null;
+		if (card != null) {
+			try {
+				card.disconnect(true);
+			} catch (CardException e) {
+				// the connection was already broken
+			} catch (IllegalStateException e) {
+				// the card was already disconnected
+			}
+		}
+		connect();
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#disconnect(boolean)
+	 */
+	public void disconnect(boolean reset) throws CardException {
+		Card card = this.card;
+		this.card = null;
+		generation++;
+		channels.clear();
+		if (card != null)
+			card.disconnect(reset);
+	}
+}
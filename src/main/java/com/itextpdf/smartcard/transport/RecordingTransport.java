@@ -0,0 +1,318 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.transport;
+
+import javax.smartcardio.ATR;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+import com.itextpdf.smartcard.util.IsoIec7816;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CardTransport that forwards everything to another transport, and writes
+ * every exchange with the card to a binary log that can be replayed
+ * with a ReplayTransport.
+ * 
+ * The log starts with the magic bytes "APDU", a version byte, the ATR
+ * and the protocol. It is followed by records consisting of a type byte,
+ * the time (in microseconds) since the previous record, the time the card
+ * needed to answer (in microseconds), the channel number or control code,
+ * the command and the response (each preceded by an int length).
+ * The data of commands that carry a PIN (VERIFY and CHANGE REFERENCE DATA)
+ * is replaced by filler bytes, so that a log never contains the PIN.
+ */
+public class RecordingTransport implements CardTransport {
+
+	/** The logger instance. */
+	private final static Logger LOGGER = LoggerFactory.getLogger(RecordingTransport.class);
+	
+	/** The magic bytes at the start of a log. */
+	public final static byte[] MAGIC = { 'A', 'P', 'D', 'U' };
+	
+	/** The version of the log format. */
+	public final static byte VERSION = 1;
+	
+	/** Record type for an APDU. */
+	public final static byte TRANSMIT = 1;
+	
+	/** Record type for a control command. */
+	public final static byte CONTROL = 2;
+	
+	/** Record type for a logical channel that was opened (the response is the channel number). */
+	public final static byte OPEN_CHANNEL = 3;
+	
+	/** Record type for a logical channel that was closed. */
+	public final static byte CLOSE_CHANNEL = 4;
+	
+	/** Record type for a reconnect. */
+	public final static byte RECONNECT = 5;
+	
+	/** The byte that replaces the data of commands that carry a PIN. */
+	public final static byte FILLER = (byte) 0xFF;
+	
+	/** The transport that talks to the card. */
+	protected CardTransport transport;
+	
+	/** The log. */
+	protected DataOutputStream log;
+	
+	/** The time of the previous record (System.nanoTime()). */
+	protected long previous;
+	
+	/**
+	 * Creates a RecordingTransport and writes the header of the log.
+	 * @param transport	the transport that talks to the card
+	 * @param out	the stream the log is written to
+	 * @throws IOException
+	 */
+	public RecordingTransport(CardTransport transport, OutputStream out) throws IOException {
+		this.transport = transport;
+		this.log = new DataOutputStream(new BufferedOutputStream(out));
+		log.write(MAGIC);
+		log.writeByte(VERSION);
+		byte[] atr = transport.getATR().getBytes();
+		log.writeInt(atr.length);
+		log.write(atr);
+		log.writeUTF(transport.getProtocol());
+		previous = System.nanoTime();
+	}
+	
+	/**
+	 * Writes a record to the log. Errors are logged, so that a failing
+	 * log doesn't break the communication with the card.
+	 * @param type	the record type
+	 * @param start	the time the command was sent (System.nanoTime())
+	 * @param key	the channel number or the control code
+	 * @param command	the command bytes
+	 * @param response	the response bytes
+	 */
+	protected synchronized void record(byte type, long start, int key, byte[] command, byte[] response) {
+		long end = System.nanoTime();
+		try {
+			log.writeByte(type);
+			log.writeInt((int)(Math.max(0, start - previous) / 1000));
+			log.writeInt((int)((end - start) / 1000));
+			log.writeInt(key);
+			log.writeInt(command.length);
+			log.write(command);
+			log.writeInt(response.length);
+			log.write(response);
+		} catch (IOException e) {
+			LOGGER.error("Couldn't write to the APDU log: " + e.getMessage());
+		}
+		previous = start;
+	}
+	
+	/**
+	 * Flushes the log.
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		log.flush();
+	}
+	
+	/**
+	 * Flushes and closes the log. The transport isn't disconnected.
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		log.close();
+	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#getATR()
+	 */
+	public ATR getATR() {
+		return transport.getATR();
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#getProtocol()
+	 */
+	public String getProtocol() {
+		return transport.getProtocol();
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#isConnected()
+	 */
+	public boolean isConnected() {
+		return transport.isConnected();
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#getGeneration()
+	 */
+	public int getGeneration() {
+		return transport.getGeneration();
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#isCardPresent()
+	 */
+	public boolean isCardPresent() throws CardException {
+		return transport.isCardPresent();
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#transmit(int, javax.smartcardio.CommandAPDU)
+	 */
+	public ResponseAPDU transmit(int channelNumber, CommandAPDU command) throws CardException {
+		long start = System.nanoTime();
+		ResponseAPDU response = transport.transmit(channelNumber, command);
+		record(TRANSMIT, start, channelNumber, redact(command.getBytes()), response.getBytes());
+		return response;
+	}
+	
+	/**
+	 * Replaces the data of a command that carries a PIN (VERIFY or
+	 * CHANGE REFERENCE DATA) by filler bytes. Other commands are returned as is.
+	 * @param command	the bytes of a command APDU
+	 * @return	the command as it is written to the log
+	 */
+	public static byte[] redact(byte[] command) {
+		if (command.length <= 5)
+			return command;
+		byte ins = command[1];
+		if (ins != IsoIec7816.INS_VERIFY_DATA && ins != IsoIec7816.INS_CHANGE_REFERENCE_DATA)
+			return command;
+		CommandAPDU apdu = new CommandAPDU(command);
+		// short Lc, or extended Lc after a zero byte
+		int offset = command[4] == 0 ? 7 : 5;
+		byte[] redacted = command.clone();
+		Arrays.fill(redacted, offset, offset + apdu.getNc(), FILLER);
+		return redacted;
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#transmitControlCommand(int, byte[])
+	 */
+	public byte[] transmitControlCommand(int controlCode, byte[] command) throws CardException {
+		long start = System.nanoTime();
+		byte[] response = transport.transmitControlCommand(controlCode, command);
+		record(CONTROL, start, controlCode, command, response);
+		return response;
+	}
+
+	/**
+	 * The abort isn't recorded: the command that is aborted gets its
+	 * recorded response when the session is replayed.
+	 * @see com.itextpdf.smartcard.transport.CardTransport#abort(java.lang.Integer)
+	 */
+	public void abort(Integer abortControlCode) throws CardException {
+		transport.abort(abortControlCode);
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#beginExclusive()
+	 */
+	public void beginExclusive() throws CardException {
+		transport.beginExclusive();
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#endExclusive()
+	 */
+	public void endExclusive() throws CardException {
+		transport.endExclusive();
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#openLogicalChannel()
+	 */
+	public int openLogicalChannel() throws CardException {
+		long start = System.nanoTime();
+		int channelNumber = transport.openLogicalChannel();
+		record(OPEN_CHANNEL, start, channelNumber, new byte[0], new byte[0]);
+		return channelNumber;
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#closeLogicalChannel(int)
+	 */
+	public void closeLogicalChannel(int channelNumber) throws CardException {
+		long start = System.nanoTime();
+		transport.closeLogicalChannel(channelNumber);
+		record(CLOSE_CHANNEL, start, channelNumber, new byte[0], new byte[0]);
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#reconnect()
+	 */
+	public void reconnect() throws CardException {
+		long start = System.nanoTime();
+		transport.reconnect();
+		record(RECONNECT, start, 0, new byte[0], new byte[0]);
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#disconnect(boolean)
+	 */
+	public void disconnect(boolean reset) throws CardException {
+		transport.disconnect(reset);
+		try {
+			flush();
+		} catch (IOException e) {
+			LOGGER.error("Couldn't flush the APDU log: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "recording " + transport;
+	}
+}
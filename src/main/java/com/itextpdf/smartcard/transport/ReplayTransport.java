@@ -0,0 +1,363 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.transport;
+
+import javax.smartcardio.ATR;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * CardTransport that answers with the responses from a log written by a
+ * RecordingTransport, so that a session with a card can be repeated
+ * without the card and the reader (e.g. as a benchmark or a test).
+ * 
+ * Every command is answered with the response of the first recorded
+ * exchange with the same command that wasn't replayed yet, so that reads
+ * on logical channels can happen in another order than when they were
+ * recorded. Commands that carry a PIN only need the same header and
+ * length, as the PIN isn't in the log. A command is only answered with a response that was recorded
+ * on the same channel: when a logical channel is opened, the transport
+ * gives it a channel number of its own and maps it to the channel that was
+ * opened in the recorded session. The card either answers immediately,
+ * or after the time the card needed when the log was recorded.
+ */
+public class ReplayTransport implements CardTransport {
+
+	/** An exchange from the log. */
+	protected static class Exchange {
+		/** The record type. */
+		byte type;
+		/** The time the card needed to answer (in microseconds). */
+		int duration;
+		/** The channel number or control code. */
+		int key;
+		/** The command. */
+		byte[] command;
+		/** The response. */
+		byte[] response;
+	}
+	
+	/** The ATR of the recorded card. */
+	protected ATR atr;
+	
+	/** The protocol of the recorded card. */
+	protected String protocol;
+	
+	/** The exchanges that weren't replayed yet. */
+	protected LinkedList<Exchange> exchanges = new LinkedList<Exchange>();
+	
+	/** True if the recorded latency of the card is replayed. */
+	protected boolean originalLatency;
+	
+	/** True while the transport is connected. */
+	protected volatile boolean connected = true;
+	
+	/** The recorded channel numbers, mapped by the numbers of the replayed channels. */
+	protected Map<Integer, Integer> channels = new HashMap<Integer, Integer>();
+	
+	/** The generation of the connection (changes on every reconnect and disconnect). */
+	protected volatile int generation;
+	
+	/**
+	 * Reads a log written by a RecordingTransport.
+	 * @param in	the log
+	 * @param originalLatency	true if every answer takes as long as when it was recorded,
+	 * 		false if the answers are immediate
+	 * @throws IOException	if the log can't be read
+	 */
+	public ReplayTransport(InputStream in, boolean originalLatency) throws IOException {
+		this.originalLatency = originalLatency;
+		DataInputStream log = new DataInputStream(new BufferedInputStream(in));
+		byte[] magic = new byte[RecordingTransport.MAGIC.length];
+		log.readFully(magic);
+		if (!Arrays.equals(magic, RecordingTransport.MAGIC))
+			throw new IOException("Not an APDU log.");
+		byte version = log.readByte();
+		if (version != RecordingTransport.VERSION)
+			throw new IOException("Unsupported APDU log version: " + version);
+		atr = new ATR(readBytes(log));
+		protocol = log.readUTF();
+		while (true) {
+			Exchange exchange = new Exchange();
+			try {
+				exchange.type = log.readByte();
+			} catch (EOFException e) {
+				break;
+			}
+			log.readInt();
+			exchange.duration = log.readInt();
+			exchange.key = log.readInt();
+			exchange.command = readBytes(log);
+			exchange.response = readBytes(log);
+			exchanges.add(exchange);
+		}
+		channels.put(0, 0);
+	}
+	
+	/**
+	 * Reads bytes preceded by their length.
+	 * @param log	the log
+	 * @return	the bytes
+	 * @throws IOException
+	 */
+	private static byte[] readBytes(DataInputStream log) throws IOException {
+		int length = log.readInt();
+		if (length < 0)
+			throw new IOException("Corrupt APDU log: negative length " + length);
+		byte[] b = new byte[length];
+		log.readFully(b);
+		return b;
+	}
+	
+	/**
+	 * Returns the number of recorded exchanges that weren't replayed yet.
+	 * @return	a number of exchanges
+	 */
+	public synchronized int getRemaining() {
+		return exchanges.size();
+	}
+	
+	/**
+	 * Finds the first exchange that wasn't replayed yet, removes it,
+	 * and waits as long as the card needed to answer if necessary.
+	 * @param type	the record type
+	 * @param key	the channel number or control code (ignored if matchKey is false)
+	 * @param matchKey	true if the key needs to match
+	 * @param command	the command (ignored if null)
+	 * @return	the exchange, or null if there's no matching exchange
+	 * @throws CardException	if the thread was interrupted while waiting
+	 */
+	protected Exchange replay(byte type, int key, boolean matchKey, byte[] command) throws CardException {
+		if (!connected)
+			throw new IllegalStateException("The card is disconnected.");
+		// the PIN was replaced by filler bytes in the log
+		if (type == RecordingTransport.TRANSMIT && command != null)
+			command = RecordingTransport.redact(command);
+		Exchange found = null;
+		synchronized (this) {
+			for (Iterator<Exchange> i = exchanges.iterator(); i.hasNext(); ) {
+				Exchange exchange = i.next();
+				if (exchange.type == type
+						&& (!matchKey || exchange.key == key)
+						&& (command == null || Arrays.equals(exchange.command, command))) {
+					i.remove();
+					found = exchange;
+					break;
+				}
+			}
+		}
+		if (found != null && originalLatency && found.duration > 0) {
+			try {
+				Thread.sleep(found.duration / 1000, (found.duration % 1000) * 1000);
+			} catch (InterruptedException e) {
+				throw new CardException(e);
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * Returns the recorded channel number of a replayed channel.
+	 * @param channelNumber	the number of a replayed channel
+	 * @return	the number of the channel in the recorded session
+	 * @throws CardException	if the channel isn't open
+	 */
+	protected synchronized int getRecordedChannel(int channelNumber) throws CardException {
+		Integer recorded = channels.get(channelNumber);
+		if (recorded == null)
+			throw new CardException("Channel " + channelNumber + " is closed.");
+		return recorded;
+	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#getATR()
+	 */
+	public ATR getATR() {
+		return atr;
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#getProtocol()
+	 */
+	public String getProtocol() {
+		return protocol;
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#isConnected()
+	 */
+	public boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#getGeneration()
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#isCardPresent()
+	 */
+	public boolean isCardPresent() {
+		return true;
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#transmit(int, javax.smartcardio.CommandAPDU)
+	 */
+	public ResponseAPDU transmit(int channelNumber, CommandAPDU command) throws CardException {
+		Exchange exchange = replay(RecordingTransport.TRANSMIT, getRecordedChannel(channelNumber), true, command.getBytes());
+		if (exchange == null)
+			throw new CardException("No recorded response for command: " + command);
+		return new ResponseAPDU(exchange.response);
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#transmitControlCommand(int, byte[])
+	 */
+	public byte[] transmitControlCommand(int controlCode, byte[] command) throws CardException {
+		Exchange exchange = replay(RecordingTransport.CONTROL, controlCode, true, command);
+		if (exchange == null)
+			throw new CardException("No recorded response for control command " + Integer.toHexString(controlCode));
+		return exchange.response;
+	}
+
+	/**
+	 * Nothing to abort: the recorded responses are replayed.
+	 * @see com.itextpdf.smartcard.transport.CardTransport#abort(java.lang.Integer)
+	 */
+	public void abort(Integer abortControlCode) {
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#beginExclusive()
+	 */
+	public void beginExclusive() {
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#endExclusive()
+	 */
+	public void endExclusive() {
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#openLogicalChannel()
+	 */
+	public int openLogicalChannel() throws CardException {
+		Exchange exchange = replay(RecordingTransport.OPEN_CHANNEL, 0, false, null);
+		if (exchange == null)
+			throw new CardException("No logical channel was opened in the recorded session.");
+		synchronized (this) {
+			// like a card, use the lowest free channel number
+			int channelNumber = 1;
+			while (channels.containsKey(channelNumber))
+				channelNumber++;
+			channels.put(channelNumber, exchange.key);
+			return channelNumber;
+		}
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#closeLogicalChannel(int)
+	 */
+	public void closeLogicalChannel(int channelNumber) throws CardException {
+		if (channelNumber == 0)
+			throw new IllegalStateException("The basic channel can't be closed.");
+		int recorded = getRecordedChannel(channelNumber);
+		synchronized (this) {
+			channels.remove(channelNumber);
+		}
+		replay(RecordingTransport.CLOSE_CHANNEL, recorded, true, null);
+	}
+	
+	/**
+	 * Closes all logical channels.
+	 */
+	private synchronized void closeLogicalChannels() {
+		channels.clear();
+		channels.put(0, 0);
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#reconnect()
+	 */
+	public void reconnect() throws CardException {
+		closeLogicalChannels();
+		generation++;
+		connected = true;
+		replay(RecordingTransport.RECONNECT, 0, false, null);
+	}
+
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#disconnect(boolean)
+	 */
+	public void disconnect(boolean reset) {
+		closeLogicalChannels();
+		generation++;
+		connected = false;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "replay of " + atr;
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.transport;
+
+import javax.smartcardio.ATR;
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+
+/**
+ * A javax.smartcardio.Card backed by a CardTransport, so that code
+ * written for javax.smartcardio (e.g. SmartCardIO) works with any transport.
+ * Every connection with the card has its own TransportCard: once the
+ * transport reconnects, the channels of the TransportCard can't be used anymore.
+ */
+public class TransportCard extends Card {
+
+	/** The transport. */
+	protected CardTransport transport;
+	
+	/** The basic channel. */
+	protected TransportChannel basicChannel;
+	
+	/** The generation of the connection this card belongs to. */
+	protected final int generation;
+	
+	/**
+	 * Creates a Card for a transport that is connected.
+	 * @param transport	a CardTransport
+	 */
+	public TransportCard(CardTransport transport) {
+		this.transport = transport;
+		this.generation = transport.getGeneration();
+		this.basicChannel = new TransportChannel(this, 0);
+	}
+	
+	/**
+	 * Returns the transport.
+	 * @return	a CardTransport
+	 */
+	public CardTransport getTransport() {
+		return transport;
+	}
+	
+	/**
+	 * Returns the generation of the connection this card belongs to.
+	 * @return	a generation as returned by CardTransport.getGeneration()
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * Checks if the transport is still on the connection this card belongs to.
+	 * @return	false if the transport reconnected or disconnected
+	 */
+	public boolean isCurrent() {
+		return generation == transport.getGeneration();
+	}
+	
+	/**
+	 * Makes sure the transport is still on the connection this card belongs to.
+	 * @throws CardException	if the transport reconnected or disconnected
+	 */
+	protected void checkCurrent() throws CardException {
+		if (!isCurrent())
+			throw new CardException("The card was reconnected or disconnected.");
+	}
+	
+	/**
+	 * @see javax.smartcardio.Card#getATR()
+	 */
+	public ATR getATR() {
+		return transport.getATR();
+	}
+
+	/**
+	 * @see javax.smartcardio.Card#getProtocol()
+	 */
+	public String getProtocol() {
+		return transport.getProtocol();
+	}
+
+	/**
+	 * @see javax.smartcardio.Card#getBasicChannel()
+	 */
+	public CardChannel getBasicChannel() {
+		return basicChannel;
+	}
+
+	/**
+	 * @see javax.smartcardio.Card#openLogicalChannel()
+	 */
+	public CardChannel openLogicalChannel() throws CardException {
+		checkCurrent();
+		return new TransportChannel(this, transport.openLogicalChannel());
+	}
+
+	/**
+	 * @see javax.smartcardio.Card#beginExclusive()
+	 */
+	public void beginExclusive() throws CardException {
+		transport.beginExclusive();
+	}
+
+	/**
+	 * @see javax.smartcardio.Card#endExclusive()
+	 */
+	public void endExclusive() throws CardException {
+		transport.endExclusive();
+	}
+
+	/**
+	 * @see javax.smartcardio.Card#transmitControlCommand(int, byte[])
+	 */
+	public byte[] transmitControlCommand(int controlCode, byte[] command) throws CardException {
+		checkCurrent();
+		return transport.transmitControlCommand(controlCode, command);
+	}
+
+	/**
+	 * @see javax.smartcardio.Card#disconnect(boolean)
+	 */
+	public void disconnect(boolean reset) throws CardException {
+		transport.disconnect(reset);
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.transport;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A javax.smartcardio.CardChannel backed by a CardTransport.
+ * The channel belongs to one connection with the card: after the transport
+ * reconnected, the same channel number can belong to another channel,
+ * so the channel refuses to send APDUs.
+ */
+public class TransportChannel extends CardChannel {
+
+	/** The card the channel belongs to. */
+	protected TransportCard card;
+	
+	/** The channel number. */
+	protected int channelNumber;
+	
+	/**
+	 * Creates a channel.
+	 * @param card	the card the channel belongs to
+	 * @param channelNumber	the channel number
+	 */
+	public TransportChannel(TransportCard card, int channelNumber) {
+		this.card = card;
+		this.channelNumber = channelNumber;
+	}
+	
+	/**
+	 * @see javax.smartcardio.CardChannel#getCard()
+	 */
+	public Card getCard() {
+		return card;
+	}
+
+	/**
+	 * @see javax.smartcardio.CardChannel#getChannelNumber()
+	 */
+	public int getChannelNumber() {
+		return channelNumber;
+	}
+
+	/**
+	 * @see javax.smartcardio.CardChannel#transmit(javax.smartcardio.CommandAPDU)
+	 */
+	public ResponseAPDU transmit(CommandAPDU command) throws CardException {
+		checkCurrent();
+		ResponseAPDU response = card.getTransport().transmit(channelNumber, command);
+		// the transport may have reconnected while the APDU was sent
+		checkCurrent();
+		return response;
+	}
+
+	/**
+	 * @see javax.smartcardio.CardChannel#transmit(java.nio.ByteBuffer, java.nio.ByteBuffer)
+	 */
+	public int transmit(ByteBuffer command, ByteBuffer response) throws CardException {
+		byte[] commandBytes = new byte[command.remaining()];
+		command.get(commandBytes);
+		byte[] responseBytes = transmit(new CommandAPDU(commandBytes)).getBytes();
+		response.put(responseBytes);
+		return responseBytes.length;
+	}
+
+	/**
+	 * @see javax.smartcardio.CardChannel#close()
+	 */
+	public void close() throws CardException {
+		// the channels of a previous connection were closed when the transport reconnected
+		if (card.isCurrent())
+			card.getTransport().closeLogicalChannel(channelNumber);
+	}
+	
+	/**
+	 * Makes sure the channel belongs to the current connection with the card.
+	 * @throws CardException	if the transport reconnected or disconnected
+	 */
+	protected void checkCurrent() throws CardException {
+		if (!card.isCurrent())
+			throw new CardException("Channel " + channelNumber + " belongs to a previous connection with the card.");
+	}
+}
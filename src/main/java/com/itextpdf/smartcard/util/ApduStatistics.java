@@ -0,0 +1,153 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the APDUs sent by SmartCardIO, and the extra work the
+ * transport layer needed to do for them.
+ */
+public class ApduStatistics {
+
+	/** The number of APDUs that were sent (including the extra APDUs). */
+	private static final AtomicLong APDUS = new AtomicLong();
+	
+	/** The number of commands that were sent again with the Le from a 6Cxx response. */
+	private static final AtomicLong WRONG_LENGTH_RETRIES = new AtomicLong();
+	
+	/** The number of GET RESPONSE commands sent after a 61xx response. */
+	private static final AtomicLong GET_RESPONSES = new AtomicLong();
+	
+	/** The number of times the transport waited between two APDUs. */
+	private static final AtomicLong DELAYS = new AtomicLong();
+	
+	/** The total time the transport waited between APDUs (in milliseconds). */
+	private static final AtomicLong DELAY_TIME = new AtomicLong();
+	
+	/** Counts an APDU. */
+	static void apdu() {
+		APDUS.incrementAndGet();
+	}
+	
+	/** Counts a command that is sent again with the right Le. */
+	static void wrongLengthRetry() {
+		WRONG_LENGTH_RETRIES.incrementAndGet();
+	}
+	
+	/** Counts a GET RESPONSE command. */
+	static void getResponse() {
+		GET_RESPONSES.incrementAndGet();
+	}
+	
+	/**
+	 * Counts a delay between two APDUs.
+	 * @param millis	the duration of the delay
+	 */
+	static void delay(long millis) {
+		DELAYS.incrementAndGet();
+		DELAY_TIME.addAndGet(millis);
+	}
+	
+	/**
+	 * Returns the number of APDUs that were sent.
+	 * @return	a number of APDUs
+	 */
+	public static long getApdus() {
+		return APDUS.get();
+	}
+	
+	/**
+	 * Returns the number of commands that were sent again with the Le from a 6Cxx response.
+	 * @return	a number of commands
+	 */
+	public static long getWrongLengthRetries() {
+		return WRONG_LENGTH_RETRIES.get();
+	}
+	
+	/**
+	 * Returns the number of GET RESPONSE commands sent after a 61xx response.
+	 * @return	a number of commands
+	 */
+	public static long getGetResponses() {
+		return GET_RESPONSES.get();
+	}
+	
+	/**
+	 * Returns the number of times the transport waited between two APDUs.
+	 * @return	a number of delays
+	 */
+	public static long getDelays() {
+		return DELAYS.get();
+	}
+	
+	/**
+	 * Returns the total time the transport waited between APDUs.
+	 * @return	a time in milliseconds
+	 */
+	public static long getDelayTime() {
+		return DELAY_TIME.get();
+	}
+	
+	/**
+	 * Sets all the counters to zero.
+	 */
+	public static void reset() {
+		APDUS.set(0);
+		WRONG_LENGTH_RETRIES.set(0);
+		GET_RESPONSES.set(0);
+		DELAYS.set(0);
+		DELAY_TIME.set(0);
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "APDUs: " + getApdus() + ", 6Cxx retries: " + getWrongLengthRetries()
+				+ ", GET RESPONSE: " + getGetResponses() + ", delays: " + getDelays()
+				+ " (" + getDelayTime() + " ms)";
+	}
+}
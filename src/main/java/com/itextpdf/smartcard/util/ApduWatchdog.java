@@ -0,0 +1,158 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.util;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardException;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches an APDU that is being transmitted. If the card doesn't
+ * respond in time, the waiting thread is interrupted and the card
+ * is reset, so that the blocked transmission fails.
+ */
+class ApduWatchdog implements Runnable {
+
+	/** Logger instance. */
+	private final static Logger LOGGER = LoggerFactory.getLogger(ApduWatchdog.class);
+	
+	/** The timer shared by all the watchdogs. */
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "apdu-watchdog");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	/** The APDU is being transmitted. */
+	private static final int WATCHING = 0;
+	
+	/** The APDU was transmitted in time. */
+	private static final int DONE = 1;
+	
+	/** The APDU timed out. */
+	private static final int FIRED = 2;
+	
+	/** The card the APDU is sent to. */
+	private final Card card;
+	
+	/** The thread that is transmitting. */
+	private final Thread thread;
+	
+	/** The state of the watchdog. */
+	private final AtomicInteger state = new AtomicInteger(WATCHING);
+	
+	/** The scheduled timeout. */
+	private ScheduledFuture<?> future;
+	
+	/**
+	 * Creates a watchdog for the current thread.
+	 * @param card	the card the APDU is sent to
+	 */
+	private ApduWatchdog(Card card) {
+		this.card = card;
+		this.thread = Thread.currentThread();
+	}
+	
+	/**
+	 * Starts watching an APDU that is about to be transmitted by the current thread.
+	 * @param card	the card the APDU is sent to
+	 * @param timeout	the timeout (in milliseconds)
+	 * @return	the watchdog; call {@link #stop()} when the APDU was transmitted
+	 */
+	static ApduWatchdog watch(Card card, long timeout) {
+		ApduWatchdog watchdog = new ApduWatchdog(card);
+		watchdog.future = TIMER.schedule(watchdog, timeout, TimeUnit.MILLISECONDS);
+		return watchdog;
+	}
+	
+	/**
+	 * Stops watching. If the watchdog fired, this waits until the
+	 * thread was interrupted, and clears the interrupt.
+	 * @return	true if the APDU was transmitted in time, false if it timed out
+	 */
+	boolean stop() {
+		if (state.compareAndSet(WATCHING, DONE)) {
+			future.cancel(false);
+			return true;
+		}
+		// the watchdog fired: once we get the lock, the interrupt was sent
+		synchronized (this) {
+			Thread.interrupted();
+		}
+		return false;
+	}
+	
+	/**
+	 * Interrupts the thread and resets the card.
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		// firing and interrupting are atomic for stop()
+		synchronized (this) {
+			if (!state.compareAndSet(WATCHING, FIRED))
+				return;
+			thread.interrupt();
+		}
+		LOGGER.warn("APDU timed out: resetting the card");
+		try {
+			card.disconnect(true);
+		} catch (CardException e) {
+			LOGGER.error("Can't reset the card: " + e.getMessage());
+		} catch (IllegalStateException e) {
+			// the card was already disconnected
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.util;
+
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream that reads a file from a smart card one block at a time.
+ * The file needs to be selected before the stream is created;
+ * use SmartCardIO.openFile() to get an instance.
+ */
+public class CardFileInputStream extends InputStream {
+
+	/** The channel on which the file was selected. */
+	protected CardChannel channel;
+	
+	/** The block that is currently being consumed. */
+	private byte[] block = new byte[0];
+	
+	/** The position in the current block. */
+	private int pos = 0;
+	
+	/** The offset in the file of the next block. */
+	private int offset = 0;
+	
+	/** True if the last block has been read from the card. */
+	private boolean eof = false;
+	
+	/** True if the stream was closed. */
+	private boolean closed = false;
+	
+	/**
+	 * Creates an InputStream for the file that is selected on a channel.
+	 * @param channel	the CardChannel with the selected file
+	 */
+	protected CardFileInputStream(CardChannel channel) {
+		this.channel = channel;
+	}
+	
+	/**
+	 * @see java.io.InputStream#read()
+	 */
+	public int read() throws IOException {
+		if (!fill())
+			return -1;
+		return block[pos++] & 0xFF;
+	}
+	
+	/**
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!fill())
+			return -1;
+		int n = Math.min(len, block.length - pos);
+		System.arraycopy(block, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+	
+	/**
+	 * Returns the number of bytes that can be read without
+	 * sending a command to the card.
+	 * @see java.io.InputStream#available()
+	 */
+	public int available() throws IOException {
+		return block.length - pos;
+	}
+	
+	/**
+	 * Returns the offset in the file of the next byte that will be read.
+	 * @return	an offset
+	 */
+	public int getPosition() {
+		return offset - block.length + pos;
+	}
+	
+	/**
+	 * @see java.io.InputStream#close()
+	 */
+	public void close() throws IOException {
+		closed = true;
+		block = new byte[0];
+		pos = 0;
+		eof = true;
+	}
+	
+	/**
+	 * Makes sure there are bytes left in the current block,
+	 * reading the next block from the card if necessary.
+	 * @return	false if the end of the file is reached
+	 * @throws IOException
+	 */
+	private boolean fill() throws IOException {
+		if (closed)
+			throw new IOException("Stream closed");
+		if (pos < block.length)
+			return true;
+		if (eof)
+			return false;
+		byte[] data;
+		try {
+			synchronized (channel) {
+				data = SmartCardIO.readBlock(channel, offset, SmartCardIO.BLOCK_SIZE);
+			}
+		} catch (CardException e) {
+			throw new IOException(e.getMessage());
+		}
+		if (data == null || data.length == 0) {
+			eof = true;
+			return false;
+		}
+		if (data.length < SmartCardIO.BLOCK_SIZE) {
+			eof = true;
+		}
+		block = data;
+		pos = 0;
+		offset += data.length;
+		return true;
+	}
+}
@@ -0,0 +1,330 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Store for CA and root certificates that are shared by many cards.
+ * Certificates are interned by their SHA-256 fingerprint: chains read
+ * from different cards get the same X509Certificate instance for the
+ * same CA, and a CA certificate is only parsed the first time it's seen.
+ * 
+ * Only trusted certificates (loaded from a directory or added with
+ * {@link #addTrusted(X509Certificate)}) are used to find issuers: a
+ * certificate read from a card is never trusted, so a crafted card
+ * can't change the chains of the cards that are read after it.
+ * An issuer is only returned if its subject matches the issuer name
+ * of the certificate and its key verifies the signature.
+ */
+public class CertificateStore {
+
+	/** Logger instance. */
+	private final static Logger LOGGER = LoggerFactory.getLogger(CertificateStore.class);
+	
+	/** The default maximum number of certificates in a store. */
+	public static final int DEFAULT_MAX_SIZE = 1000;
+	
+	/** A store that is shared by all cards. */
+	private static final CertificateStore SHARED = new CertificateStore();
+	
+	/** The certificates, mapped by fingerprint. */
+	protected ConcurrentMap<ByteBuffer, X509Certificate> certificates = new ConcurrentHashMap<ByteBuffer, X509Certificate>();
+	
+	/** The trusted certificates, mapped by fingerprint. */
+	protected ConcurrentMap<ByteBuffer, X509Certificate> trusted = new ConcurrentHashMap<ByteBuffer, X509Certificate>();
+	
+	/** The trusted certificates, mapped by subject key identifier. */
+	protected ConcurrentMap<ByteBuffer, X509Certificate> bySubjectKeyIdentifier = new ConcurrentHashMap<ByteBuffer, X509Certificate>();
+	
+	/**
+	 * The maximum number of certificates. When the store is full, new
+	 * certificates are still returned, but no longer interned. This
+	 * protects the store against callers interning leaf certificates.
+	 */
+	protected int maxSize = DEFAULT_MAX_SIZE;
+	
+	/**
+	 * Returns the store that is shared by all cards.
+	 * @return	a CertificateStore
+	 */
+	public static CertificateStore getSharedInstance() {
+		return SHARED;
+	}
+	
+	/**
+	 * Sets the maximum number of certificates in the store.
+	 * @param maxSize	a number of certificates
+	 */
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+	
+	/**
+	 * Returns the certificate in the store with the same DER encoding,
+	 * parsing and adding the certificate if it isn't in the store yet.
+	 * @param certificate	a certificate read from a card
+	 * @return	the shared X509Certificate instance
+	 * @throws CertificateException
+	 */
+	public X509Certificate intern(LazyCertificate certificate) throws CertificateException {
+		ByteBuffer key = ByteBuffer.wrap(certificate.getFingerprint());
+		X509Certificate cert = certificates.get(key);
+		if (cert != null)
+			return cert;
+		return add(key, certificate);
+	}
+	
+	/**
+	 * Returns the certificate in the store with the same DER encoding,
+	 * adding the certificate if it isn't in the store yet.
+	 * @param certificate	a certificate
+	 * @return	the shared X509Certificate instance
+	 * @throws CertificateException
+	 */
+	public X509Certificate intern(X509Certificate certificate) throws CertificateException {
+		return intern(new LazyCertificate(certificate));
+	}
+	
+	/**
+	 * Adds a trusted CA or root certificate to the store; it will be
+	 * used to find the issuer of certificates read from cards.
+	 * @param certificate	a trusted certificate
+	 * @return	the shared X509Certificate instance
+	 * @throws CertificateException
+	 */
+	public X509Certificate addTrusted(X509Certificate certificate) throws CertificateException {
+		LazyCertificate lazy = new LazyCertificate(certificate);
+		X509Certificate cert = intern(lazy);
+		if (trusted.putIfAbsent(ByteBuffer.wrap(lazy.getFingerprint()), cert) == null) {
+			LOGGER.info("Trusting certificate: " + cert.getSubjectX500Principal().getName());
+			byte[] subjectKeyIdentifier = lazy.getSubjectKeyIdentifier();
+			if (subjectKeyIdentifier != null) {
+				bySubjectKeyIdentifier.putIfAbsent(ByteBuffer.wrap(subjectKeyIdentifier), cert);
+			}
+		}
+		return cert;
+	}
+	
+	/**
+	 * Adds all the certificates found in the files of a directory
+	 * (DER or PEM encoded) to the store as trusted certificates.
+	 * @param directory	a directory containing CA and root certificates
+	 * @return	the number of certificates that were read
+	 * @throws IOException
+	 */
+	public int load(File directory) throws IOException {
+		LOGGER.info("Loading certificates from " + directory);
+		File[] files = directory.listFiles();
+		if (files == null)
+			throw new IOException("Not a directory: " + directory);
+		int count = 0;
+		for (File file : files) {
+			if (!file.isFile())
+				continue;
+			InputStream is = new FileInputStream(file);
+			try {
+				for (Certificate certificate : LazyCertificate.getFactory().generateCertificates(is)) {
+					addTrusted((X509Certificate) certificate);
+					count++;
+				}
+			} catch (CertificateException e) {
+				LOGGER.warn("Not a certificate file: " + file.getName());
+			}
+			finally {
+				is.close();
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Finds a trusted certificate by its subject key identifier.
+	 * @param subjectKeyIdentifier	a key identifier
+	 * @return	a certificate, or null if there's no trusted certificate with this key identifier
+	 */
+	public X509Certificate findBySubjectKeyIdentifier(byte[] subjectKeyIdentifier) {
+		if (subjectKeyIdentifier == null)
+			return null;
+		return bySubjectKeyIdentifier.get(ByteBuffer.wrap(subjectKeyIdentifier));
+	}
+	
+	/**
+	 * Finds a trusted certificate by its subject name.
+	 * @param subject	a subject name
+	 * @return	a certificate, or null if there's no trusted certificate with this subject
+	 */
+	public X509Certificate findBySubject(X500Principal subject) {
+		for (X509Certificate certificate : trusted.values()) {
+			if (subject.equals(certificate.getSubjectX500Principal()))
+				return certificate;
+		}
+		return null;
+	}
+	
+	/**
+	 * Finds all the trusted certificates with a subject name
+	 * (e.g. the old and the new certificate of a CA after a key rollover).
+	 * @param subject	a subject name
+	 * @return	a list of certificates (empty if there's no trusted certificate with this subject)
+	 */
+	public List<X509Certificate> findAllBySubject(X500Principal subject) {
+		List<X509Certificate> found = new ArrayList<X509Certificate>();
+		for (X509Certificate certificate : trusted.values()) {
+			if (subject.equals(certificate.getSubjectX500Principal()))
+				found.add(certificate);
+		}
+		return found;
+	}
+	
+	/**
+	 * Finds the trusted issuer of a certificate using its authority key identifier.
+	 * @param certificate	a certificate
+	 * @return	the issuer certificate, or null if no trusted certificate issued it
+	 * @throws CertificateException
+	 */
+	public X509Certificate findIssuer(LazyCertificate certificate) throws CertificateException {
+		X509Certificate issuer = findBySubjectKeyIdentifier(certificate.getAuthorityKeyIdentifier());
+		if (issuer == null)
+			return null;
+		if (!isIssuedBy(certificate, issuer)) {
+			LOGGER.warn("Certificate wasn't issued by " + issuer.getSubjectX500Principal().getName());
+			return null;
+		}
+		return issuer;
+	}
+	
+	/**
+	 * Checks if a certificate was issued by another certificate: the issuer
+	 * name has to match and the signature has to verify with the issuer key.
+	 * @param certificate	a certificate
+	 * @param issuer	the presumed issuer
+	 * @return	true if the certificate was issued by the issuer
+	 * @throws CertificateException	if the certificate can't be parsed
+	 */
+	public static boolean isIssuedBy(LazyCertificate certificate, X509Certificate issuer) throws CertificateException {
+		X509Certificate cert = certificate.getCertificate();
+		if (!cert.getIssuerX500Principal().equals(issuer.getSubjectX500Principal()))
+			return false;
+		try {
+			cert.verify(issuer.getPublicKey());
+			return true;
+		} catch (GeneralSecurityException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Checks if a certificate is trusted.
+	 * @param certificate	a certificate
+	 * @return	true if the certificate was added as a trusted certificate
+	 */
+	public boolean isTrusted(LazyCertificate certificate) {
+		return trusted.containsKey(ByteBuffer.wrap(certificate.getFingerprint()));
+	}
+	
+	/**
+	 * Checks if a certificate is in the store.
+	 * @param certificate	a certificate
+	 * @return	true if a certificate with the same fingerprint is in the store
+	 */
+	public boolean contains(LazyCertificate certificate) {
+		return certificates.containsKey(ByteBuffer.wrap(certificate.getFingerprint()));
+	}
+	
+	/**
+	 * Returns the number of certificates in the store.
+	 * @return	a number of certificates
+	 */
+	public int size() {
+		return certificates.size();
+	}
+	
+	/**
+	 * Removes all the certificates from the store.
+	 */
+	public void clear() {
+		certificates.clear();
+		trusted.clear();
+		bySubjectKeyIdentifier.clear();
+	}
+	
+	/**
+	 * Adds a certificate to the store, unless another thread was first.
+	 * @param key	the fingerprint of the certificate
+	 * @param certificate	the certificate
+	 * @return	the certificate that is in the store
+	 * @throws CertificateException
+	 */
+	protected X509Certificate add(ByteBuffer key, LazyCertificate certificate) throws CertificateException {
+		X509Certificate cert = certificate.getCertificate();
+		if (certificates.size() >= maxSize) {
+			LOGGER.warn("Certificate store is full");
+			return cert;
+		}
+		LOGGER.info("Adding certificate to store: " + cert.getSubjectX500Principal().getName());
+		X509Certificate existing = certificates.putIfAbsent(key, cert);
+		if (existing != null)
+			return existing;
+		return cert;
+	}
+}
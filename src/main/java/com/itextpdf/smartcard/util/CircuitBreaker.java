@@ -0,0 +1,213 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.util;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardException;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops sending APDUs to a card (reader) that keeps failing or that
+ * keeps responding too slowly. After a number of consecutive failures
+ * or slow responses, the breaker opens: every APDU fails immediately.
+ * After a while, one APDU is let through; if it succeeds, the breaker
+ * closes again, otherwise it stays open for another period.
+ */
+public class CircuitBreaker {
+
+	/** Logger instance. */
+	private final static Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+	
+	/** The states of a circuit breaker. */
+	public enum State {
+		/** APDUs are sent to the card. */
+		CLOSED,
+		/** APDUs fail without being sent to the card. */
+		OPEN,
+		/** One APDU is sent to test if the card works again. */
+		HALF_OPEN
+	}
+	
+	/** The circuit breakers of the cards that are in use. */
+	private static final Map<Card, CircuitBreaker> BREAKERS = new WeakHashMap<Card, CircuitBreaker>();
+	
+	/** The number of consecutive failures (or slow responses) that opens the breaker. */
+	protected int failureThreshold = 5;
+	
+	/** The response time above which a response counts as a failure (in milliseconds). */
+	protected long latencyThreshold = 5000;
+	
+	/** The time the breaker stays open before an APDU is let through (in milliseconds). */
+	protected long openTime = 30000;
+	
+	/** The current state. */
+	private State state = State.CLOSED;
+	
+	/** The number of consecutive failures. */
+	private int failures;
+	
+	/** The moment the breaker was opened. */
+	private long openedAt;
+	
+	/**
+	 * Gets the circuit breaker of a card, creating it if necessary.
+	 * @param card	a connected card
+	 * @return	a CircuitBreaker
+	 */
+	public static CircuitBreaker forCard(Card card) {
+		synchronized (BREAKERS) {
+			CircuitBreaker breaker = BREAKERS.get(card);
+			if (breaker == null) {
+				breaker = new CircuitBreaker();
+				BREAKERS.put(card, breaker);
+			}
+			return breaker;
+		}
+	}
+	
+	/**
+	 * Keeps using a circuit breaker for a card that was reconnected.
+	 * @param card	the new connection with the card
+	 * @param breaker	the circuit breaker of the previous connection
+	 */
+	public static void assign(Card card, CircuitBreaker breaker) {
+		synchronized (BREAKERS) {
+			BREAKERS.put(card, breaker);
+		}
+	}
+	
+	/**
+	 * Sets the thresholds of the breaker.
+	 * @param failureThreshold	the number of consecutive failures that opens the breaker
+	 * @param latencyThreshold	the response time (in ms) above which a response counts as a failure
+	 * @param openTime	the time (in ms) the breaker stays open
+	 */
+	public synchronized void setThresholds(int failureThreshold, long latencyThreshold, long openTime) {
+		this.failureThreshold = failureThreshold;
+		this.latencyThreshold = latencyThreshold;
+		this.openTime = openTime;
+	}
+	
+	/**
+	 * Returns the state of the breaker.
+	 * @return	a State
+	 */
+	public synchronized State getState() {
+		if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openTime)
+			return State.HALF_OPEN;
+		return state;
+	}
+	
+	/**
+	 * Checks if an APDU can be sent.
+	 * @return	true if the APDU can be sent
+	 */
+	public synchronized boolean allowRequest() {
+		switch (state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (System.currentTimeMillis() - openedAt < openTime)
+				return false;
+			LOGGER.info("Circuit breaker half open: testing the card");
+			state = State.HALF_OPEN;
+			return true;
+		default:
+			// a test is already going on
+			return false;
+		}
+	}
+	
+	/**
+	 * Throws an exception if an APDU can't be sent.
+	 * @throws CardException
+	 */
+	public void check() throws CardException {
+		if (!allowRequest())
+			throw new CardException("Circuit breaker open: the card (reader) is failing.");
+	}
+	
+	/**
+	 * Registers a response.
+	 * @param latency	the response time (in milliseconds)
+	 */
+	public synchronized void recordSuccess(long latency) {
+		if (latency > latencyThreshold) {
+			LOGGER.warn("Slow response: " + latency + " ms");
+			recordFailure();
+			return;
+		}
+		if (state != State.CLOSED)
+			LOGGER.info("Circuit breaker closed");
+		state = State.CLOSED;
+		failures = 0;
+	}
+	
+	/**
+	 * Registers a failure.
+	 */
+	public synchronized void recordFailure() {
+		failures++;
+		if (state == State.HALF_OPEN || failures >= failureThreshold) {
+			if (state != State.OPEN)
+				LOGGER.warn("Circuit breaker open after " + failures + " failure(s)");
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+		}
+	}
+	
+	/**
+	 * Closes the breaker (e.g. after the card was reconnected).
+	 */
+	public synchronized void reset() {
+		state = State.CLOSED;
+		failures = 0;
+	}
+}
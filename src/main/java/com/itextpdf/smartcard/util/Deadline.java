@@ -0,0 +1,145 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.util;
+
+import javax.smartcardio.CardException;
+
+/**
+ * The moment before which an operation on a card must be finished.
+ * A deadline is attached to the current thread, so that every APDU sent
+ * by that thread (see SmartCardIO#transmit) is limited to the time left,
+ * without passing the deadline through all the methods in between:
+ * <pre>
+ * Deadline previous = Deadline.after(5000).attach();
+ * try {
+ *     card.sign(digest, "SHA-256");
+ * }
+ * finally {
+ *     Deadline.restore(previous);
+ * }
+ * </pre>
+ */
+public final class Deadline {
+
+	/** The deadline of the current thread. */
+	private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<Deadline>();
+	
+	/** The moment of the deadline (System.currentTimeMillis()). */
+	private final long time;
+	
+	/**
+	 * Creates a deadline.
+	 * @param time	the moment of the deadline (System.currentTimeMillis())
+	 */
+	public Deadline(long time) {
+		this.time = time;
+	}
+	
+	/**
+	 * Creates a deadline a number of milliseconds from now.
+	 * @param millis	a number of milliseconds
+	 * @return	a Deadline
+	 */
+	public static Deadline after(long millis) {
+		return new Deadline(System.currentTimeMillis() + millis);
+	}
+	
+	/**
+	 * Returns the deadline of the current thread.
+	 * @return	a Deadline, or null if the thread has no deadline
+	 */
+	public static Deadline current() {
+		return CURRENT.get();
+	}
+	
+	/**
+	 * Makes this deadline the deadline of the current thread,
+	 * unless the thread already has an earlier deadline.
+	 * @return	the previous deadline of the thread (can be null),
+	 * to be passed to {@link #restore(Deadline)}
+	 */
+	public Deadline attach() {
+		Deadline previous = CURRENT.get();
+		if (previous == null || previous.time > time)
+			CURRENT.set(this);
+		return previous;
+	}
+	
+	/**
+	 * Restores the deadline the current thread had before {@link #attach()}.
+	 * @param previous	the value returned by attach()
+	 */
+	public static void restore(Deadline previous) {
+		if (previous == null)
+			CURRENT.remove();
+		else
+			CURRENT.set(previous);
+	}
+	
+	/**
+	 * Returns the moment of the deadline.
+	 * @return	a time as returned by System.currentTimeMillis()
+	 */
+	public long getTime() {
+		return time;
+	}
+	
+	/**
+	 * Returns the time left.
+	 * @return	a number of milliseconds (0 or negative if the deadline has passed)
+	 */
+	public long remaining() {
+		return time - System.currentTimeMillis();
+	}
+	
+	/**
+	 * Throws an exception if the deadline has passed.
+	 * @throws CardException
+	 */
+	public void check() throws CardException {
+		if (remaining() <= 0)
+			throw new CardException("Deadline expired.");
+	}
+}
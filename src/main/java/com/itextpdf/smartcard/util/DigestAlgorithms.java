@@ -122,4 +122,45 @@ public class DigestAlgorithms {
 	
 	/** The digest name for plain text. */
 	public static String PLAIN_TEXT = "2.16.56.1.2.1.3.1";
+	
+	/**
+	 * Creates the prefix for a plain text message of a specific length.
+	 * Unlike the PLAIN_TEXT_PREFIX, the lengths are DER encoded, so that
+	 * messages longer than 127 bytes can be signed.
+	 * @param length	the length of the message
+	 * @return	the bytes that precede the message
+	 */
+	public static byte[] getPlainTextPrefix(int length) {
+		byte[] messageLength = getDerLength(length);
+		// the algorithm identifier, the OCTET STRING tag and length, and the message
+		int contentLength = PLAIN_TEXT_PREFIX.length - 4 + 1 + messageLength.length + length;
+		byte[] contentLengthBytes = getDerLength(contentLength);
+		byte[] prefix = new byte[1 + contentLengthBytes.length + contentLength - length];
+		int offset = 0;
+		prefix[offset++] = PLAIN_TEXT_PREFIX[0];
+		System.arraycopy(contentLengthBytes, 0, prefix, offset, contentLengthBytes.length);
+		offset += contentLengthBytes.length;
+		System.arraycopy(PLAIN_TEXT_PREFIX, 2, prefix, offset, PLAIN_TEXT_PREFIX.length - 3);
+		offset += PLAIN_TEXT_PREFIX.length - 3;
+		System.arraycopy(messageLength, 0, prefix, offset, messageLength.length);
+		return prefix;
+	}
+	
+	/**
+	 * Encodes a length using the DER rules (short form up to 127, long form otherwise).
+	 * @param length	a length
+	 * @return	the encoded length
+	 */
+	private static byte[] getDerLength(int length) {
+		if (length < 0x80)
+			return new byte[] { (byte)length };
+		int size = length > 0xFFFFFF ? 4 : length > 0xFFFF ? 3 : length > 0xFF ? 2 : 1;
+		byte[] b = new byte[size + 1];
+		b[0] = (byte)(0x80 | size);
+		for (int i = size; i > 0; i--) {
+			b[i] = (byte)length;
+			length >>>= 8;
+		}
+		return b;
+	}
 }
@@ -51,13 +51,16 @@ public class IsoIec7816 {
 
 	// class bytes
 	public static final byte CLA_00 = (byte)0x00;
+	public static final byte CLA_COMMAND_CHAINING = (byte)0x10;
 	
 	// instruction bytes (ins parameter in CommandAPDU)
 	public static final byte INS_VERIFY_DATA = (byte)0x20;
+	public static final byte INS_CHANGE_REFERENCE_DATA = (byte)0x24;
 	public static final byte INS_MANAGE_SECURITY_ENVIRONMENT = (byte)0x22;
 	public static final byte INS_PERFORM_SECURITY_OPERATION = (byte)0x2A;
 	public static final byte INS_SELECT = (byte)0xA4;
 	public static final byte INS_READ_BINARY = (byte)0xB0;
+	public static final byte INS_GET_RESPONSE = (byte)0xC0;
 	
 	// parameters
 	public static final byte P1_00 = (byte)0x00;
@@ -72,6 +75,7 @@ public class IsoIec7816 {
 	// status bytes
 	
 	// SW1
+	public static final int SW1_BYTES_REMAINING = 0x61;
 	public static final int SW1_WARNING = 0x63;
 	public static final int SW1_ABORTED = 0x6C;
 	
@@ -82,4 +86,8 @@ public class IsoIec7816 {
 	public static final int SW_AUTHENTICATION_METHOD_BLOCKED = 0x6983;
 	public static final int SW_WRONG_PARAMETERS = 0x6B00;
 	public static final int SW_NO_FURTHER_QUALIFICATION = 0x9000;
+	
+	// lengths
+	public static final int MAX_SHORT_LC = 0xFF;
+	public static final int MAX_EXTENDED_LC = 0xFFFF;
 }
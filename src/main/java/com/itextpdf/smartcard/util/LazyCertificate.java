@@ -0,0 +1,363 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.util;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+/**
+ * Holds the DER bytes of an X.509 certificate read from a card.
+ * The fingerprint, the serial number, the issuer and the key identifiers
+ * are obtained with a minimal scan of the DER structure; the certificate
+ * is only parsed into an X509Certificate when you ask for it.
+ */
+public class LazyCertificate {
+
+	/** Object identifier of the authority key identifier extension (2.5.29.35). */
+	private static final byte[] OID_AUTHORITY_KEY_IDENTIFIER = new byte[] { 0x55, 0x1D, 0x23 };
+	
+	/** Object identifier of the subject key identifier extension (2.5.29.14). */
+	private static final byte[] OID_SUBJECT_KEY_IDENTIFIER = new byte[] { 0x55, 0x1D, 0x0E };
+	
+	/** Object identifier of an RSA public key (1.2.840.113549.1.1.1). */
+	private static final byte[] OID_RSA_ENCRYPTION = new byte[] {
+		0x2A, (byte)0x86, 0x48, (byte)0x86, (byte)0xF7, 0x0D, 0x01, 0x01, 0x01 };
+	
+	/** Object identifier of an elliptic curve public key (1.2.840.10045.2.1). */
+	private static final byte[] OID_EC_PUBLIC_KEY = new byte[] {
+		0x2A, (byte)0x86, 0x48, (byte)0xCE, 0x3D, 0x02, 0x01 };
+	
+	/** A CertificateFactory per thread (CertificateFactory isn't thread-safe). */
+	private static final ThreadLocal<CertificateFactory> FACTORY = new ThreadLocal<CertificateFactory>() {
+		protected CertificateFactory initialValue() {
+			try {
+				return CertificateFactory.getInstance("X.509");
+			} catch (CertificateException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+	
+	/** The DER encoded certificate. */
+	protected byte[] encoded;
+	
+	/** The SHA-256 fingerprint (computed on demand). */
+	private byte[] fingerprint;
+	
+	/** The parsed certificate (created on demand). */
+	private X509Certificate certificate;
+	
+	/**
+	 * Creates a LazyCertificate from DER bytes.
+	 * @param encoded	the DER encoded certificate
+	 * @throws CertificateException	if the bytes don't start with a DER sequence
+	 */
+	public LazyCertificate(byte[] encoded) throws CertificateException {
+		if (encoded == null || encoded.length < 2 || encoded[0] != 0x30)
+			throw new CertificateException("Not a DER encoded certificate");
+		int end = end(encoded, 0);
+		if (end < encoded.length) {
+			// files on a card can be padded after the certificate
+			encoded = Arrays.copyOf(encoded, end);
+		}
+		this.encoded = encoded;
+	}
+	
+	/**
+	 * Creates a LazyCertificate for a certificate that is already parsed.
+	 * @param certificate	an X509Certificate
+	 * @throws CertificateException
+	 */
+	public LazyCertificate(X509Certificate certificate) throws CertificateException {
+		this(certificate.getEncoded());
+		this.certificate = certificate;
+	}
+	
+	/**
+	 * Returns a cached X.509 CertificateFactory for the current thread.
+	 * @return	a CertificateFactory
+	 */
+	public static CertificateFactory getFactory() {
+		return FACTORY.get();
+	}
+	
+	/**
+	 * Returns the DER encoded certificate.
+	 * @return	the DER bytes (not a copy)
+	 */
+	public byte[] getEncoded() {
+		return encoded;
+	}
+	
+	/**
+	 * Returns the SHA-256 fingerprint of the certificate.
+	 * @return	32 bytes
+	 */
+	public synchronized byte[] getFingerprint() {
+		if (fingerprint == null) {
+			try {
+				fingerprint = MessageDigest.getInstance("SHA-256").digest(encoded);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return fingerprint;
+	}
+	
+	/**
+	 * Returns the serial number without parsing the certificate.
+	 * @return	the serial number
+	 * @throws CertificateException
+	 */
+	public BigInteger getSerialNumber() throws CertificateException {
+		int pos = tbsFirstField();
+		return new BigInteger(Arrays.copyOfRange(encoded, valueOffset(encoded, pos), end(encoded, pos)));
+	}
+	
+	/**
+	 * Returns the DER encoded issuer name without parsing the certificate.
+	 * @return	the issuer name as a DER sequence
+	 * @throws CertificateException
+	 */
+	public byte[] getIssuerEncoded() throws CertificateException {
+		// serial number, signature algorithm, issuer
+		int pos = tbsFirstField();
+		pos = end(encoded, pos);
+		pos = end(encoded, pos);
+		return Arrays.copyOfRange(encoded, pos, end(encoded, pos));
+	}
+	
+	/**
+	 * Returns the algorithm of the public key without parsing the certificate.
+	 * @return	"RSA", "EC", or null for other algorithms
+	 * @throws CertificateException
+	 */
+	public String getPublicKeyAlgorithm() throws CertificateException {
+		// serial number, signature algorithm, issuer, validity, subject, subject public key info
+		int pos = tbsFirstField();
+		for (int i = 0; i < 5; i++)
+			pos = end(encoded, pos);
+		// SubjectPublicKeyInfo ::= SEQUENCE { algorithm SEQUENCE { OID, parameters }, subjectPublicKey BIT STRING }
+		int oid = valueOffset(encoded, valueOffset(encoded, pos));
+		if (oid >= encoded.length || encoded[oid] != 0x06)
+			throw new CertificateException("No public key algorithm found");
+		int oidOffset = valueOffset(encoded, oid);
+		int oidLength = end(encoded, oid) - oidOffset;
+		if (oidLength == OID_RSA_ENCRYPTION.length && equals(encoded, oidOffset, OID_RSA_ENCRYPTION))
+			return "RSA";
+		if (oidLength == OID_EC_PUBLIC_KEY.length && equals(encoded, oidOffset, OID_EC_PUBLIC_KEY))
+			return "EC";
+		return null;
+	}
+	
+	/**
+	 * Returns the key identifier of the authority key identifier extension.
+	 * @return	the key identifier, or null if the extension is absent
+	 * @throws CertificateException
+	 */
+	public byte[] getAuthorityKeyIdentifier() throws CertificateException {
+		byte[] value = getExtensionValue(OID_AUTHORITY_KEY_IDENTIFIER);
+		if (value == null)
+			return null;
+		if (value.length == 0)
+			throw new CertificateException("Empty authority key identifier extension");
+		if (value[0] != 0x30)
+			return null;
+		// AuthorityKeyIdentifier ::= SEQUENCE { keyIdentifier [0] IMPLICIT OCTET STRING OPTIONAL, ... }
+		int pos = valueOffset(value, 0);
+		int end = end(value, 0);
+		if (pos < end && (value[pos] & 0xFF) == 0x80)
+			return Arrays.copyOfRange(value, valueOffset(value, pos), end(value, pos));
+		return null;
+	}
+	
+	/**
+	 * Returns the key identifier of the subject key identifier extension.
+	 * @return	the key identifier, or null if the extension is absent
+	 * @throws CertificateException
+	 */
+	public byte[] getSubjectKeyIdentifier() throws CertificateException {
+		byte[] value = getExtensionValue(OID_SUBJECT_KEY_IDENTIFIER);
+		if (value == null)
+			return null;
+		if (value.length == 0)
+			throw new CertificateException("Empty subject key identifier extension");
+		if (value[0] != 0x04)
+			return null;
+		return Arrays.copyOfRange(value, valueOffset(value, 0), end(value, 0));
+	}
+	
+	/**
+	 * Parses the certificate (only the first time this method is called).
+	 * @return	an X509Certificate
+	 * @throws CertificateException
+	 */
+	public synchronized X509Certificate getCertificate() throws CertificateException {
+		if (certificate == null) {
+			certificate = (X509Certificate) getFactory().generateCertificate(new ByteArrayInputStream(encoded));
+		}
+		return certificate;
+	}
+	
+	/**
+	 * Looks for an extension and returns the content of its OCTET STRING.
+	 * @param oid	the content of the object identifier of the extension
+	 * @return	the value of the extension, or null
+	 * @throws CertificateException
+	 */
+	protected byte[] getExtensionValue(byte[] oid) throws CertificateException {
+		int tbs = valueOffset(encoded, 0);
+		int tbsEnd = end(encoded, tbs);
+		int pos = valueOffset(encoded, tbs);
+		// we look for the extensions: [3] EXPLICIT
+		while (pos < tbsEnd && (encoded[pos] & 0xFF) != 0xA3) {
+			pos = end(encoded, pos);
+		}
+		if (pos >= tbsEnd)
+			return null;
+		int extensions = valueOffset(encoded, pos);
+		int extensionsEnd = end(encoded, extensions);
+		pos = valueOffset(encoded, extensions);
+		while (pos < extensionsEnd) {
+			int extensionEnd = end(encoded, pos);
+			// Extension ::= SEQUENCE { extnID OID, critical BOOLEAN DEFAULT FALSE, extnValue OCTET STRING }
+			int field = valueOffset(encoded, pos);
+			if (field < extensionEnd && encoded[field] == 0x06) {
+				int oidOffset = valueOffset(encoded, field);
+				int oidEnd = end(encoded, field);
+				if (oidEnd - oidOffset == oid.length && equals(encoded, oidOffset, oid)) {
+					field = oidEnd;
+					if (field < extensionEnd && encoded[field] == 0x01)
+						field = end(encoded, field);
+					if (field < extensionEnd && encoded[field] == 0x04)
+						return Arrays.copyOfRange(encoded, valueOffset(encoded, field), end(encoded, field));
+					return null;
+				}
+			}
+			pos = extensionEnd;
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the position of the serial number in the TBSCertificate.
+	 * @return	an offset in the encoded certificate
+	 * @throws CertificateException
+	 */
+	private int tbsFirstField() throws CertificateException {
+		int pos = valueOffset(encoded, valueOffset(encoded, 0));
+		// skip the version: [0] EXPLICIT
+		if (pos < encoded.length && (encoded[pos] & 0xFF) == 0xA0)
+			pos = end(encoded, pos);
+		if (pos >= encoded.length || encoded[pos] != 0x02)
+			throw new CertificateException("Serial number not found");
+		return pos;
+	}
+	
+	/**
+	 * Returns the offset of the value of a DER object.
+	 * @param der	a byte array with DER objects
+	 * @param pos	the offset of the tag of an object
+	 * @return	the offset of the value of the object
+	 * @throws CertificateException
+	 */
+	private static int valueOffset(byte[] der, int pos) throws CertificateException {
+		if (pos + 1 >= der.length)
+			throw new CertificateException("Unexpected end of DER data");
+		int l = der[pos + 1] & 0xFF;
+		if (l < 0x80)
+			return pos + 2;
+		return pos + 2 + (l & 0x7F);
+	}
+	
+	/**
+	 * Returns the offset of the first byte after a DER object.
+	 * @param der	a byte array with DER objects
+	 * @param pos	the offset of the tag of an object
+	 * @return	the offset after the value of the object
+	 * @throws CertificateException
+	 */
+	private static int end(byte[] der, int pos) throws CertificateException {
+		if (pos + 1 >= der.length)
+			throw new CertificateException("Unexpected end of DER data");
+		int l = der[pos + 1] & 0xFF;
+		int length;
+		int offset;
+		if (l < 0x80) {
+			length = l;
+			offset = pos + 2;
+		}
+		else {
+			int n = l & 0x7F;
+			if (n == 0 || n > 3 || pos + 2 + n > der.length)
+				throw new CertificateException("Unsupported DER length");
+			length = 0;
+			for (int i = 0; i < n; i++) {
+				length = (length << 8) | (der[pos + 2 + i] & 0xFF);
+			}
+			offset = pos + 2 + n;
+		}
+		if (offset + length > der.length)
+			throw new CertificateException("Unexpected end of DER data");
+		return offset + length;
+	}
+	
+	/**
+	 * Compares a part of a byte array with another byte array.
+	 */
+	private static boolean equals(byte[] b, int offset, byte[] other) {
+		for (int i = 0; i < other.length; i++) {
+			if (b[offset + i] != other[i])
+				return false;
+		}
+		return true;
+	}
+}
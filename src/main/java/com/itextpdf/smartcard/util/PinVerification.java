@@ -95,6 +95,15 @@ public class PinVerification {
 
 	/** Maximum pin size. */
 	public static final int MAX_PIN_SIZE = 12;
+	
+	/** The default time (in seconds) the user gets to enter a PIN on a pin pad. */
+	public static final int DEFAULT_PIN_TIMEOUT = 30;
+	
+	/** The PIN entry ends when the maximum size is reached (bEntryValidationCondition). */
+	public static final int VALIDATION_MAX_SIZE_REACHED = 0x01;
+	
+	/** The PIN entry ends when the validation key is pressed (bEntryValidationCondition). */
+	public static final int VALIDATION_KEY_PRESSED = 0x02;
 
 	/**
 	 * Verifies the pin on the smart card reader.
@@ -107,8 +116,9 @@ public class PinVerification {
 	public static ResponseAPDU verifyPinDirect(SmartCardWithKey card,
 			Integer verifyPinDirectCommand) throws CardException, IOException {
 		LOGGER.info("Verify PIN direct");
-		byte[] commandData = createPINVerificationDataStructure(IsoIec7816.INS_VERIFY_DATA);
-		byte[] result = card.getCard().transmitControlCommand(verifyPinDirectCommand, commandData);
+		byte[] commandData = createPINVerificationDataStructure(IsoIec7816.INS_VERIFY_DATA,
+				card.getFeatures(), card.getPinEntryTimeout());
+		byte[] result = card.getTransport().transmitControlCommand(verifyPinDirectCommand, commandData);
 		ResponseAPDU responseAPDU = new ResponseAPDU(result);
 		if (responseAPDU.getSW() == IsoIec7816.SW_USER_ABORTED) {
 			LOGGER.warn("Pin entry cancelled by user");
@@ -130,16 +140,17 @@ public class PinVerification {
 	 */
 	public static ResponseAPDU verifyPinStart(SmartCardWithKey card,
 			Integer verifyPinStartCommand) throws IOException, CardException {
-		LOGGER.info("Verify PIN direct");
-		byte[] commandData = createPINVerificationDataStructure(IsoIec7816.INS_VERIFY_DATA);
-		card.getCard().transmitControlCommand(verifyPinStartCommand, commandData);
+		LOGGER.info("Verify PIN start");
+		byte[] commandData = createPINVerificationDataStructure(IsoIec7816.INS_VERIFY_DATA,
+				card.getFeatures(), card.getPinEntryTimeout());
+		card.getTransport().transmitControlCommand(verifyPinStartCommand, commandData);
 		try {
 			waitForPin(card);
 		} catch (InterruptedException e) {
 			throw new IOException(e.getMessage());
 		}
 		int feature = card.getFeature(Features.FEATURE_VERIFY_PIN_FINISH_TAG);
-		byte[] result = card.getCard().transmitControlCommand(feature, new byte[0]);
+		byte[] result = card.getTransport().transmitControlCommand(feature, new byte[0]);
 		LOGGER.info("PIN verified");
 		return new ResponseAPDU(result);
 	}
@@ -193,10 +204,39 @@ public class PinVerification {
 	 */
 	public static byte[] createPINVerificationDataStructure(int ins)
 			throws IOException {
+		return createPINVerificationDataStructure(ins, null, DEFAULT_PIN_TIMEOUT);
+	}
+	
+	/**
+	 * Creates a PIN verification data structure adapted to the properties of the pin pad.
+	 * @param ins should be 0x20 or 0x21 for PIN codes
+	 * @param features	the features of the reader (or null if unknown)
+	 * @param timeout	the time (in seconds) the user gets to start entering the PIN
+	 * @return a byte array that can be used as command data for verifying a pin code
+	 * @throws IOException
+	 */
+	public static byte[] createPINVerificationDataStructure(int ins, Features features, int timeout)
+			throws IOException {
 		LOGGER.info("Create pin verification data structure");
+		int timeout2 = timeout;
+		int validationCondition = VALIDATION_KEY_PRESSED;
+		int numberMessage = 0x01;
+		if (features != null) {
+			// the pin pad knows how long it takes to finish a PIN
+			if (features.getTimeOut2() > 0)
+				timeout2 = features.getTimeOut2();
+			// not every pin pad has a validation key
+			if (features.getEntryValidationCondition() > 0
+					&& (features.getEntryValidationCondition() & VALIDATION_KEY_PRESSED) == 0)
+				validationCondition = (features.getEntryValidationCondition() & VALIDATION_MAX_SIZE_REACHED) != 0
+					? VALIDATION_MAX_SIZE_REACHED : features.getEntryValidationCondition();
+			// a pin pad without display can't show a message
+			if (features.getLcdLayout() == 0)
+				numberMessage = 0x00;
+		}
 		ByteArrayOutputStream verifyCommand = new ByteArrayOutputStream();
-		verifyCommand.write(30); // bTimeOut
-		verifyCommand.write(30); // bTimeOut2
+		verifyCommand.write(Math.min(timeout, 0xff)); // bTimeOut
+		verifyCommand.write(Math.min(timeout2, 0xff)); // bTimeOut2
 		verifyCommand.write(0x80 | 0x08 | 0x00 | 0x01); // bmFormatString
 		/*
 		 * bmFormatString. bit 7: 1 = system units are bytes
@@ -233,14 +273,15 @@ public class PinVerification {
 		 * 
 		 * second byte = minimum PIN size in digit.
 		 */
-		verifyCommand.write(0x02); // bEntryValidationCondition
+		verifyCommand.write(validationCondition); // bEntryValidationCondition
 		/*
 		 * 0x02 = validation key pressed. So the user must press the green
-		 * button on his pinpad.
+		 * button on his pinpad. 0x01 = maximum size reached, for pin pads
+		 * without validation key.
 		 */
-		verifyCommand.write(0x01); // bNumberMessage
+		verifyCommand.write(numberMessage); // bNumberMessage
 		/*
-		 * 0x01 = message with index in bMsgIndex
+		 * 0x01 = message with index in bMsgIndex, 0x00 = no message
 		 */
 		verifyCommand.write(new byte[] { Environment.getLanguageId(), 0x04 }); // wLangId
 		/*
@@ -271,6 +312,23 @@ public class PinVerification {
 		return verifyCommandData;
 	}
 	
+	/**
+	 * Ends the PIN entry on the pin pad using the ABORT feature,
+	 * or VERIFY_PIN_FINISH if the reader doesn't support it.
+	 * @param card	the SmartCardWithKey instance
+	 */
+	private static void abortPinEntry(SmartCardWithKey card) {
+		LOGGER.info("Aborting PIN entry");
+		try {
+			Integer abort = card.getFeature(Features.FEATURE_ABORT_TAG);
+			if (abort == null)
+				abort = card.getFeature(Features.FEATURE_VERIFY_PIN_FINISH_TAG);
+			card.getTransport().transmitControlCommand(abort, new byte[0]);
+		} catch (CardException e) {
+			LOGGER.warn("Couldn't abort the PIN entry: " + e.getMessage());
+		}
+	}
+	
 	/**
 	 * Method that expects the end user to press keys on a pin pad to enter a pin.
 	 * @param card	the SmartCardWithKey instance
@@ -282,7 +340,11 @@ public class PinVerification {
 		int feature = card.getFeature(Features.FEATURE_GET_KEY_PRESSED_TAG);
 		boolean busy = true;
 		while (busy) {
-			byte[] getKeyPressedResult = card.getCard().transmitControlCommand(
+			if (card.isPinVerificationCancelled()) {
+				abortPinEntry(card);
+				throw new CardException("PIN verification cancelled");
+			}
+			byte[] getKeyPressedResult = card.getTransport().transmitControlCommand(
 					feature, new byte[0]);
 			byte key = getKeyPressedResult[0];
 			switch (key) {
@@ -0,0 +1,114 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Converts signatures between the format returned by a card
+ * and the format used in CMS and PDF signatures.
+ */
+public class SignatureFormats {
+
+	/**
+	 * Converts an ECDSA signature consisting of r and s as unsigned integers
+	 * of the same size (as returned by the card) into a DER encoded
+	 * SEQUENCE { INTEGER r, INTEGER s }.
+	 * @param raw	r followed by s
+	 * @return	the DER encoded signature
+	 */
+	public static byte[] ecdsaRawToDer(byte[] raw) {
+		if (raw.length == 0 || raw.length % 2 != 0)
+			throw new IllegalArgumentException("Not a raw ECDSA signature: " + raw.length + " bytes");
+		int half = raw.length / 2;
+		byte[] r = toDerInteger(Arrays.copyOfRange(raw, 0, half));
+		byte[] s = toDerInteger(Arrays.copyOfRange(raw, half, raw.length));
+		ByteArrayOutputStream der = new ByteArrayOutputStream(raw.length + 9);
+		der.write(0x30);
+		writeLength(der, r.length + s.length);
+		der.write(r, 0, r.length);
+		der.write(s, 0, s.length);
+		return der.toByteArray();
+	}
+	
+	/**
+	 * Encodes an unsigned big-endian number as a DER INTEGER.
+	 * @param unsigned	the number
+	 * @return	the DER encoded INTEGER
+	 */
+	private static byte[] toDerInteger(byte[] unsigned) {
+		int start = 0;
+		// the shortest encoding, but at least one byte
+		while (start < unsigned.length - 1 && unsigned[start] == 0)
+			start++;
+		// a leading zero keeps the number positive
+		int pad = (unsigned[start] & 0x80) != 0 ? 1 : 0;
+		int length = unsigned.length - start + pad;
+		ByteArrayOutputStream der = new ByteArrayOutputStream(length + 4);
+		der.write(0x02);
+		writeLength(der, length);
+		if (pad == 1)
+			der.write(0);
+		der.write(unsigned, start, unsigned.length - start);
+		return der.toByteArray();
+	}
+	
+	/**
+	 * Writes a DER length.
+	 * @param der	the stream to write to
+	 * @param length	the length
+	 */
+	private static void writeLength(ByteArrayOutputStream der, int length) {
+		if (length > 0xFF) {
+			der.write(0x82);
+			der.write(length >> 8);
+		}
+		else if (length > 0x7F) {
+			der.write(0x81);
+		}
+		der.write(length);
+	}
+}
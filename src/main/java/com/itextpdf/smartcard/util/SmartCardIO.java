@@ -44,6 +44,7 @@
  */
 package com.itextpdf.smartcard.util;
 
+import javax.smartcardio.Card;
 import javax.smartcardio.CardChannel;
 import javax.smartcardio.CardException;
 import javax.smartcardio.CommandAPDU;
@@ -52,6 +53,8 @@ import javax.smartcardio.ResponseAPDU;
 import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -65,22 +68,109 @@ public class SmartCardIO {
 	private final static Logger LOGGER = LoggerFactory.getLogger(SmartCardIO.class);
 	
 	/** Block size */
-	private static final int BLOCK_SIZE = 0xff;
+	static final int BLOCK_SIZE = 0xff;
+	
+	/** The maximum offset that can be passed to READ BINARY. */
+	public static final int MAX_OFFSET = 0x7FFF;
+	
+	/** The time (in milliseconds) a card gets to respond to an APDU (0 if no limit). */
+	private static volatile long apduTimeout = 10000;
+	
+	/** The maximum number of GET RESPONSE commands for one command. */
+	private static final int MAX_GET_RESPONSES = 256;
+	
+	/**
+	 * The cards that need a delay between the answer and the next APDU,
+	 * with the delay and the moment of the last answer.
+	 */
+	private static final Map<Card, long[]> INTER_APDU_DELAYS = new WeakHashMap<Card, long[]>();
+	
+	/** The delay (in ms) after selecting a file, for cards without a delay of their own. */
+	public static final long DEFAULT_POST_SELECT_DELAY = 200;
+	
+	/** The cards that need another delay after selecting a file than the default delay. */
+	private static final Map<Card, Long> POST_SELECT_DELAYS = new WeakHashMap<Card, Long>();
 	
 
 	/**
 	 * Selects a file on a card, reads it, and returns the bytes.
+	 * Other threads can't use the same channel while the file is being read.
 	 * @param channel	The CardChannel.
 	 * @param fileId	A file ID referring to the file you want to read.
 	 * @return	a byte array containing the file
 	 * @throws CardException
 	 * @throws IOException
 	 */
-	public static synchronized byte[] readFile(CardChannel channel, byte[] fileId) throws CardException, IOException{
-		selectFile(channel, fileId);
-		byte[] data = readBinary(channel);
-		LOGGER.info("Done reading...");
-		return data;
+	public static byte[] readFile(CardChannel channel, byte[] fileId) throws CardException, IOException{
+		synchronized (channel) {
+			selectFile(channel, fileId);
+			byte[] data = readBinary(channel, 0, -1, null);
+			LOGGER.info("Done reading...");
+			return data;
+		}
+	}
+	
+	/**
+	 * Selects a file on a card and reads a range of bytes from it.
+	 * Only the blocks containing the range are read from the card.
+	 * @param channel	The CardChannel.
+	 * @param fileId	A file ID referring to the file you want to read.
+	 * @param offset	the offset of the first byte you want to read
+	 * @param length	the number of bytes you want to read (the range
+	 * can't go beyond offset 0x7FFF, the maximum offset of READ BINARY)
+	 * @return	a byte array containing the range; it's shorter than length
+	 * if the end of the file was reached
+	 * @throws CardException
+	 * @throws IOException	if the range can't be read with READ BINARY
+	 */
+	public static byte[] readFile(CardChannel channel, byte[] fileId, int offset, int length) throws CardException, IOException{
+		if (offset < 0 || length < 0 || (long) offset + length - 1 > MAX_OFFSET)
+			throw new IOException("Invalid range: offset " + offset + ", length " + length);
+		synchronized (channel) {
+			selectFile(channel, fileId);
+			byte[] data = readBinary(channel, offset, length, null);
+			LOGGER.info("Done reading...");
+			return data;
+		}
+	}
+	
+	/**
+	 * Selects a file on a card and reads blocks until a condition is satisfied.
+	 * @param channel	The CardChannel.
+	 * @param fileId	A file ID referring to the file you want to read.
+	 * @param condition	the condition that tells when enough bytes were read
+	 * @return	a byte array containing the start of the file; it contains the
+	 * complete file if the condition was never satisfied
+	 * @throws CardException
+	 * @throws IOException
+	 */
+	public static byte[] readFile(CardChannel channel, byte[] fileId, ReadCondition condition) throws CardException, IOException{
+		synchronized (channel) {
+			selectFile(channel, fileId);
+			byte[] data = readBinary(channel, 0, -1, condition);
+			LOGGER.info("Done reading...");
+			return data;
+		}
+	}
+	
+	/**
+	 * Selects a file on a card and returns an InputStream that reads the
+	 * file block by block. A block is only read from the card when the
+	 * previous block has been consumed, so the consumer can start processing
+	 * the file as soon as the first block arrives.
+	 * The caller must make sure no other thread selects another file
+	 * on the same channel before the stream is closed.
+	 * @param channel	The CardChannel.
+	 * @param fileId	A file ID referring to the file you want to read.
+	 * @return	an InputStream reading the file
+	 * @throws CardException
+	 * @throws IOException
+	 */
+	public static CardFileInputStream openFile(CardChannel channel, byte[] fileId) throws CardException, IOException {
+		synchronized (channel) {
+			selectFile(channel, fileId);
+		}
+		return new CardFileInputStream(channel);
 	}
 	
 	/**
@@ -90,7 +180,7 @@ public class SmartCardIO {
 	 * @throws CardException
 	 * @throws FileNotFoundException
 	 */
-	private static void selectFile(CardChannel channel, byte[] fileId) throws CardException, FileNotFoundException{
+	static void selectFile(CardChannel channel, byte[] fileId) throws CardException, FileNotFoundException{
 		LOGGER.info("Selecting file...");
 		// Create a command to select a file
 		CommandAPDU selectFileApdu = new CommandAPDU(
@@ -106,9 +196,13 @@ public class SmartCardIO {
 					"Wrong status after selecting file: 0x"
 					+ Integer.toHexString(sw));
 		}
-		// some time is needed after a select file command
+		// some cards need time after a select file command
+		long delay = getPostSelectDelay(channel.getCard());
+		if (delay <= 0)
+			return;
+		ApduStatistics.delay(delay);
 		try{
-			Thread.sleep(200);
+			Thread.sleep(delay);
 		} catch(InterruptedException e){
 			throw new CardException(e);
 		}
@@ -117,40 +211,137 @@ public class SmartCardIO {
 	/**
 	 * Reads binary data from a card after you've selected a file.
 	 * @param channel	The CardChannel.
+	 * @param offset	the offset where to start reading
+	 * @param length	the number of bytes to read, or -1 to read until the end of the file
+	 * @param condition	a condition that stops reading when satisfied (can be null)
 	 * @return	a byte array containing the file
 	 * @throws CardException
 	 * @throws IOException
 	 */
-	private static byte[] readBinary(CardChannel channel) throws CardException,IOException{
+	private static byte[] readBinary(CardChannel channel, int offset, int length, ReadCondition condition) throws CardException,IOException{
 		LOGGER.info("Reading binary...");
-		int offset = 0;
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		int remaining = length < 0 ? Integer.MAX_VALUE : length;
 		byte[] data;
-		do {
-			// create command read a block of bytes
-			CommandAPDU readBinaryApdu = new CommandAPDU(
-					IsoIec7816.CLA_00, IsoIec7816.INS_READ_BINARY,
-					offset >> 8, offset & 0xFF, BLOCK_SIZE);
-			// execute the command
-			ResponseAPDU responseApdu = transmit(channel, readBinaryApdu);
-			// check the status bytes as a single word
-			int sw = responseApdu.getSW();
-			if(sw == IsoIec7816.SW_WRONG_PARAMETERS)
+		while (remaining > 0) {
+			int blockSize = Math.min(BLOCK_SIZE, remaining);
+			data = readBlock(channel, offset, blockSize);
+			if (data == null)
 				break;
-			if(sw != IsoIec7816.SW_NO_FURTHER_QUALIFICATION)
-				throw new IOException("APDU response error: 0x" + Integer.toHexString(sw));
-			// get the data
-			data = responseApdu.getData();
 			baos.write(data);
 			offset += data.length;
-		} while (BLOCK_SIZE == data.length);
+			remaining -= data.length;
+			if (blockSize != data.length)
+				break;
+			if (condition != null && condition.isSatisfied(baos.toByteArray()))
+				break;
+		}
 		
 		return baos.toByteArray();
 	}
+	
+	/**
+	 * Reads a block of binary data from a card after you've selected a file.
+	 * @param channel	The CardChannel.
+	 * @param offset	the offset of the block in the file
+	 * @param length	the maximum number of bytes to read
+	 * @return	the bytes that were read, or null if the offset is beyond the end of the file
+	 * @throws CardException
+	 * @throws IOException
+	 */
+	static byte[] readBlock(CardChannel channel, int offset, int length) throws CardException, IOException {
+		// P1-P2 only have 15 bits for the offset, a larger offset would wrap
+		if (offset < 0 || offset > MAX_OFFSET)
+			throw new IOException("Offset " + offset + " can't be read with READ BINARY");
+		// create command read a block of bytes
+		CommandAPDU readBinaryApdu = new CommandAPDU(
+				IsoIec7816.CLA_00, IsoIec7816.INS_READ_BINARY,
+				offset >> 8, offset & 0xFF, length);
+		// execute the command
+		ResponseAPDU responseApdu = transmit(channel, readBinaryApdu);
+		// check the status bytes as a single word
+		int sw = responseApdu.getSW();
+		if(sw == IsoIec7816.SW_WRONG_PARAMETERS)
+			return null;
+		if(sw != IsoIec7816.SW_NO_FURTHER_QUALIFICATION)
+			throw new IOException("APDU response error: 0x" + Integer.toHexString(sw));
+		// get the data
+		return responseApdu.getData();
+	}
 
+	/**
+	 * Sets the time a card gets to respond to an APDU. If the card
+	 * doesn't respond in time, it is reset and the APDU fails.
+	 * The deadline of the current thread (see Deadline) can make
+	 * the time shorter.
+	 * @param timeout	a time in milliseconds (0 if no limit)
+	 */
+	public static void setApduTimeout(long timeout) {
+		apduTimeout = timeout;
+	}
+	
+	/**
+	 * Makes sure a card gets some time between an answer and the next APDU.
+	 * A minimum delay of 10 msec between the answer and the next APDU is
+	 * mandatory for eID v1.0 and v1.1 cards; other cards don't need a delay.
+	 * @param card	a connected card
+	 * @param delay	the delay in milliseconds (0 for no delay)
+	 */
+	public static void setInterApduDelay(Card card, long delay) {
+		synchronized (INTER_APDU_DELAYS) {
+			if (delay > 0)
+				INTER_APDU_DELAYS.put(card, new long[] { delay, 0 });
+			else
+				INTER_APDU_DELAYS.remove(card);
+		}
+	}
+	
+	/**
+	 * Returns the delay a card gets between an answer and the next APDU.
+	 * @param card	a connected card
+	 * @return	the delay in milliseconds (0 for no delay)
+	 */
+	public static long getInterApduDelay(Card card) {
+		synchronized (INTER_APDU_DELAYS) {
+			long[] delay = INTER_APDU_DELAYS.get(card);
+			return delay == null ? 0 : delay[0];
+		}
+	}
+	
+	/**
+	 * Sets the time a card gets after a file was selected, before the
+	 * next APDU is sent. Cards for which no delay was set get
+	 * DEFAULT_POST_SELECT_DELAY.
+	 * @param card	a connected card
+	 * @param delay	the delay in milliseconds (0 for no delay)
+	 */
+	public static void setPostSelectDelay(Card card, long delay) {
+		synchronized (POST_SELECT_DELAYS) {
+			POST_SELECT_DELAYS.put(card, delay);
+		}
+	}
+	
+	/**
+	 * Returns the time a card gets after a file was selected.
+	 * @param card	a connected card
+	 * @return	the delay in milliseconds (0 for no delay)
+	 */
+	public static long getPostSelectDelay(Card card) {
+		synchronized (POST_SELECT_DELAYS) {
+			Long delay = POST_SELECT_DELAYS.get(card);
+			return delay == null ? DEFAULT_POST_SELECT_DELAY : delay;
+		}
+	}
+	
 	/**
 	 * Communicates with a smart card using an
 	 * application protocol data unit command and response.
+	 * If the card answers 6Cxx (wrong Le), the command is sent again
+	 * with the Le given by the card; if it answers 61xx, the remaining
+	 * bytes are fetched with GET RESPONSE.
+	 * The APDU fails if the deadline of the current thread has passed,
+	 * if the circuit breaker of the card is open, or if the card
+	 * doesn't respond in time.
 	 * @param channel		The CardChannel.
 	 * @param commandApdu	The CommandAPDU send to the card
 	 * @return The ResponseAPDU received from the card
@@ -159,20 +350,174 @@ public class SmartCardIO {
 	public static ResponseAPDU transmit(CardChannel channel, CommandAPDU commandApdu)
 			throws CardException {
 		LOGGER.info("start transmitting...");
-		ResponseAPDU responseApdu = channel.transmit(commandApdu);
+		ResponseAPDU responseApdu = transmitInTime(channel, commandApdu);
 		if (IsoIec7816.SW1_ABORTED == responseApdu.getSW1()) {
-			/*
-			 * A minimum delay of 10 msec between the answer and the
-			 * next APDU is mandatory for eID v1.0 and v1.1 cards.
-			 */
-			LOGGER.info("sleeping...");
-			try {
-				Thread.sleep(10);
-			} catch (InterruptedException e) {
-				throw new CardException(e);
+			int le = responseApdu.getSW2() == 0 ? 256 : responseApdu.getSW2();
+			LOGGER.info("wrong length, sending again with Le " + le);
+			ApduStatistics.wrongLengthRetry();
+			commandApdu = commandApdu.getNc() == 0
+					? new CommandAPDU(commandApdu.getCLA(), commandApdu.getINS(),
+							commandApdu.getP1(), commandApdu.getP2(), le)
+					: new CommandAPDU(commandApdu.getCLA(), commandApdu.getINS(),
+							commandApdu.getP1(), commandApdu.getP2(), commandApdu.getData(), le);
+			responseApdu = transmitInTime(channel, commandApdu);
+		}
+		if (IsoIec7816.SW1_BYTES_REMAINING == responseApdu.getSW1()) {
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			int getResponses = 0;
+			while (IsoIec7816.SW1_BYTES_REMAINING == responseApdu.getSW1()) {
+				if (++getResponses > MAX_GET_RESPONSES)
+					throw new CardException("Too many GET RESPONSE commands");
+				byte[] part = responseApdu.getData();
+				data.write(part, 0, part.length);
+				int le = responseApdu.getSW2() == 0 ? 256 : responseApdu.getSW2();
+				LOGGER.info("getting " + le + " more bytes");
+				ApduStatistics.getResponse();
+				responseApdu = transmitInTime(channel, new CommandAPDU(
+						commandApdu.getCLA() & 0x03, IsoIec7816.INS_GET_RESPONSE,
+						IsoIec7816.P1_00, 0x00, le));
 			}
-			responseApdu = channel.transmit(commandApdu);
+			byte[] part = responseApdu.getBytes();
+			data.write(part, 0, part.length);
+			responseApdu = new ResponseAPDU(data.toByteArray());
 		}
 		return responseApdu;
 	}
+	
+	/**
+	 * Transmits a command APDU with more data than fits in one APDU using
+	 * command chaining (ISO/IEC 7816-4): the data is split in blocks that are
+	 * sent with the chaining bit set in the class byte, except for the last one.
+	 * All the APDUs are created before the first one is sent, and the chain
+	 * stops as soon as the card doesn't accept a block.
+	 * @param channel	the channel to the card
+	 * @param commandApdu	the command, its Ne is used for the last block
+	 * @param blockSize	the maximum number of bytes in one block
+	 * @return	the response to the last block, or the response of the block that wasn't accepted
+	 * @throws CardException
+	 */
+	public static ResponseAPDU transmitChained(CardChannel channel, CommandAPDU commandApdu, int blockSize)
+			throws CardException {
+		byte[] data = commandApdu.getData();
+		if (data.length <= blockSize)
+			return transmit(channel, commandApdu);
+		int blocks = (data.length + blockSize - 1) / blockSize;
+		CommandAPDU[] chain = new CommandAPDU[blocks];
+		for (int i = 0; i < blocks; i++) {
+			int offset = i * blockSize;
+			int length = Math.min(blockSize, data.length - offset);
+			if (i < blocks - 1) {
+				chain[i] = new CommandAPDU(commandApdu.getCLA() | IsoIec7816.CLA_COMMAND_CHAINING,
+					commandApdu.getINS(), commandApdu.getP1(), commandApdu.getP2(), data, offset, length);
+			}
+			else if (commandApdu.getNe() > 0) {
+				chain[i] = new CommandAPDU(commandApdu.getCLA(),
+					commandApdu.getINS(), commandApdu.getP1(), commandApdu.getP2(), data, offset, length,
+					commandApdu.getNe());
+			}
+			else {
+				chain[i] = new CommandAPDU(commandApdu.getCLA(),
+					commandApdu.getINS(), commandApdu.getP1(), commandApdu.getP2(), data, offset, length);
+			}
+		}
+		LOGGER.info("sending " + data.length + " bytes in " + blocks + " chained APDUs");
+		ResponseAPDU responseApdu = null;
+		for (int i = 0; i < blocks; i++) {
+			responseApdu = transmit(channel, chain[i]);
+			if (i < blocks - 1 && responseApdu.getSW() != IsoIec7816.SW_NO_FURTHER_QUALIFICATION) {
+				LOGGER.error("block " + i + " of the chain wasn't accepted: " + Integer.toHexString(responseApdu.getSW()));
+				break;
+			}
+		}
+		return responseApdu;
+	}
+	
+	/**
+	 * Waits until a card that needs a delay between APDUs is ready for the next APDU.
+	 * @param card	a connected card
+	 * @throws CardException
+	 */
+	private static void waitForCard(Card card) throws CardException {
+		long wait;
+		synchronized (INTER_APDU_DELAYS) {
+			long[] delay = INTER_APDU_DELAYS.get(card);
+			if (delay == null)
+				return;
+			wait = delay[1] + delay[0] - System.currentTimeMillis();
+		}
+		if (wait <= 0)
+			return;
+		LOGGER.info("sleeping...");
+		ApduStatistics.delay(wait);
+		try {
+			Thread.sleep(wait);
+		} catch (InterruptedException e) {
+			throw new CardException(e);
+		}
+	}
+	
+	/**
+	 * Remembers when a card that needs a delay between APDUs answered.
+	 * @param card	a connected card
+	 */
+	private static void answered(Card card) {
+		synchronized (INTER_APDU_DELAYS) {
+			long[] delay = INTER_APDU_DELAYS.get(card);
+			if (delay != null)
+				delay[1] = System.currentTimeMillis();
+		}
+	}
+	
+	/**
+	 * Transmits an APDU under the watch of the deadline, the timeout
+	 * and the circuit breaker of the card.
+	 * @param channel		The CardChannel.
+	 * @param commandApdu	The CommandAPDU send to the card
+	 * @return The ResponseAPDU received from the card
+	 * @throws CardException
+	 */
+	private static ResponseAPDU transmitInTime(CardChannel channel, CommandAPDU commandApdu)
+			throws CardException {
+		long timeout = apduTimeout;
+		Deadline deadline = Deadline.current();
+		if (deadline != null) {
+			deadline.check();
+			if (timeout == 0 || deadline.remaining() < timeout)
+				timeout = deadline.remaining();
+		}
+		Card card = channel.getCard();
+		CircuitBreaker breaker = CircuitBreaker.forCard(card);
+		breaker.check();
+		boolean recorded = false;
+		try {
+			waitForCard(card);
+			ApduStatistics.apdu();
+			ApduWatchdog watchdog = timeout > 0 ? ApduWatchdog.watch(card, timeout) : null;
+			long start = System.currentTimeMillis();
+			ResponseAPDU responseApdu;
+			try {
+				responseApdu = channel.transmit(commandApdu);
+			} catch (CardException e) {
+				if (watchdog != null && !watchdog.stop())
+					throw new CardException("No response within " + timeout + " ms", e);
+				throw e;
+			} catch (RuntimeException e) {
+				if (watchdog != null)
+					watchdog.stop();
+				throw e;
+			}
+			if (watchdog != null && !watchdog.stop())
+				throw new CardException("No response within " + timeout + " ms");
+			answered(card);
+			breaker.recordSuccess(System.currentTimeMillis() - start);
+			recorded = true;
+			return responseApdu;
+		}
+		finally {
+			// every APDU the breaker allowed is recorded, even if it failed before it was sent,
+			// otherwise a half open breaker would wait for the result of its test forever
+			if (!recorded)
+				breaker.recordFailure();
+		}
+	}
 }
@@ -0,0 +1,141 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.util.tlv;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * Index of the values in a byte array stored in the Belgian eID
+ * TLV format. Contrary to the EidTLVParser, the values aren't
+ * converted to String objects when the data is parsed; the index
+ * only stores the position of every value, so that a value can be
+ * decoded at the moment it's needed.
+ */
+public class EidTLVIndex {
+
+	/** The raw TLV data. */
+	protected byte[] data;
+	
+	/** The offset of the value for each tag (-1 if the tag is absent). */
+	protected int[] offsets;
+	
+	/** The length of the value for each tag. */
+	protected int[] lengths;
+	
+	/**
+	 * Creates an index for a byte array in the Belgian eID TLV format.
+	 * Only the positions of the values are stored; the array isn't copied.
+	 * @param data	a byte array obtained from a smart card
+	 */
+	public EidTLVIndex(byte[] data) {
+		this.data = data;
+		offsets = new int[0];
+		lengths = new int[0];
+		int pos = 0;
+		while (pos < data.length) {
+			// we assume that the tag consists of one byte
+			int tag = data[pos++] & 0xFF;
+			if (tag >= offsets.length) {
+				int size = offsets.length;
+				offsets = Arrays.copyOf(offsets, tag + 1);
+				lengths = Arrays.copyOf(lengths, tag + 1);
+				Arrays.fill(offsets, size, tag + 1, -1);
+			}
+			// as long as the length byte is 0xFF, we add more to the length
+			int length = 0;
+			int l;
+			do {
+				if (pos >= data.length)
+					break;
+				l = data[pos++] & 0xFF;
+				length += l;
+			} while (l == 0xFF);
+			if (pos + length > data.length)
+				length = Math.max(0, data.length - pos);
+			offsets[tag] = pos;
+			lengths[tag] = length;
+			pos += length;
+		}
+	}
+	
+	/**
+	 * Checks if a tag is present in the data.
+	 * @param tag	a tag
+	 * @return	true if there's a value for the tag
+	 */
+	public boolean contains(byte tag) {
+		int t = tag & 0xFF;
+		return t < offsets.length && offsets[t] >= 0;
+	}
+	
+	/**
+	 * Decodes the value of a tag as an UTF-8 String.
+	 * @param tag	a tag
+	 * @return	the value, or null if the tag isn't present
+	 */
+	public String getValue(byte tag) {
+		if (!contains(tag))
+			return null;
+		int t = tag & 0xFF;
+		try {
+			return new String(data, offsets[t], lengths[t], "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return new String(data, offsets[t], lengths[t]);
+		}
+	}
+	
+	/**
+	 * Returns a copy of the raw bytes of the value of a tag.
+	 * @param tag	a tag
+	 * @return	the raw value, or null if the tag isn't present
+	 */
+	public byte[] getRawValue(byte tag) {
+		if (!contains(tag))
+			return null;
+		int t = tag & 0xFF;
+		return Arrays.copyOfRange(data, offsets[t], offsets[t] + lengths[t]);
+	}
+}
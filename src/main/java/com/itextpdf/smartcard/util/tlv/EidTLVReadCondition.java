@@ -0,0 +1,111 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.util.tlv;
+
+import com.itextpdf.smartcard.util.ReadCondition;
+
+import java.util.Arrays;
+
+/**
+ * Condition that is satisfied as soon as the value of a specific tag
+ * is read completely from a file stored in the Belgian eID TLV format.
+ * Use it to read only the first fields of a file, for instance the
+ * card number and the validity dates in the identity file.
+ */
+public class EidTLVReadCondition implements ReadCondition {
+
+	/** The tag that needs to be read. */
+	protected byte tag;
+	
+	/** The offset of the first byte after the value of the tag, or -1. */
+	protected int end = -1;
+	
+	/**
+	 * Creates a condition that waits for the value of a specific tag.
+	 * @param tag	the tag you need
+	 */
+	public EidTLVReadCondition(byte tag) {
+		this.tag = tag;
+	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.util.ReadCondition#isSatisfied(byte[])
+	 */
+	public boolean isSatisfied(byte[] data) {
+		int pos = 0;
+		while (pos < data.length) {
+			byte t = data[pos++];
+			// the length continues as long as the length byte is 0xFF
+			int length = 0;
+			int l;
+			do {
+				if (pos >= data.length)
+					return false;
+				l = data[pos++] & 0xFF;
+				length += l;
+			} while (l == 0xFF);
+			if (pos + length > data.length)
+				return false;
+			pos += length;
+			if (t == tag) {
+				end = pos;
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Cuts off the bytes after the value of the tag, so that the data
+	 * can be passed to an EidTLVParser without incomplete fields.
+	 * @param data	the data that was read
+	 * @return	the data up to the end of the value of the tag
+	 */
+	public byte[] truncate(byte[] data) {
+		if (end < 0 && !isSatisfied(data))
+			return data;
+		return Arrays.copyOf(data, end);
+	}
+}
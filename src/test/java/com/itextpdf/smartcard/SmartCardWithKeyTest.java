@@ -0,0 +1,113 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.itextpdf.smartcard.transport.ScriptedTransport;
+import com.itextpdf.smartcard.transport.SimulatedTransport;
+import com.itextpdf.smartcard.util.IsoIec7816;
+
+import java.util.List;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+
+import org.junit.Test;
+
+/**
+ * Tests how SmartCardWithKey sends commands with more data than fits in a short APDU.
+ */
+public class SmartCardWithKeyTest {
+	
+	/** A card with applet 1.7, that doesn't announce extended APDUs. */
+	private static final byte[] ATR = SimulatedTransport.BEID_ATR;
+	
+	@Test
+	public void testShortCommandIsSentAtOnce() throws CardException {
+		ScriptedTransport transport = new ScriptedTransport(ATR);
+		SmartCardWithKey card = new SmartCardWithKey(transport, (byte) 0x83, "RSA");
+		CommandAPDU command = pso(IsoIec7816.MAX_SHORT_LC);
+		transport.addResponse(0x9000);
+		assertEquals(0x9000, card.transmitLarge(command).getSW());
+		List<CommandAPDU> commands = transport.getCommands();
+		assertEquals(1, commands.size());
+		assertArrayEquals(command.getBytes(), commands.get(0).getBytes());
+	}
+	
+	@Test
+	public void testLargeCommandIsChained() throws CardException {
+		ScriptedTransport transport = new ScriptedTransport(ATR);
+		SmartCardWithKey card = new SmartCardWithKey(transport, (byte) 0x83, "RSA");
+		transport.addResponse(0x9000);
+		transport.addResponse(0x9000);
+		transport.addResponse(new byte[] { 1, 2, 3 }, 0x9000);
+		assertArrayEquals(new byte[] { 1, 2, 3 }, card.transmitLarge(pso(700)).getData());
+		List<CommandAPDU> commands = transport.getCommands();
+		assertEquals(3, commands.size());
+		assertEquals(IsoIec7816.CLA_COMMAND_CHAINING, commands.get(0).getCLA());
+		assertEquals(IsoIec7816.CLA_COMMAND_CHAINING, commands.get(1).getCLA());
+		assertEquals(0x00, commands.get(2).getCLA());
+		assertEquals(700 - 2 * IsoIec7816.MAX_SHORT_LC, commands.get(2).getNc());
+	}
+	
+	@Test
+	public void testRejectedBlockEndsTheChain() throws CardException {
+		ScriptedTransport transport = new ScriptedTransport(ATR);
+		SmartCardWithKey card = new SmartCardWithKey(transport, (byte) 0x83, "RSA");
+		transport.addResponse(0x6982);
+		assertEquals(0x6982, card.transmitLarge(pso(700)).getSW());
+		assertEquals(1, transport.getCommands().size());
+	}
+	
+	/**
+	 * Creates a PERFORM SECURITY OPERATION command with data of a given length.
+	 * @param length	the length of the data
+	 */
+	private static CommandAPDU pso(int length) {
+		return new CommandAPDU(0x00, IsoIec7816.INS_PERFORM_SECURITY_OPERATION, 0x9E, 0x9A, new byte[length], 256);
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.beid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.itextpdf.smartcard.PinProvider;
+import com.itextpdf.smartcard.jca.SmartCardKeyStore;
+import com.itextpdf.smartcard.jca.SmartCardProvider;
+import com.itextpdf.smartcard.transport.CardTransport;
+import com.itextpdf.smartcard.transport.RecordingTransport;
+import com.itextpdf.smartcard.transport.ReplayTransport;
+import com.itextpdf.smartcard.transport.SimulatedTransport;
+import com.itextpdf.smartcard.util.LazyCertificate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+
+import javax.smartcardio.CardException;
+
+import org.junit.Test;
+
+/**
+ * Tests the Belgian eID card with a simulated card.
+ */
+public class BeIDCardTest {
+	
+	/** The message that is signed. */
+	private static final byte[] MESSAGE = { 'H', 'e', 'l', 'l', 'o', ' ', 'W', 'o', 'r', 'l', 'd' };
+	
+	@Test
+	public void testApplet18IsAccepted() throws Exception {
+		BeIDCard card = createCard(createEcCard());
+		assertTrue(!card.isLegacyApplet());
+	}
+	
+	@Test(expected = CardException.class)
+	public void testOtherCardIsRejected() throws Exception {
+		byte[] atr = SimulatedTransport.BEID_1_8_ATR.clone();
+		atr[10] = 0x00;
+		new BeIDCard(new SimulatedTransport(atr));
+	}
+	
+	@Test
+	public void testEcSignature() throws Exception {
+		SimulatedTransport transport = createEcCard();
+		BeIDCard card = createCard(transport);
+		assertEquals("ECDSA", card.getEncryptionAlgorithm());
+		byte[] signature = card.sign(MessageDigest.getInstance("SHA-256").digest(MESSAGE), "SHA-256");
+		Signature verifier = Signature.getInstance("SHA256withECDSA");
+		verifier.initVerify(certificate("signer.der").getPublicKey());
+		verifier.update(MESSAGE);
+		assertTrue(verifier.verify(signature));
+		assertEquals(1, transport.getSignatureCount());
+	}
+	
+	@Test
+	public void testEcSignatureWithProvider() throws Exception {
+		SmartCardProvider provider = new SmartCardProvider(createCard(createEcCard()));
+		KeyStore keyStore = KeyStore.getInstance(SmartCardProvider.KEY_STORE_TYPE, provider);
+		keyStore.load(null, null);
+		PrivateKey key = (PrivateKey) keyStore.getKey(SmartCardKeyStore.ALIAS_SIGNATURE, null);
+		assertEquals("EC", key.getAlgorithm());
+		Signature signer = Signature.getInstance("SHA256withECDSA", provider);
+		signer.initSign(key);
+		signer.update(MESSAGE);
+		byte[] signature = signer.sign();
+		Signature verifier = Signature.getInstance("SHA256withECDSA");
+		verifier.initVerify(keyStore.getCertificate(SmartCardKeyStore.ALIAS_SIGNATURE).getPublicKey());
+		verifier.update(MESSAGE);
+		assertTrue(verifier.verify(signature));
+	}
+	
+	@Test
+	public void testRecordedEcSessionIsReplayed() throws Exception {
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		RecordingTransport recording = new RecordingTransport(createEcCard(), log);
+		byte[] digest = MessageDigest.getInstance("SHA-256").digest(MESSAGE);
+		byte[] signature = createCard(recording).sign(digest, "SHA-256");
+		recording.close();
+		ReplayTransport replay = new ReplayTransport(new ByteArrayInputStream(log.toByteArray()), false);
+		assertArrayEquals(signature, createCard(replay).sign(digest, "SHA-256"));
+		assertEquals(0, replay.getRemaining());
+	}
+	
+	/**
+	 * Creates a simulated card with applet 1.8 and an EC signing key.
+	 * @return	a simulated card
+	 * @throws GeneralSecurityException
+	 */
+	static SimulatedTransport createEcCard() throws GeneralSecurityException {
+		return createCard(SimulatedTransport.BEID_1_8_ATR, "signer.der", "signer.pk8", "EC");
+	}
+	
+	/**
+	 * Creates a simulated card with a signing key and its certificate chain.
+	 * @param atr	the ATR of the card
+	 * @param certificate	the resource with the certificate of the key
+	 * @param key	the resource with the private key
+	 * @param algorithm	the algorithm of the key ("RSA" or "EC")
+	 * @return	a simulated card
+	 * @throws GeneralSecurityException
+	 */
+	static SimulatedTransport createCard(byte[] atr, String certificate, String key, String algorithm)
+			throws GeneralSecurityException {
+		SimulatedTransport transport = new SimulatedTransport(atr);
+		transport.addCertificate(BeIDCertificates.SIGN_CERT_FILE_ID, certificate(certificate));
+		transport.addCertificate(BeIDCertificates.AUTHN_CERT_FILE_ID, certificate(certificate));
+		transport.addCertificate(BeIDCertificates.CA_CERT_FILE_ID, certificate("ca.der"));
+		transport.addCertificate(BeIDCertificates.ROOT_CERT_FILE_ID, certificate("root.der"));
+		transport.addKey(BeIDCertificates.NON_REPUDIATION_KEY_ID, SimulatedTransport.readPrivateKey(key, algorithm));
+		return transport;
+	}
+	
+	/**
+	 * Creates a BeIDCard that gets the PIN "1234".
+	 * @param transport	the transport to the card
+	 * @return	a BeIDCard
+	 * @throws CardException
+	 */
+	static BeIDCard createCard(CardTransport transport) throws CardException {
+		BeIDCard card = new BeIDCard(transport);
+		card.setPinProvider(new PinProvider() {
+			public char[] getPin(int retries) {
+				return "1234".toCharArray();
+			}
+		});
+		return card;
+	}
+	
+	/**
+	 * Reads a certificate from the resources of the tests.
+	 */
+	private static X509Certificate certificate(String name) throws GeneralSecurityException {
+		return (X509Certificate) LazyCertificate.getFactory().generateCertificate(
+				new ByteArrayInputStream(SimulatedTransport.readResource(name)));
+	}
+}
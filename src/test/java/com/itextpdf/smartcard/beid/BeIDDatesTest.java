@@ -0,0 +1,173 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.beid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the dates parsed by BeIDDates with the dates parsed by
+ * SimpleDateFormat, for every day from 1900 to 2064 in time zones with
+ * and without daylight saving time.
+ */
+public class BeIDDatesTest {
+	
+	/** The time zones the dates are parsed in. */
+	private static final String[] TIME_ZONES = {
+		"Europe/Brussels", "America/Sao_Paulo", "Australia/Lord_Howe", "UTC"
+	};
+	
+	/** The abbreviations of the months in French birth dates. */
+	private static final String[] FRENCH = {
+		"JANV", "FEVR", "MARS", "AVR", "MAI", "JUIN", "JUIL", "AOUT", "SEPT", "OCT", "NOV", "DEC"
+	};
+	
+	/** The abbreviations of the months in Dutch birth dates. */
+	private static final String[] DUTCH = {
+		"JAN", "FEB", "MAAR", "APR", "MEI", "JUN", "JUL", "AUG", "SEP", "OKT", "NOV", "DEC"
+	};
+	
+	/** The abbreviations of the months in German birth dates. */
+	private static final String[] GERMAN = {
+		"JAN", "FEB", "M\u00C4R", "APR", "MAI", "JUN", "JUL", "AUG", "SEP", "OKT", "NOV", "DEZ"
+	};
+	
+	/** The default time zone before the test. */
+	private TimeZone defaultTimeZone;
+	
+	@Before
+	public void setUp() {
+		defaultTimeZone = TimeZone.getDefault();
+	}
+	
+	@After
+	public void tearDown() {
+		TimeZone.setDefault(defaultTimeZone);
+	}
+	
+	@Test
+	public void testDatesMatchSimpleDateFormat() throws Exception {
+		for (String id : TIME_ZONES) {
+			TimeZone.setDefault(TimeZone.getTimeZone(id));
+			SimpleDateFormat format = new SimpleDateFormat("dd.MM.yyyy");
+			for (Calendar day = firstDay(); day.get(Calendar.YEAR) <= 2064; day.add(Calendar.DAY_OF_MONTH, 1)) {
+				String date = format(day, '.', null);
+				assertEquals(id + " " + date, format.parse(date), BeIDDates.parseDate(date));
+			}
+		}
+	}
+	
+	@Test
+	public void testBirthDatesMatchSimpleDateFormat() throws Exception {
+		for (String id : TIME_ZONES) {
+			TimeZone.setDefault(TimeZone.getTimeZone(id));
+			SimpleDateFormat format = new SimpleDateFormat("dd.MM.yyyy");
+			for (Calendar day = firstDay(); day.get(Calendar.YEAR) <= 2064; day.add(Calendar.DAY_OF_MONTH, 1)) {
+				Date expected = format.parse(format(day, '.', null));
+				assertEquals(id, expected, BeIDDates.parseBirthDate(format(day, ' ', FRENCH)));
+				assertEquals(id, expected, BeIDDates.parseBirthDate(format(day, ' ', DUTCH)));
+				assertEquals(id, expected, BeIDDates.parseBirthDate(format(day, '.', GERMAN)));
+			}
+		}
+	}
+	
+	@Test
+	public void testYearOnlyBirthDatesMatchSimpleDateFormat() throws Exception {
+		for (String id : TIME_ZONES) {
+			TimeZone.setDefault(TimeZone.getTimeZone(id));
+			SimpleDateFormat format = new SimpleDateFormat("yyyy");
+			for (int year = 1900; year <= 2064; year++) {
+				String date = String.valueOf(year);
+				assertEquals(id + " " + date, format.parse(date), BeIDDates.parseBirthDate(date));
+			}
+		}
+	}
+	
+	@Test
+	public void testInvalidDates() {
+		assertNull(BeIDDates.parseDate(null));
+		assertNull(BeIDDates.parseDate("31.02.2000"));
+		assertNull(BeIDDates.parseDate("1.1.2000"));
+		assertNull(BeIDDates.parseBirthDate("18 XYZ 1988"));
+		assertNull(BeIDDates.parseBirthDate("29 FEB 1900"));
+	}
+	
+	/**
+	 * Returns January 1st, 1900 (in UTC, only the fields are used).
+	 */
+	private static Calendar firstDay() {
+		Calendar day = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+		day.clear();
+		day.set(1900, Calendar.JANUARY, 1);
+		return day;
+	}
+	
+	/**
+	 * Formats a day like on the card.
+	 * @param day	the day
+	 * @param separator	the separator between the day, the month and the year
+	 * @param months	the abbreviations of the months, or null for month numbers
+	 */
+	private static String format(Calendar day, char separator, String[] months) {
+		int month = day.get(Calendar.MONTH);
+		return twoDigits(day.get(Calendar.DAY_OF_MONTH)) + separator
+				+ (months == null ? twoDigits(month + 1) : months[month]) + separator
+				+ day.get(Calendar.YEAR);
+	}
+	
+	private static String twoDigits(int n) {
+		return n < 10 ? "0" + n : String.valueOf(n);
+	}
+}
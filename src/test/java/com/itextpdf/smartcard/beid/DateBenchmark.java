@@ -0,0 +1,117 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.beid;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+/**
+ * Compares the time needed to parse the dates of a Belgian eID with
+ * BeIDDates and with a SimpleDateFormat per date (as BeIDFileFactory
+ * used to do).
+ * 
+ * Usage: DateBenchmark [iterations]
+ */
+public class DateBenchmark {
+	
+	/** Dates as they are stored on the card. */
+	private static final String[] DATES = { "01.02.2015", "31.12.2024", "18.07.1988", "29.02.2000" };
+	
+	/** Birth dates as they are stored on the card. */
+	private static final String[] BIRTH_DATES = { "18 JUIL 1988", "18 JUL 1988", "01.M\u00C4R.1971", "1952" };
+	
+	/** Keeps the results, so that the parsing isn't optimized away. */
+	private static long checksum;
+	
+	/**
+	 * Runs the benchmark.
+	 * @param args	the number of times every date is parsed
+	 */
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		// warm up
+		for (int round = 0; round < 3; round++) {
+			parseWithBeIDDates(iterations / 10);
+			parseWithSimpleDateFormat(iterations / 10);
+		}
+		long start = System.nanoTime();
+		parseWithBeIDDates(iterations);
+		long beidDates = System.nanoTime() - start;
+		start = System.nanoTime();
+		parseWithSimpleDateFormat(iterations);
+		long simpleDateFormat = System.nanoTime() - start;
+		int parses = iterations * DATES.length;
+		System.out.println("BeIDDates.parseDate: " + beidDates / parses + " ns per date");
+		System.out.println("SimpleDateFormat: " + simpleDateFormat / parses + " ns per date");
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			for (String date : BIRTH_DATES)
+				checksum += BeIDDates.parseBirthDate(date).getTime();
+		}
+		System.out.println("BeIDDates.parseBirthDate: " + (System.nanoTime() - start) / (iterations * BIRTH_DATES.length)
+				+ " ns per birth date");
+		System.out.println("(checksum " + checksum + ")");
+	}
+	
+	/**
+	 * Parses the dates with BeIDDates.
+	 */
+	private static void parseWithBeIDDates(int iterations) {
+		for (int i = 0; i < iterations; i++) {
+			for (String date : DATES)
+				checksum += BeIDDates.parseDate(date).getTime();
+		}
+	}
+	
+	/**
+	 * Parses the dates with a new SimpleDateFormat for every date.
+	 */
+	private static void parseWithSimpleDateFormat(int iterations) throws ParseException {
+		for (int i = 0; i < iterations; i++) {
+			for (String date : DATES)
+				checksum += new SimpleDateFormat("dd.MM.yyyy").parse(date).getTime();
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.beid;
+
+import com.itextpdf.smartcard.transport.RecordingTransport;
+import com.itextpdf.smartcard.transport.ReplayTransport;
+import com.itextpdf.smartcard.transport.SimulatedTransport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * Compares the time needed to sign with an RSA key and with an EC key by
+ * replaying recorded sessions at the latency they were recorded with.
+ * 
+ * Without arguments, the sessions are recorded with simulated cards that
+ * need a fixed time per APDU. A log recorded with a RecordingTransport on
+ * a real card can be passed instead, if it contains a session in which
+ * the digest of {@link #MESSAGE} was signed the same number of times.
+ * 
+ * Usage: SigningBenchmark [signatures [latency in ms | log...]]
+ */
+public class SigningBenchmark {
+	
+	/** The message that is signed. */
+	public static final byte[] MESSAGE = { 'H', 'e', 'l', 'l', 'o', ' ', 'W', 'o', 'r', 'l', 'd' };
+	
+	/**
+	 * Runs the benchmark.
+	 * @param args	the number of signatures, and the latency of the simulated cards or the logs to replay
+	 */
+	public static void main(String[] args) throws Exception {
+		int signatures = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		if (args.length > 1 && new File(args[1]).isFile()) {
+			for (int i = 1; i < args.length; i++)
+				report(args[i], readFile(args[i]), signatures);
+			return;
+		}
+		long latency = args.length > 1 ? Long.parseLong(args[1]) : 5;
+		// an applet 1.7 card, that doesn't need the delay between APDUs of the oldest cards
+		byte[] atr = SimulatedTransport.BEID_ATR.clone();
+		atr[atr.length - 1] = 0x17;
+		report("RSA (applet 1.7)", record(BeIDCardTest.createCard(atr,
+				"signer-rsa.der", "signer-rsa.pk8", "RSA"), signatures, latency), signatures);
+		report("ECDSA (applet 1.8)", record(BeIDCardTest.createEcCard(), signatures, latency), signatures);
+	}
+	
+	/**
+	 * Records a session in which a card signs a number of times.
+	 * @param card	the simulated card
+	 * @param signatures	the number of signatures
+	 * @param latency	the time (in ms) every APDU takes
+	 * @return	the log of the session
+	 */
+	public static byte[] record(SimulatedTransport card, int signatures, long latency) throws Exception {
+		card.setLatency(latency);
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		RecordingTransport recording = new RecordingTransport(card, log);
+		sign(BeIDCardTest.createCard(recording), signatures);
+		recording.close();
+		return log.toByteArray();
+	}
+	
+	/**
+	 * Replays a session and prints the time needed for the first and the following signatures.
+	 * @param name	the name of the session
+	 * @param log	the log of the session
+	 * @param signatures	the number of signatures in the session
+	 */
+	public static void report(String name, byte[] log, int signatures) throws Exception {
+		ReplayTransport replay = new ReplayTransport(new ByteArrayInputStream(log), true);
+		long start = System.nanoTime();
+		BeIDCard card = BeIDCardTest.createCard(replay);
+		long[] times = sign(card, signatures);
+		long total = System.nanoTime() - start;
+		long next = 0;
+		for (int i = 1; i < times.length; i++)
+			next += times[i];
+		System.out.println(name + ": first signature " + times[0] / 1000000 + " ms"
+				+ (times.length > 1 ? ", next signatures " + next / (times.length - 1) / 1000000 + " ms on average" : "")
+				+ ", total " + total / 1000000 + " ms"
+				+ (replay.getRemaining() > 0 ? " (" + replay.getRemaining() + " exchanges not replayed)" : ""));
+	}
+	
+	/**
+	 * Signs the digest of the message a number of times.
+	 * @param card	the card
+	 * @param signatures	the number of signatures
+	 * @return	the time (in ns) every signature took
+	 */
+	private static long[] sign(BeIDCard card, int signatures) throws Exception {
+		byte[] digest = MessageDigest.getInstance("SHA-256").digest(MESSAGE);
+		long[] times = new long[signatures];
+		for (int i = 0; i < signatures; i++) {
+			long start = System.nanoTime();
+			card.sign(digest, "SHA-256");
+			times[i] = System.nanoTime() - start;
+		}
+		return times;
+	}
+	
+	/**
+	 * Reads a file.
+	 */
+	private static byte[] readFile(String name) throws Exception {
+		InputStream in = new FileInputStream(name);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) != -1)
+			out.write(buffer, 0, n);
+		in.close();
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.revocation;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.cert.CRLException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the CRL store with base and delta CRLs (the store has no trusted
+ * issuers, so the CRLs don't need a valid signature).
+ */
+public class CrlStoreTest {
+	
+	/** The reason code of an entry that is removed from the CRL. */
+	private static final int REMOVE_FROM_CRL = 8;
+	
+	/** The certificate factory. */
+	private CertificateFactory factory;
+	
+	/** A certificate issued by the test CA. */
+	private X509Certificate first;
+	
+	/** Another certificate issued by the test CA. */
+	private X509Certificate second;
+	
+	/** The store. */
+	private CrlStore store;
+	
+	@Before
+	public void setUp() throws Exception {
+		factory = CertificateFactory.getInstance("X.509");
+		first = (X509Certificate) factory.generateCertificate(
+				CrlStoreTest.class.getResourceAsStream("/com/itextpdf/smartcard/signer.der"));
+		second = (X509Certificate) factory.generateCertificate(
+				CrlStoreTest.class.getResourceAsStream("/com/itextpdf/smartcard/signer-rsa.der"));
+		store = new CrlStore();
+	}
+	
+	@Test(expected = CRLException.class)
+	public void testNoCrl() throws Exception {
+		store.isRevoked(first);
+	}
+	
+	@Test
+	public void testBaseCrl() throws Exception {
+		store.addCrl(crl(1, -1, entry(first, -1)));
+		assertTrue(store.isRevoked(first));
+		assertFalse(store.isRevoked(second));
+	}
+	
+	@Test
+	public void testDeltaCrlRevokesAndRemoves() throws Exception {
+		store.addCrl(crl(1, -1, entry(first, -1)));
+		store.addCrl(crl(2, 1, entry(first, REMOVE_FROM_CRL), entry(second, -1)));
+		assertFalse(store.isRevoked(first));
+		assertTrue(store.isRevoked(second));
+		// an older delta CRL doesn't replace a newer one
+		store.addCrl(crl(1, 1));
+		assertFalse(store.isRevoked(first));
+		assertTrue(store.isRevoked(second));
+	}
+	
+	@Test
+	public void testNewBaseCrlReplacesDeltaCrl() throws Exception {
+		store.addCrl(crl(1, -1, entry(first, -1)));
+		store.addCrl(crl(2, 1, entry(first, REMOVE_FROM_CRL), entry(second, -1)));
+		store.addCrl(crl(3, -1, entry(second, -1)));
+		assertFalse(store.isRevoked(first));
+		assertTrue(store.isRevoked(second));
+		// an older base CRL is ignored
+		store.addCrl(crl(2, -1, entry(first, -1)));
+		assertFalse(store.isRevoked(first));
+	}
+	
+	@Test
+	public void testDeltaCrlWithoutItsBaseIsIgnored() throws Exception {
+		store.addCrl(crl(1, -1));
+		store.addCrl(crl(3, 2, entry(first, -1)));
+		assertFalse(store.isRevoked(first));
+	}
+	
+	@Test(expected = CRLException.class)
+	public void testExpiredCrl() throws Exception {
+		store.addCrl(crl(1, -1, new Date(System.currentTimeMillis() - 1000)));
+		store.isRevoked(first);
+	}
+	
+	/**
+	 * Creates a CRL of the test CA that expires in an hour.
+	 * @param number	the CRL number
+	 * @param base	the number of the base CRL for a delta CRL, or -1 for a base CRL
+	 * @param entries	the entries
+	 */
+	private X509CRL crl(int number, int base, byte[]... entries) throws Exception {
+		return crl(number, base, new Date(System.currentTimeMillis() + 3600000), entries);
+	}
+	
+	/**
+	 * Creates a CRL of the test CA.
+	 * @param number	the CRL number
+	 * @param base	the number of the base CRL for a delta CRL, or -1 for a base CRL
+	 * @param nextUpdate	the next update
+	 * @param entries	the entries
+	 */
+	private X509CRL crl(int number, int base, Date nextUpdate, byte[]... entries) throws Exception {
+		byte[] algorithm = der(0x30, new byte[] { 0x06, 0x08, 0x2A, (byte) 0x86, 0x48, (byte) 0xCE, 0x3D, 0x04, 0x03, 0x02 });
+		byte[] extensions = der(0x30,
+				der(0x30, new byte[] { 0x06, 0x03, 0x55, 0x1D, 0x14 }, der(0x04, integer(number))),
+				base < 0 ? new byte[0] : der(0x30, new byte[] { 0x06, 0x03, 0x55, 0x1D, 0x1B },
+						new byte[] { 0x01, 0x01, (byte) 0xFF }, der(0x04, integer(base))));
+		byte[] tbs = der(0x30,
+				new byte[] { 0x02, 0x01, 0x01 },
+				algorithm,
+				first.getIssuerX500Principal().getEncoded(),
+				time(new Date(System.currentTimeMillis() - 60000)),
+				time(nextUpdate),
+				entries.length == 0 ? new byte[0] : der(0x30, entries),
+				der(0xA0, extensions));
+		byte[] crl = der(0x30, tbs, algorithm, der(0x03, new byte[] { 0x00, 0x00 }));
+		return (X509CRL) factory.generateCRL(new ByteArrayInputStream(crl));
+	}
+	
+	/**
+	 * Creates a CRL entry.
+	 * @param certificate	the revoked certificate
+	 * @param reason	the reason code, or -1 for none
+	 */
+	private static byte[] entry(X509Certificate certificate, int reason) {
+		return der(0x30,
+				integer(certificate.getSerialNumber()),
+				time(new Date(System.currentTimeMillis() - 60000)),
+				reason < 0 ? new byte[0] : der(0x30, der(0x30, new byte[] { 0x06, 0x03, 0x55, 0x1D, 0x15 },
+						der(0x04, new byte[] { 0x0A, 0x01, (byte) reason }))));
+	}
+	
+	/**
+	 * Encodes an INTEGER.
+	 */
+	private static byte[] integer(int value) {
+		return integer(BigInteger.valueOf(value));
+	}
+	
+	/**
+	 * Encodes an INTEGER.
+	 */
+	private static byte[] integer(BigInteger value) {
+		return der(0x02, value.toByteArray());
+	}
+	
+	/**
+	 * Encodes a UTCTime.
+	 */
+	private static byte[] time(Date date) {
+		SimpleDateFormat format = new SimpleDateFormat("yyMMddHHmmss'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return der(0x17, format.format(date).getBytes());
+	}
+	
+	/**
+	 * Encodes a DER object.
+	 */
+	private static byte[] der(int tag, byte[]... parts) {
+		ByteArrayOutputStream value = new ByteArrayOutputStream();
+		for (byte[] part : parts)
+			value.write(part, 0, part.length);
+		ByteArrayOutputStream der = new ByteArrayOutputStream();
+		der.write(tag);
+		int length = value.size();
+		if (length > 0xFF) {
+			der.write(0x82);
+			der.write(length >> 8);
+		}
+		else if (length > 0x7F) {
+			der.write(0x81);
+		}
+		der.write(length & 0xFF);
+		der.write(value.toByteArray(), 0, length);
+		return der.toByteArray();
+	}
+}
@@ -0,0 +1,283 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.revocation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.itextpdf.signatures.IOcspClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the OCSP cache against an OCSP responder on the loopback interface.
+ */
+public class OcspCacheTest {
+	
+	/** Executor that fetches the responses in the calling thread. */
+	private static final Executor SAME_THREAD = new Executor() {
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+	
+	/** The loopback OCSP responder. */
+	private HttpServer responder;
+	
+	/** The URL of the responder. */
+	private String url;
+	
+	/** The number of requests the responder received. */
+	private final AtomicInteger requests = new AtomicInteger();
+	
+	/** The next update in the responses of the responder. */
+	private volatile Date nextUpdate;
+	
+	/** The certificate to check. */
+	private X509Certificate checkCert;
+	
+	/** The issuer of the certificate to check. */
+	private X509Certificate issuerCert;
+	
+	/** OCSP client that posts the request to the responder. */
+	private final IOcspClient client = new IOcspClient() {
+		public byte[] getEncoded(X509Certificate checkCert, X509Certificate issuerCert, String url) {
+			try {
+				HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+				connection.setDoOutput(true);
+				connection.setRequestProperty("Content-Type", "application/ocsp-request");
+				OutputStream out = connection.getOutputStream();
+				out.write(checkCert.getSerialNumber().toByteArray());
+				out.close();
+				if (connection.getResponseCode() != HttpURLConnection.HTTP_OK)
+					return null;
+				return readAll(connection.getInputStream());
+			} catch (IOException e) {
+				return null;
+			}
+		}
+	};
+	
+	@Before
+	public void setUp() throws Exception {
+		CertificateFactory factory = CertificateFactory.getInstance("X.509");
+		issuerCert = (X509Certificate) factory.generateCertificate(
+				OcspCacheTest.class.getResourceAsStream("/com/itextpdf/smartcard/ca.der"));
+		checkCert = (X509Certificate) factory.generateCertificate(
+				OcspCacheTest.class.getResourceAsStream("/com/itextpdf/smartcard/signer.der"));
+		responder = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		responder.createContext("/ocsp", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				readAll(exchange.getRequestBody());
+				requests.incrementAndGet();
+				byte[] response = createResponse(new Date(), nextUpdate);
+				exchange.getResponseHeaders().set("Content-Type", "application/ocsp-response");
+				exchange.sendResponseHeaders(200, response.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(response);
+				out.close();
+			}
+		});
+		responder.start();
+		url = "http://127.0.0.1:" + responder.getAddress().getPort() + "/ocsp";
+	}
+	
+	@After
+	public void tearDown() {
+		responder.stop(0);
+	}
+	
+	@Test
+	public void testNextUpdateIsParsed() throws Exception {
+		Date date = new Date((System.currentTimeMillis() / 1000 + 3600) * 1000);
+		assertEquals(date, OcspCache.getNextUpdate(createResponse(new Date(), date)));
+		assertNull(OcspCache.getNextUpdate(createResponse(new Date(), null)));
+		assertNull(OcspCache.getNextUpdate(new byte[] { 0x30, 0x03, 0x30, 0x01 }));
+	}
+	
+	@Test
+	public void testResponseIsCachedWithinTtl() throws Exception {
+		nextUpdate = new Date(System.currentTimeMillis() + 3600000);
+		OcspCache cache = new OcspCache(client, 10, 60000, SAME_THREAD);
+		byte[] first = cache.getEncoded(checkCert, issuerCert, url);
+		assertNotNull(first);
+		assertArrayEquals(first, cache.getEncoded(checkCert, issuerCert, url));
+		assertEquals(1, requests.get());
+	}
+	
+	@Test
+	public void testResponseExpiresAfterTtl() throws Exception {
+		nextUpdate = new Date(System.currentTimeMillis() + 3600000);
+		OcspCache cache = new OcspCache(client, 10, 200, SAME_THREAD);
+		assertNotNull(cache.getEncoded(checkCert, issuerCert, url));
+		Thread.sleep(300);
+		assertNotNull(cache.getEncoded(checkCert, issuerCert, url));
+		assertEquals(2, requests.get());
+	}
+	
+	@Test
+	public void testResponseExpiresAtNextUpdate() throws Exception {
+		nextUpdate = new Date(System.currentTimeMillis() + 2000);
+		OcspCache cache = new OcspCache(client, 10, 3600000, SAME_THREAD);
+		assertNotNull(cache.getEncoded(checkCert, issuerCert, url));
+		assertNotNull(cache.getEncoded(checkCert, issuerCert, url));
+		assertEquals(1, requests.get());
+		Thread.sleep(2100);
+		nextUpdate = new Date(System.currentTimeMillis() + 3600000);
+		assertNotNull(cache.getEncoded(checkCert, issuerCert, url));
+		assertEquals(2, requests.get());
+	}
+	
+	@Test
+	public void testStaleResponseIsNotServed() throws Exception {
+		nextUpdate = new Date(System.currentTimeMillis() - 1000);
+		OcspCache cache = new OcspCache(client, 10, 3600000, SAME_THREAD);
+		assertNull(cache.getEncoded(checkCert, issuerCert, url));
+		assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void testPrefetch() throws Exception {
+		nextUpdate = new Date(System.currentTimeMillis() + 3600000);
+		OcspCache cache = new OcspCache(client);
+		cache.prefetch(checkCert, issuerCert, url);
+		assertNotNull(cache.getEncoded(checkCert, issuerCert, url));
+		assertEquals(1, requests.get());
+	}
+	
+	/**
+	 * Creates a (unsigned) basic OCSP response with a good status.
+	 * @param thisUpdate	the time of the status
+	 * @param nextUpdate	the next update (or null)
+	 * @return	a DER encoded BasicOCSPResponse
+	 */
+	private byte[] createResponse(Date thisUpdate, Date nextUpdate) throws IOException {
+		byte[] sha1 = { 0x06, 0x05, 0x2B, 0x0E, 0x03, 0x02, 0x1A };
+		byte[] certId = der(0x30,
+				der(0x30, sha1, new byte[] { 0x05, 0x00 }),
+				der(0x04, new byte[20]),
+				der(0x04, new byte[20]),
+				der(0x02, checkCert.getSerialNumber().toByteArray()));
+		byte[] single = der(0x30,
+				certId,
+				der(0x80),
+				time(thisUpdate),
+				nextUpdate == null ? new byte[0] : der(0xA0, time(nextUpdate)));
+		byte[] tbs = der(0x30,
+				der(0xA1, der(0x30)),
+				time(thisUpdate),
+				der(0x30, single));
+		return der(0x30,
+				tbs,
+				der(0x30, new byte[] { 0x06, 0x08, 0x2A, (byte) 0x86, 0x48, (byte) 0xCE, 0x3D, 0x04, 0x03, 0x02 }),
+				der(0x03, new byte[1]));
+	}
+	
+	/**
+	 * Encodes a GeneralizedTime.
+	 */
+	private static byte[] time(Date date) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return der(0x18, format.format(date).getBytes());
+	}
+	
+	/**
+	 * Encodes a DER object.
+	 */
+	private static byte[] der(int tag, byte[]... parts) {
+		ByteArrayOutputStream value = new ByteArrayOutputStream();
+		for (byte[] part : parts)
+			value.write(part, 0, part.length);
+		ByteArrayOutputStream der = new ByteArrayOutputStream();
+		der.write(tag);
+		int length = value.size();
+		if (length > 0xFF) {
+			der.write(0x82);
+			der.write(length >> 8);
+		}
+		else if (length > 0x7F) {
+			der.write(0x81);
+		}
+		der.write(length & 0xFF);
+		der.write(value.toByteArray(), 0, length);
+		return der.toByteArray();
+	}
+	
+	/**
+	 * Reads a stream until the end.
+	 */
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int n;
+		while ((n = in.read(buffer)) != -1)
+			out.write(buffer, 0, n);
+		in.close();
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.itextpdf.smartcard.PinProvider;
+import com.itextpdf.smartcard.SmartCardWithKey;
+import com.itextpdf.smartcard.beid.BeIDCard;
+import com.itextpdf.smartcard.beid.BeIDCertificates;
+import com.itextpdf.smartcard.transport.SimulatedTransport;
+import com.itextpdf.smartcard.util.LazyCertificate;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the signing server and client on the loopback interface, with a simulated card.
+ */
+public class SigningServerTest {
+	
+	/** The file id of the identity file (personal data that isn't served). */
+	private static final byte[] IDENTITY_FILE_ID = new byte[] { 0x3F, 0x00, (byte) 0xDF, 0x01, 0x40, 0x31 };
+	
+	/** The simulated card. */
+	private SimulatedTransport transport;
+	
+	/** The server. */
+	private SigningServer server;
+	
+	/** The file with the token of the server. */
+	private File tokenFile;
+	
+	/** The port of the server. */
+	private int port;
+	
+	@Before
+	public void setUp() throws Exception {
+		transport = new SimulatedTransport(SimulatedTransport.BEID_ATR);
+		transport.addCertificate(BeIDCertificates.SIGN_CERT_FILE_ID, certificate("signer-rsa.der"));
+		transport.addCertificate(BeIDCertificates.CA_CERT_FILE_ID, certificate("ca.der"));
+		transport.addCertificate(BeIDCertificates.ROOT_CERT_FILE_ID, certificate("root.der"));
+		transport.addFile(IDENTITY_FILE_ID, new byte[] { 0x01, 0x02, 0x03 });
+		transport.addKey(BeIDCertificates.NON_REPUDIATION_KEY_ID,
+				SimulatedTransport.readPrivateKey("signer-rsa.pk8", "RSA"));
+		BeIDCard card = new BeIDCard(transport);
+		card.setPinProvider(new PinProvider() {
+			public char[] getPin(int retries) {
+				return "1234".toCharArray();
+			}
+		});
+		tokenFile = File.createTempFile("signing-server", ".token");
+		server = new SigningServer(Collections.<SmartCardWithKey>singletonList(card));
+		server.setTokenFile(tokenFile);
+		port = server.start(0);
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		server.stop();
+		tokenFile.delete();
+	}
+	
+	@Test
+	public void testSign() throws Exception {
+		SigningClient client = new SigningClient(port, tokenFile, 0, "SHA256", null);
+		try {
+			assertEquals(1, client.getCardCount());
+			assertEquals("RSA", client.getEncryptionAlgorithm());
+			Certificate[] chain = client.getCertificateChain();
+			assertEquals(3, chain.length);
+			byte[] message = "Hello World".getBytes("UTF-8");
+			byte[] signature = client.sign(message);
+			Signature verifier = Signature.getInstance("SHA256withRSA");
+			verifier.initVerify(chain[0].getPublicKey());
+			verifier.update(message);
+			assertTrue(verifier.verify(signature));
+			assertEquals(1, transport.getSignatureCount());
+		}
+		finally {
+			client.close();
+		}
+	}
+	
+	@Test
+	public void testTokenFileIsOwnerOnly() throws Exception {
+		assertEquals(32, tokenFile.length());
+		if (File.separatorChar == '/') {
+			Process process = new ProcessBuilder("ls", "-l", tokenFile.getAbsolutePath()).start();
+			byte[] listing = new byte[10];
+			assertEquals(10, process.getInputStream().read(listing));
+			assertEquals("-rw-------", new String(listing, "US-ASCII"));
+		}
+	}
+	
+	@Test
+	public void testWrongTokenIsRejected() throws Exception {
+		File wrongToken = File.createTempFile("wrong", ".token");
+		try {
+			FileOutputStream out = new FileOutputStream(wrongToken);
+			out.write(new byte[32]);
+			out.close();
+			SigningClient client = new SigningClient(port, wrongToken, 0, "SHA256", null);
+			try {
+				client.sign(new byte[] { 1 });
+				fail("The server accepted a request without the right token");
+			} catch (GeneralSecurityException e) {
+				assertEquals("Not authorized", e.getCause().getMessage());
+			}
+			finally {
+				client.close();
+			}
+			assertEquals(0, transport.getSignatureCount());
+		}
+		finally {
+			wrongToken.delete();
+		}
+	}
+	
+	@Test
+	public void testOnlyCertificatesCanBeRead() throws Exception {
+		SigningClient client = new SigningClient(port, tokenFile, 0, "SHA256", null);
+		try {
+			assertArrayEquals(certificate("ca.der").getEncoded(), client.readFile(BeIDCertificates.CA_CERT_FILE_ID));
+			try {
+				client.readFile(IDENTITY_FILE_ID);
+				fail("The identity file was served");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+		finally {
+			client.close();
+		}
+	}
+	
+	@Test
+	public void testTokenFileIsDeletedOnStop() throws Exception {
+		server.stop();
+		assertTrue(!tokenFile.exists());
+	}
+	
+	/**
+	 * Reads a certificate from the resources of the tests.
+	 */
+	private static X509Certificate certificate(String name) throws GeneralSecurityException {
+		return (X509Certificate) LazyCertificate.getFactory().generateCertificate(
+				new ByteArrayInputStream(SimulatedTransport.readResource(name)));
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.itextpdf.smartcard.util.IsoIec7816;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+
+import org.junit.Test;
+
+/**
+ * Tests recording and replaying sessions with a simulated card.
+ */
+public class RecordingTransportTest {
+	
+	/** The path of a file on the card. */
+	private static final byte[] FILE_ID = { 0x3F, 0x00, 0x50, 0x38 };
+	
+	/** Selects the file. */
+	private static final CommandAPDU SELECT_FILE = new CommandAPDU(0x00, IsoIec7816.INS_SELECT, 0x08, 0x0C, FILE_ID);
+	
+	/** Selects a file that doesn't exist. */
+	private static final CommandAPDU SELECT_OTHER_FILE = new CommandAPDU(0x00, IsoIec7816.INS_SELECT, 0x08, 0x0C,
+			new byte[] { 0x3F, 0x00, 0x50, 0x39 });
+	
+	@Test
+	public void testPinIsNotRecorded() throws Exception {
+		SimulatedTransport card = new SimulatedTransport(SimulatedTransport.BEID_ATR);
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		RecordingTransport recording = new RecordingTransport(card, log);
+		assertEquals(IsoIec7816.SW_NO_FURTHER_QUALIFICATION, recording.transmit(0, verify("1234")).getSW());
+		recording.close();
+		assertTrue(indexOf(log.toByteArray(), verify("1234").getBytes()) < 0);
+		// the PIN is only replaced in commands that carry a PIN
+		assertArrayEquals(SELECT_FILE.getBytes(), RecordingTransport.redact(SELECT_FILE.getBytes()));
+		ReplayTransport replay = new ReplayTransport(new ByteArrayInputStream(log.toByteArray()), false);
+		assertEquals(IsoIec7816.SW_NO_FURTHER_QUALIFICATION, replay.transmit(0, verify("5678")).getSW());
+		assertEquals(0, replay.getRemaining());
+	}
+	
+	@Test
+	public void testResponsesAreReplayedPerChannel() throws Exception {
+		SimulatedTransport card = new SimulatedTransport(SimulatedTransport.BEID_ATR);
+		card.addFile(FILE_ID, new byte[] { 1, 2, 3 });
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		RecordingTransport recording = new RecordingTransport(card, log);
+		int first = recording.openLogicalChannel();
+		int second = recording.openLogicalChannel();
+		assertEquals(0x9000, recording.transmit(first, SELECT_FILE).getSW());
+		assertEquals(0x6A82, recording.transmit(second, SELECT_OTHER_FILE).getSW());
+		recording.close();
+		ReplayTransport replay = new ReplayTransport(new ByteArrayInputStream(log.toByteArray()), false);
+		first = replay.openLogicalChannel();
+		second = replay.openLogicalChannel();
+		try {
+			replay.transmit(second, SELECT_FILE);
+			fail("A response recorded on another channel was replayed");
+		} catch (CardException e) {
+			// expected
+		}
+		assertEquals(0x6A82, replay.transmit(second, SELECT_OTHER_FILE).getSW());
+		assertEquals(0x9000, replay.transmit(first, SELECT_FILE).getSW());
+	}
+	
+	/**
+	 * Creates a VERIFY command with a format 2 PIN block.
+	 */
+	private static CommandAPDU verify(String pin) {
+		byte[] block = { (byte) (0x20 | pin.length()), (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+				(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF };
+		for (int i = 0; i < pin.length(); i++) {
+			int digit = pin.charAt(i) - '0';
+			int index = 1 + i / 2;
+			block[index] = (byte) (i % 2 == 0 ? (digit << 4) | 0x0F : (block[index] & 0xF0) | digit);
+		}
+		return new CommandAPDU(0x00, IsoIec7816.INS_VERIFY_DATA, 0x00, 0x01, block);
+	}
+	
+	/**
+	 * Finds bytes in a byte array.
+	 */
+	private static int indexOf(byte[] bytes, byte[] part) {
+		for (int i = 0; i + part.length <= bytes.length; i++) {
+			int j = 0;
+			while (j < part.length && bytes[i + j] == part[j])
+				j++;
+			if (j == part.length)
+				return i;
+		}
+		return -1;
+	}
+}
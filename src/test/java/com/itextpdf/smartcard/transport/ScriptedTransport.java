@@ -0,0 +1,118 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.transport;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+/**
+ * A simulated card that remembers the APDUs it received, and that gives
+ * scripted responses (in the order they were added) before it answers
+ * like a simulated card again.
+ */
+public class ScriptedTransport extends SimulatedTransport {
+	
+	/** The responses that are given before the simulated card answers. */
+	private final LinkedList<ResponseAPDU> responses = new LinkedList<ResponseAPDU>();
+	
+	/** The APDUs the card received. */
+	private final List<CommandAPDU> commands = new ArrayList<CommandAPDU>();
+	
+	/**
+	 * Creates a scripted card.
+	 * @param atr	the ATR of the card
+	 */
+	public ScriptedTransport(byte[] atr) {
+		super(atr);
+	}
+	
+	/**
+	 * Adds a response without data to the script.
+	 * @param sw	the status word
+	 */
+	public void addResponse(int sw) {
+		addResponse(new byte[0], sw);
+	}
+	
+	/**
+	 * Adds a response to the script.
+	 * @param data	the data of the response
+	 * @param sw	the status word
+	 */
+	public synchronized void addResponse(byte[] data, int sw) {
+		byte[] response = new byte[data.length + 2];
+		System.arraycopy(data, 0, response, 0, data.length);
+		response[data.length] = (byte) (sw >> 8);
+		response[data.length + 1] = (byte) sw;
+		responses.add(new ResponseAPDU(response));
+	}
+	
+	/**
+	 * Returns the APDUs the card received, and forgets them.
+	 * @return	the APDUs in the order they were sent
+	 */
+	public synchronized List<CommandAPDU> getCommands() {
+		List<CommandAPDU> received = new ArrayList<CommandAPDU>(commands);
+		commands.clear();
+		return received;
+	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.transport.SimulatedTransport#transmit(int, javax.smartcardio.CommandAPDU)
+	 */
+	public ResponseAPDU transmit(int channelNumber, CommandAPDU command) throws CardException {
+		synchronized (this) {
+			commands.add(command);
+			if (!responses.isEmpty())
+				return responses.removeFirst();
+		}
+		return super.transmit(channelNumber, command);
+	}
+}
@@ -0,0 +1,507 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.transport;
+
+import com.itextpdf.smartcard.Features;
+import com.itextpdf.smartcard.SmartCardWithKey;
+import com.itextpdf.smartcard.util.IsoIec7816;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+import javax.smartcardio.ATR;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+/**
+ * A card simulated in memory: it has files that can be selected by path
+ * and read, a PIN, and keys that sign with the APDUs of the Belgian eID
+ * (MANAGE SECURITY ENVIRONMENT and PERFORM SECURITY OPERATION).
+ * The reader has no pin pad.
+ */
+public class SimulatedTransport implements CardTransport {
+	
+	/** The ATR of a Belgian eID card with applet 1.7. */
+	public static final byte[] BEID_ATR = new byte[] { 0x3B, (byte) 0x98, 0x13, 0x40, 0x0A,
+		(byte) 0xA5, 0x03, 0x01, 0x01, 0x01, (byte) 0xAD, 0x13, 0x11 };
+	
+	/** The ATR of a Belgian eID card with applet 1.8. */
+	public static final byte[] BEID_1_8_ATR = new byte[] { 0x3B, 0x7F, (byte) 0x96, 0x00, 0x00,
+		(byte) 0x80, 0x31, (byte) 0x80, 0x65, (byte) 0xB0, (byte) 0x85, 0x04, 0x01, 0x20,
+		0x12, 0x0F, (byte) 0xFF, (byte) 0x82, (byte) 0x90, 0x00 };
+	
+	/** The number of logical channels of the card. */
+	public static final int LOGICAL_CHANNELS = 3;
+	
+	/** The ATR of the card. */
+	private final ATR atr;
+	
+	/** The files, mapped by path. */
+	private final Map<ByteBuffer, byte[]> files = new HashMap<ByteBuffer, byte[]>();
+	
+	/** The keys, mapped by key id. */
+	private final Map<Byte, PrivateKey> keys = new HashMap<Byte, PrivateKey>();
+	
+	/** The file selected on every channel. */
+	private final byte[][] selected = new byte[LOGICAL_CHANNELS + 1][];
+	
+	/** The open logical channels. */
+	private final boolean[] open = new boolean[LOGICAL_CHANNELS + 1];
+	
+	/** The PIN. */
+	private String pin = "1234";
+	
+	/** The number of PIN tries left. */
+	private int tries = 3;
+	
+	/** True if the PIN was verified since the card was reset. */
+	private boolean verified;
+	
+	/** The algorithm reference of the security environment (0 if none). */
+	private byte algorithm;
+	
+	/** The key of the security environment. */
+	private byte key;
+	
+	/** The data of a command chain. */
+	private ByteArrayOutputStream chain = new ByteArrayOutputStream();
+	
+	/** True if the transport is connected. */
+	private volatile boolean connected = true;
+	
+	/** The generation of the connection. */
+	private volatile int generation;
+	
+	/** The time (in ms) every APDU takes. */
+	private volatile long latency;
+	
+	/** The number of APDUs the card received. */
+	private final AtomicInteger transmits = new AtomicInteger();
+	
+	/** The number of signatures the card made. */
+	private final AtomicInteger signatures = new AtomicInteger();
+	
+	/**
+	 * Creates a simulated card.
+	 * @param atr	the ATR of the card
+	 */
+	public SimulatedTransport(byte[] atr) {
+		this.atr = new ATR(atr);
+		open[0] = true;
+	}
+	
+	/**
+	 * Adds a file.
+	 * @param fileId	the path of the file
+	 * @param content	the content of the file
+	 */
+	public synchronized void addFile(byte[] fileId, byte[] content) {
+		files.put(ByteBuffer.wrap(fileId.clone()), content.clone());
+	}
+	
+	/**
+	 * Adds a certificate file.
+	 * @param fileId	the path of the file
+	 * @param certificate	the certificate
+	 * @throws GeneralSecurityException
+	 */
+	public void addCertificate(byte[] fileId, Certificate certificate) throws GeneralSecurityException {
+		addFile(fileId, certificate.getEncoded());
+	}
+	
+	/**
+	 * Adds a key.
+	 * @param keyId	the id of the key
+	 * @param privateKey	the private key
+	 */
+	public synchronized void addKey(byte keyId, PrivateKey privateKey) {
+		keys.put(keyId, privateKey);
+	}
+	
+	/**
+	 * Changes the PIN.
+	 * @param pin	the PIN
+	 */
+	public synchronized void setPin(String pin) {
+		this.pin = pin;
+	}
+	
+	/**
+	 * Changes the time every APDU takes.
+	 * @param latency	a time in milliseconds
+	 */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+	
+	/**
+	 * Returns the number of APDUs the card received.
+	 * @return	a number of APDUs
+	 */
+	public int getTransmitCount() {
+		return transmits.get();
+	}
+	
+	/**
+	 * Returns the number of signatures the card made.
+	 * @return	a number of signatures
+	 */
+	public int getSignatureCount() {
+		return signatures.get();
+	}
+	
+	/**
+	 * Reads a resource of the tests.
+	 * @param name	the name of the resource next to the test classes
+	 * @return	the content of the resource
+	 */
+	public static byte[] readResource(String name) {
+		try {
+			InputStream in = SimulatedTransport.class.getResourceAsStream("/com/itextpdf/smartcard/" + name);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				out.write(buffer, 0, n);
+			in.close();
+			return out.toByteArray();
+		} catch (Exception e) {
+			throw new IllegalStateException("Can't read " + name, e);
+		}
+	}
+	
+	/**
+	 * Reads a private key from the resources of the tests.
+	 * @param name	the name of a PKCS#8 file
+	 * @param algorithm	the algorithm of the key ("RSA" or "EC")
+	 * @return	the private key
+	 * @throws GeneralSecurityException
+	 */
+	public static PrivateKey readPrivateKey(String name, String algorithm) throws GeneralSecurityException {
+		return KeyFactory.getInstance(algorithm).generatePrivate(new PKCS8EncodedKeySpec(readResource(name)));
+	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#getATR()
+	 */
+	public ATR getATR() {
+		return atr;
+	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#getProtocol()
+	 */
+	public String getProtocol() {
+		return "T=1";
+	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#isConnected()
+	 */
+	public boolean isConnected() {
+		return connected;
+	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#getGeneration()
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#isCardPresent()
+	 */
+	public boolean isCardPresent() {
+		return true;
+	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#transmit(int, javax.smartcardio.CommandAPDU)
+	 */
+	public ResponseAPDU transmit(int channelNumber, CommandAPDU command) throws CardException {
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				throw new CardException(e);
+			}
+		}
+		synchronized (this) {
+			if (!connected)
+				throw new CardException("The card is disconnected.");
+			if (channelNumber < 0 || channelNumber > LOGICAL_CHANNELS || !open[channelNumber])
+				throw new CardException("Channel " + channelNumber + " isn't open.");
+			transmits.incrementAndGet();
+			if ((command.getCLA() & IsoIec7816.CLA_COMMAND_CHAINING) != 0) {
+				chain.write(command.getData(), 0, command.getNc());
+				return status(IsoIec7816.SW_NO_FURTHER_QUALIFICATION);
+			}
+			byte[] data = command.getData();
+			if (chain.size() > 0) {
+				chain.write(data, 0, data.length);
+				data = chain.toByteArray();
+				chain.reset();
+			}
+			switch ((byte) command.getINS()) {
+			case IsoIec7816.INS_SELECT:
+				return select(channelNumber, data);
+			case IsoIec7816.INS_READ_BINARY:
+				return readBinary(channelNumber, command.getP1() << 8 | command.getP2(), command.getNe());
+			case IsoIec7816.INS_VERIFY_DATA:
+				return verify(data);
+			case IsoIec7816.INS_MANAGE_SECURITY_ENVIRONMENT:
+				if (data.length < 5 || !keys.containsKey(data[4]))
+					return status(0x6A88);
+				algorithm = data[2];
+				key = data[4];
+				return status(IsoIec7816.SW_NO_FURTHER_QUALIFICATION);
+			case IsoIec7816.INS_PERFORM_SECURITY_OPERATION:
+				return sign(data);
+			default:
+				return status(0x6D00);
+			}
+		}
+	}
+	
+	/**
+	 * Selects a file by path.
+	 */
+	private ResponseAPDU select(int channelNumber, byte[] path) {
+		if (!files.containsKey(ByteBuffer.wrap(path)))
+			return status(0x6A82);
+		selected[channelNumber] = path;
+		return status(IsoIec7816.SW_NO_FURTHER_QUALIFICATION);
+	}
+	
+	/**
+	 * Reads from the selected file.
+	 */
+	private ResponseAPDU readBinary(int channelNumber, int offset, int length) {
+		if (selected[channelNumber] == null)
+			return status(0x6986);
+		byte[] file = files.get(ByteBuffer.wrap(selected[channelNumber]));
+		if (offset >= file.length)
+			return status(IsoIec7816.SW_WRONG_PARAMETERS);
+		int n = Math.min(length == 0 ? 256 : length, file.length - offset);
+		return response(Arrays.copyOfRange(file, offset, offset + n));
+	}
+	
+	/**
+	 * Verifies a PIN in the format of the Belgian eID (format 2 PIN block).
+	 */
+	private ResponseAPDU verify(byte[] data) {
+		if (tries == 0)
+			return status(IsoIec7816.SW_AUTHENTICATION_METHOD_BLOCKED);
+		StringBuilder entered = new StringBuilder();
+		int length = data.length > 0 ? data[0] & 0x0F : 0;
+		for (int i = 0; i < length && 1 + i / 2 < data.length; i++) {
+			int b = data[1 + i / 2];
+			entered.append((char) ('0' + (i % 2 == 0 ? (b >> 4) & 0x0F : b & 0x0F)));
+		}
+		if (!pin.equals(entered.toString())) {
+			verified = false;
+			tries--;
+			return status(0x63C0 | tries);
+		}
+		tries = 3;
+		verified = true;
+		return status(IsoIec7816.SW_NO_FURTHER_QUALIFICATION);
+	}
+	
+	/**
+	 * Signs the data with the key of the security environment.
+	 */
+	private ResponseAPDU sign(byte[] data) {
+		if (algorithm == 0)
+			return status(0x6985);
+		if (!verified)
+			return status(IsoIec7816.SW_SECURITY_STATUS_NOT_SATISFIED);
+		try {
+			byte[] signature;
+			if (algorithm == SmartCardWithKey.ALGORITHM_RSA_PKCS1) {
+				Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+				cipher.init(Cipher.ENCRYPT_MODE, keys.get(key));
+				signature = cipher.doFinal(data);
+			}
+			else if (algorithm == SmartCardWithKey.ALGORITHM_ECDSA) {
+				Signature ecdsa = Signature.getInstance("NONEwithECDSA");
+				ecdsa.initSign(keys.get(key));
+				ecdsa.update(data);
+				signature = derToRaw(ecdsa.sign(), 32);
+			}
+			else {
+				return status(0x6A80);
+			}
+			signatures.incrementAndGet();
+			return response(signature);
+		} catch (GeneralSecurityException e) {
+			return status(0x6F00);
+		}
+	}
+	
+	/**
+	 * Converts a DER encoded ECDSA signature to r and s (the format of the card).
+	 */
+	private static byte[] derToRaw(byte[] der, int size) {
+		byte[] raw = new byte[2 * size];
+		int pos = 2;
+		for (int i = 0; i < 2; i++) {
+			int length = der[pos + 1];
+			int start = pos + 2;
+			int skip = Math.max(0, length - size);
+			System.arraycopy(der, start + skip, raw, (i + 1) * size - (length - skip), length - skip);
+			pos = start + length;
+		}
+		return raw;
+	}
+	
+	/**
+	 * Creates a response without data.
+	 */
+	private static ResponseAPDU status(int sw) {
+		return new ResponseAPDU(new byte[] { (byte) (sw >> 8), (byte) sw });
+	}
+	
+	/**
+	 * Creates a successful response with data.
+	 */
+	private static ResponseAPDU response(byte[] data) {
+		byte[] response = Arrays.copyOf(data, data.length + 2);
+		response[data.length] = (byte) 0x90;
+		return new ResponseAPDU(response);
+	}
+	
+	/**
+	 * The reader has no features (no pin pad).
+	 * @see com.itextpdf.smartcard.transport.CardTransport#transmitControlCommand(int, byte[])
+	 */
+	public byte[] transmitControlCommand(int controlCode, byte[] command) throws CardException {
+		if (controlCode == Features.CONTROL_CODE_QUERY_FEATURES)
+			return new byte[0];
+		throw new CardException("Unsupported control code: " + Integer.toHexString(controlCode));
+	}
+	
+	/**
+	 * The simulated reader has no pin pad: only a reset is supported.
+	 * @see com.itextpdf.smartcard.transport.CardTransport#abort(java.lang.Integer)
+	 */
+	public void abort(Integer abortControlCode) throws CardException {
+		if (abortControlCode != null)
+			throw new CardException("Unsupported control code: " + Integer.toHexString(abortControlCode));
+		reconnect();
+	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#beginExclusive()
+	 */
+	public void beginExclusive() {
+	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#endExclusive()
+	 */
+	public void endExclusive() {
+	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#openLogicalChannel()
+	 */
+	public synchronized int openLogicalChannel() throws CardException {
+		for (int i = 1; i <= LOGICAL_CHANNELS; i++) {
+			if (!open[i]) {
+				open[i] = true;
+				selected[i] = null;
+				return i;
+			}
+		}
+		throw new CardException("No logical channel left.");
+	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#closeLogicalChannel(int)
+	 */
+	public synchronized void closeLogicalChannel(int channelNumber) {
+		if (channelNumber > 0 && channelNumber <= LOGICAL_CHANNELS)
+			open[channelNumber] = false;
+	}
+	
+	/**
+	 * Resets the card: the PIN needs to be verified again.
+	 * @see com.itextpdf.smartcard.transport.CardTransport#reconnect()
+	 */
+	public synchronized void reconnect() {
+		Arrays.fill(open, 1, open.length, false);
+		Arrays.fill(selected, null);
+		verified = false;
+		algorithm = 0;
+		chain.reset();
+		generation++;
+		connected = true;
+	}
+	
+	/**
+	 * @see com.itextpdf.smartcard.transport.CardTransport#disconnect(boolean)
+	 */
+	public synchronized void disconnect(boolean reset) {
+		if (reset)
+			reconnect();
+		generation++;
+		connected = false;
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+import org.junit.Test;
+
+/**
+ * Tests reading fields of a certificate without parsing it.
+ */
+public class LazyCertificateTest {
+	
+	@Test
+	public void testFieldsMatchTheParsedCertificate() throws Exception {
+		X509Certificate parsed = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(
+				LazyCertificateTest.class.getResourceAsStream("/com/itextpdf/smartcard/signer.der"));
+		LazyCertificate certificate = new LazyCertificate(parsed.getEncoded());
+		assertEquals(parsed.getSerialNumber(), certificate.getSerialNumber());
+		assertEquals(parsed.getPublicKey().getAlgorithm(), certificate.getPublicKeyAlgorithm());
+	}
+	
+	@Test
+	public void testTruncatedCertificates() throws Exception {
+		// an empty TBSCertificate
+		assertNoSerialNumber(new byte[] { 0x30, 0x02, 0x30, 0x00 });
+		// a TBSCertificate with only a version
+		assertNoSerialNumber(new byte[] { 0x30, 0x04, 0x30, 0x02, (byte) 0xA0, 0x00 });
+	}
+	
+	/**
+	 * Checks that reading the serial number of a broken certificate fails with a CertificateException.
+	 * @param encoded	the broken certificate
+	 */
+	private static void assertNoSerialNumber(byte[] encoded) throws CertificateException {
+		LazyCertificate certificate = new LazyCertificate(encoded);
+		try {
+			certificate.getSerialNumber();
+			fail("A serial number was found in a truncated certificate");
+		} catch (CertificateException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2014 iText Group NV
+ * Author: Bruno Lowagie
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY
+ * ITEXT GROUP. ITEXT GROUP DISCLAIMS THE WARRANTY OF NON INFRINGEMENT
+ * OF THIRD PARTY RIGHTS
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.smartcard.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.itextpdf.smartcard.transport.ScriptedTransport;
+import com.itextpdf.smartcard.transport.SimulatedTransport;
+import com.itextpdf.smartcard.transport.TransportCard;
+
+import java.util.List;
+
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the status words SmartCardIO handles for the caller,
+ * by checking the APDUs that are sent to a card with scripted responses.
+ */
+public class SmartCardIOTest {
+	
+	/** The card. */
+	private ScriptedTransport transport;
+	
+	/** The basic channel of the card. */
+	private CardChannel channel;
+	
+	@Before
+	public void setUp() throws CardException {
+		transport = new ScriptedTransport(SimulatedTransport.BEID_ATR);
+		channel = new TransportCard(transport).getBasicChannel();
+	}
+	
+	@Test
+	public void testWrongLengthIsSentAgainWithLe() throws CardException {
+		transport.addResponse(0x6C08);
+		transport.addResponse(bytes(8, 1), 0x9000);
+		ResponseAPDU response = SmartCardIO.transmit(channel, new CommandAPDU(0x00, IsoIec7816.INS_READ_BINARY, 0x00, 0x00, 256));
+		assertEquals(0x9000, response.getSW());
+		assertArrayEquals(bytes(8, 1), response.getData());
+		List<CommandAPDU> commands = transport.getCommands();
+		assertEquals(2, commands.size());
+		assertArrayEquals(new byte[] { 0x00, (byte) 0xB0, 0x00, 0x00, 0x00 }, commands.get(0).getBytes());
+		assertArrayEquals(new byte[] { 0x00, (byte) 0xB0, 0x00, 0x00, 0x08 }, commands.get(1).getBytes());
+	}
+	
+	@Test
+	public void testWrongLengthKeepsTheData() throws CardException {
+		transport.addResponse(0x6C00);
+		transport.addResponse(bytes(256, 1), 0x9000);
+		CommandAPDU command = new CommandAPDU(0x00, IsoIec7816.INS_PERFORM_SECURITY_OPERATION, 0x9E, 0x9A, new byte[] { 1, 2, 3 }, 16);
+		ResponseAPDU response = SmartCardIO.transmit(channel, command);
+		assertEquals(0x9000, response.getSW());
+		assertEquals(256, response.getNr());
+		List<CommandAPDU> commands = transport.getCommands();
+		assertEquals(2, commands.size());
+		assertArrayEquals(command.getBytes(), commands.get(0).getBytes());
+		// SW2 0x00 means 256 bytes, a short Le of 0x00
+		assertArrayEquals(new byte[] { 0x00, 0x2A, (byte) 0x9E, (byte) 0x9A, 0x03, 1, 2, 3, 0x00 }, commands.get(1).getBytes());
+	}
+	
+	@Test
+	public void testBytesRemainingAreFetchedWithGetResponse() throws CardException {
+		transport.addResponse(bytes(3, 1), 0x6104);
+		transport.addResponse(bytes(4, 4), 0x6100);
+		transport.addResponse(bytes(256, 8), 0x9000);
+		// the last block of a chain: GET RESPONSE is sent without the chaining bit
+		CommandAPDU command = new CommandAPDU(0x10, IsoIec7816.INS_PERFORM_SECURITY_OPERATION, 0x9E, 0x9A, new byte[] { 1, 2, 3 });
+		ResponseAPDU response = SmartCardIO.transmit(channel, command);
+		assertEquals(0x9000, response.getSW());
+		byte[] data = new byte[3 + 4 + 256];
+		System.arraycopy(bytes(3, 1), 0, data, 0, 3);
+		System.arraycopy(bytes(4, 4), 0, data, 3, 4);
+		System.arraycopy(bytes(256, 8), 0, data, 7, 256);
+		assertArrayEquals(data, response.getData());
+		List<CommandAPDU> commands = transport.getCommands();
+		assertEquals(3, commands.size());
+		assertArrayEquals(command.getBytes(), commands.get(0).getBytes());
+		assertArrayEquals(new byte[] { 0x00, (byte) 0xC0, 0x00, 0x00, 0x04 }, commands.get(1).getBytes());
+		assertArrayEquals(new byte[] { 0x00, (byte) 0xC0, 0x00, 0x00, 0x00 }, commands.get(2).getBytes());
+	}
+	
+	@Test
+	public void testWrongLengthThenBytesRemaining() throws CardException {
+		transport.addResponse(0x6C02);
+		transport.addResponse(bytes(2, 1), 0x6101);
+		transport.addResponse(bytes(1, 3), 0x9000);
+		ResponseAPDU response = SmartCardIO.transmit(channel, new CommandAPDU(0x00, IsoIec7816.INS_READ_BINARY, 0x00, 0x00, 256));
+		assertEquals(0x9000, response.getSW());
+		assertArrayEquals(bytes(3, 1), response.getData());
+		List<CommandAPDU> commands = transport.getCommands();
+		assertEquals(3, commands.size());
+		assertArrayEquals(new byte[] { 0x00, (byte) 0xB0, 0x00, 0x00, 0x02 }, commands.get(1).getBytes());
+		assertArrayEquals(new byte[] { 0x00, (byte) 0xC0, 0x00, 0x00, 0x01 }, commands.get(2).getBytes());
+	}
+	
+	@Test
+	public void testGetResponsesAreLimited() throws CardException {
+		for (int i = 0; i < 300; i++)
+			transport.addResponse(bytes(1, i), 0x6101);
+		try {
+			SmartCardIO.transmit(channel, new CommandAPDU(0x00, IsoIec7816.INS_READ_BINARY, 0x00, 0x00, 256));
+			fail("A card that never stops answering 61xx was read forever");
+		} catch (CardException e) {
+			// expected
+		}
+		// the command and 256 GET RESPONSE commands
+		assertEquals(257, transport.getCommands().size());
+	}
+	
+	@Test
+	public void testDataIsSentInChainedBlocks() throws CardException {
+		for (int i = 0; i < 3; i++)
+			transport.addResponse(0x9000);
+		byte[] data = bytes(600, 0);
+		CommandAPDU command = new CommandAPDU(0x00, IsoIec7816.INS_PERFORM_SECURITY_OPERATION, 0x9E, 0x9A, data, 256);
+		assertEquals(0x9000, SmartCardIO.transmitChained(channel, command, 255).getSW());
+		List<CommandAPDU> commands = transport.getCommands();
+		assertEquals(3, commands.size());
+		for (int i = 0; i < 3; i++) {
+			int length = Math.min(255, data.length - i * 255);
+			byte[] block = new byte[length];
+			System.arraycopy(data, i * 255, block, 0, length);
+			assertArrayEquals(block, commands.get(i).getData());
+			assertEquals(i < 2 ? 0x10 : 0x00, commands.get(i).getCLA());
+			assertEquals(i < 2 ? 0 : 256, commands.get(i).getNe());
+		}
+	}
+	
+	@Test
+	public void testChainStopsAtRejectedBlock() throws CardException {
+		transport.addResponse(0x9000);
+		transport.addResponse(0x6A80);
+		CommandAPDU command = new CommandAPDU(0x00, IsoIec7816.INS_PERFORM_SECURITY_OPERATION, 0x9E, 0x9A, bytes(1000, 0));
+		assertEquals(0x6A80, SmartCardIO.transmitChained(channel, command, 255).getSW());
+		assertEquals(2, transport.getCommands().size());
+	}
+	
+	/**
+	 * Creates an array of consecutive bytes.
+	 * @param length	the length of the array
+	 * @param first		the value of the first byte
+	 */
+	private static byte[] bytes(int length, int first) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++)
+			bytes[i] = (byte) (first + i);
+		return bytes;
+	}
+}